@@ -0,0 +1,245 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.OutputStream;
+
+// J2SE Management packages
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+// J2SE Utilities packages
+import java.util.concurrent.TimeUnit;
+
+// Itext PDF packages
+import com.itextpdf.text.Document;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSmartCopy;
+import com.itextpdf.text.pdf.PdfWriter;
+
+// JMH packages
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the merge hot path.
+ * <p>
+ * Every benchmark operation merges a whole synthetic corpus through
+ * {@link MergeJob#mergePDF}, using PdfCopy or PdfSmartCopy as the
+ * 'merge.pdf.res.optimizing' switch does. The merged PDF is written to a
+ * discarding stream so that the results do not depend on the disk. The corpus
+ * is swept over the number of files, the number of pages per file and the
+ * ratio of pages sharing the same image.
+ * </p>
+ * <p>
+ * Besides the merges per second, the benchmark reports the pages merged per
+ * second ('pages'), the bytes of merged PDF ('bytesWritten') and the peak live
+ * heap in MB ('peakHeapMB', highest heap usage measured after a garbage
+ * collection). The allocation rate is reported by the JMH GC profiler :
+ * </p>
+ * <pre>
+ * mvn -f benchmarks/pom.xml package
+ * java -jar benchmarks/target/benchmarks.jar MergeBenchmark -prof gc
+ * java -jar benchmarks/target/benchmarks.jar MergeBenchmark -p copier=PdfSmartCopy -p fileCount=1000
+ * java -jar benchmarks/target/benchmarks.jar MergeBenchmark -p copier=PdfCopy -p fileCount=1 -p pageCount=5000 -p imageSize=8
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MergeBenchmark {
+
+    /**
+     * The iText writer used to merge, as selected by 'merge.pdf.res.optimizing'.
+     */
+    @Param({"PdfCopy", "PdfSmartCopy"})
+    public String copier;
+
+    /**
+     * How the PDFs are read : fully loaded onto the heap, or partially read
+     * ('merge.pdf.input.lowmemory') through a memory mapped file or through
+     * positioned reads.
+     */
+    @Param({"full", "mapped", "positioned"})
+    public String inputReader;
+
+    /**
+     * The number of PDFs to merge.
+     */
+    @Param({"10", "100"})
+    public int fileCount;
+
+    /**
+     * The number of pages of every PDF.
+     */
+    @Param({"1", "10"})
+    public int pageCount;
+
+    /**
+     * The ratio of pages using the image shared by every PDF.
+     */
+    @Param({"0.0", "0.5", "1.0"})
+    public double sharedResourceRatio;
+
+    /**
+     * The width and height of the images in pixels.
+     */
+    @Param({"96"})
+    public int imageSize;
+
+    @Setup(Level.Trial)
+    public void createCorpus() throws Exception {
+        corpus = SyntheticCorpus.create(fileCount, pageCount, sharedResourceRatio, imageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCorpus() {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public long merge(final MergeCounters counters, final HeapCounters heapCounters) throws Exception {
+        // Create the merged PDF writer
+        CountingNullOutputStream mergedPdfStream = new CountingNullOutputStream();
+        Document mergedPdfDocument = new Document();
+        PdfWriter mergedPdfWriter = null;
+        if (COPIER_SMART.equals(copier)) {
+            mergedPdfWriter = new PdfSmartCopy(mergedPdfDocument, mergedPdfStream);
+        } else {
+            mergedPdfWriter = new PdfCopy(mergedPdfDocument, mergedPdfStream);
+        }
+        mergedPdfDocument.open();
+
+        // Merge the whole corpus
+        long nbPagesMerged = 0;
+        for (String pdfToMerge : corpus.getFiles()) {
+            nbPagesMerged += MergeJob.mergePDF(openPdfReader(pdfToMerge), mergedPdfWriter, mergedPdfDocument, new MergeMetrics());
+        }
+        mergedPdfDocument.close();
+        mergedPdfWriter.close();
+
+        // Update the counters
+        counters.pages += nbPagesMerged;
+        counters.bytesWritten += mergedPdfStream.getCount();
+        heapCounters.updatePeakHeap();
+        return mergedPdfStream.getCount();
+    }
+
+    private PdfReader openPdfReader(final String pdfToMerge) throws Exception {
+        if (INPUT_READER_MAPPED.equals(inputReader)) {
+            return MergeJob.openPartialPdfReader(pdfToMerge, Long.MAX_VALUE);
+        } else if (INPUT_READER_POSITIONED.equals(inputReader)) {
+            return MergeJob.openPartialPdfReader(pdfToMerge, 0);
+        }
+        return new PdfReader(pdfToMerge);
+    }
+
+    /**
+     * The per iteration counters reported next to the merges per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class MergeCounters {
+
+        /**
+         * The number of pages merged, reported per second.
+         */
+        public long pages;
+
+        /**
+         * The number of bytes written, reported per second.
+         */
+        public long bytesWritten;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pages = 0;
+            bytesWritten = 0;
+        }
+    }
+
+    /**
+     * The per iteration peak live heap, reported as is.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HeapCounters {
+
+        /**
+         * The highest heap usage measured right after a garbage collection, in
+         * MB. This is the heap actually retained by the merge.
+         */
+        public long peakHeapMB() {
+            return peakHeapBytes / (1024 * 1024);
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            peakHeapBytes = 0;
+        }
+
+        void updatePeakHeap() {
+            long heapBytes = 0;
+            for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (memoryPool.getType() == MemoryType.HEAP && memoryPool.getCollectionUsage() != null) heapBytes += memoryPool.getCollectionUsage().getUsed();
+            }
+            peakHeapBytes = Math.max(peakHeapBytes, heapBytes);
+        }
+
+        private long peakHeapBytes;
+    }
+
+    /**
+     * A stream counting and discarding the merged PDF bytes.
+     */
+    private static class CountingNullOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        private long count;
+    }
+
+    /**
+     * The synthetic corpus merged by every operation.
+     */
+    private SyntheticCorpus corpus;
+
+    /**
+     * The copier parameter value selecting PdfSmartCopy.
+     */
+    private static final String COPIER_SMART = "PdfSmartCopy";
+
+    /**
+     * The input reader parameter values selecting partial reads.
+     */
+    private static final String INPUT_READER_MAPPED = "mapped";
+    private static final String INPUT_READER_POSITIONED = "positioned";
+}
@@ -0,0 +1,121 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Itext PDF packages
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/**
+ * A set of generated PDFs to be merged by the benchmarks.
+ * <p>
+ * Every page of every generated PDF holds a short text and an image. The image
+ * is either the logo shared by every PDF of the corpus or an image unique to the
+ * page, according to the shared resource ratio. Shared logos are the resources
+ * PdfSmartCopy can keep only once in the merged PDF. The corpus is generated
+ * with a fixed seed so that every run merges the same content.
+ * </p>
+ */
+class SyntheticCorpus {
+
+    /**
+     * Generate a new corpus in a temporary directory.
+     *
+     * @param fileCount           The number of PDFs to generate.
+     * @param pageCount           The number of pages of every PDF.
+     * @param sharedResourceRatio The ratio of pages using the shared logo, from
+     *                            0.0 (every image is unique) to 1.0 (every page
+     *                            uses the shared logo).
+     * @param imageSize           The width and height of the images in pixels.
+     * @return The generated corpus.
+     * @throws Exception Something went wrong while generating the PDFs.
+     */
+    static SyntheticCorpus create(final int fileCount, final int pageCount, final double sharedResourceRatio, final int imageSize) throws Exception {
+        // Create the corpus directory
+        File directory = File.createTempFile("pdf-merge-corpus", "");
+        if (!directory.delete() || !directory.mkdir()) throw new IOException("Corpus directory '" + directory + "' can not be created.");
+
+        // Generate the shared logo
+        Random random = new Random(CORPUS_SEED);
+        byte[] sharedLogo = new byte[imageSize * imageSize * 3];
+        random.nextBytes(sharedLogo);
+
+        // Generate every PDF
+        List<String> files = new ArrayList<String>(fileCount);
+        for (int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+            File file = new File(directory, String.format("corpus_%06d.pdf", fileIndex));
+            Document document = new Document();
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try {
+                PdfWriter.getInstance(document, outputStream);
+                document.open();
+                for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+                    if (pageIndex > 0) document.newPage();
+                    document.add(new Paragraph("Synthetic document " + fileIndex + ", page " + (pageIndex + 1)));
+
+                    // Use the shared logo or a new unique image
+                    byte[] image = sharedLogo;
+                    if (random.nextDouble() >= sharedResourceRatio) {
+                        image = new byte[sharedLogo.length];
+                        random.nextBytes(image);
+                    }
+                    document.add(Image.getInstance(imageSize, imageSize, 3, 8, image));
+                }
+                document.close();
+            } finally {
+                outputStream.close();
+            }
+            files.add(file.getPath());
+        }
+        return new SyntheticCorpus(directory, files);
+    }
+
+    private SyntheticCorpus(final File directory, final List<String> files) {
+        this.directory = directory;
+        this.files = files;
+    }
+
+    /**
+     * Get the paths of the generated PDFs, in merge order.
+     *
+     * @return The paths of the generated PDFs.
+     */
+    List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * Delete the generated PDFs.
+     */
+    void delete() {
+        for (String file : files) {
+            new File(file).delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * The directory holding the generated PDFs.
+     */
+    private final File directory;
+
+    /**
+     * The paths of the generated PDFs.
+     */
+    private final List<String> files;
+
+    /**
+     * The seed used to generate the corpus content.
+     */
+    private static final long CORPUS_SEED = 20120109L;
+}
@@ -0,0 +1,141 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * An output stream adding bytes at the end of an existing file.
+ * <p>
+ * An incremental update of a PDF is written by iText as a copy of the original
+ * PDF followed by the update : the whole original PDF is read again and goes
+ * through this stream. This stream drops the copy, which is already in the
+ * file, and only appends the update, so that only the appended bytes are
+ * written and counted. Closing the stream forces the file to disk according to
+ * the synchronization policy. If the update fails, the file can be cut back to
+ * its original length.
+ * </p>
+ */
+class AppendingOutputStream extends OutputStream {
+
+    /**
+     * Create a new stream.
+     *
+     * @param file       The file to append to.
+     * @param syncPolicy When the file is forced to disk.
+     * @param metrics    The metrics the bytes appended and the time spent
+     *                   forcing the file are recorded into.
+     * @throws IOException The file can not be opened.
+     */
+    AppendingOutputStream(final File file, final MergeRequest.SyncPolicy syncPolicy, final MergeMetrics metrics) throws IOException {
+        this.file = file;
+        this.originalLength = file.length();
+        this.syncPolicy = syncPolicy;
+        this.metrics = metrics;
+        this.fileStream = new FileOutputStream(file, true);
+        this.out = metrics.countBytesWritten(fileStream);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (nbBytesSkipped < originalLength) {
+            nbBytesSkipped++;
+            return;
+        }
+        out.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        // Drop the bytes of the original file
+        int nbBytesToSkip = (int) Math.min(len, originalLength - nbBytesSkipped);
+        nbBytesSkipped += nbBytesToSkip;
+
+        // Append the others
+        if (nbBytesToSkip < len) out.write(b, off + nbBytesToSkip, len - nbBytesToSkip);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Commit the update : the file is forced to disk according to the
+     * synchronization policy.
+     *
+     * @throws IOException The file can not be written or forced to disk.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            out.flush();
+            long commitStartTime = System.nanoTime();
+            if (syncPolicy != MergeRequest.SyncPolicy.NONE) fileStream.getChannel().force(syncPolicy == MergeRequest.SyncPolicy.FULL);
+            metrics.record(MergeMetrics.Phase.COMMIT, commitStartTime);
+        } finally {
+            fileStream.close();
+        }
+    }
+
+    /**
+     * Remove every byte appended to the file.
+     *
+     * @throws IOException The file can not be cut back.
+     */
+    void rollback() throws IOException {
+        closed = true;
+        fileStream.close();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(originalLength);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * The file appended to.
+     */
+    private final File file;
+
+    /**
+     * The length of the file before anything was appended.
+     */
+    private final long originalLength;
+
+    /**
+     * When the file is forced to disk.
+     */
+    private final MergeRequest.SyncPolicy syncPolicy;
+
+    /**
+     * The metrics of the merge.
+     */
+    private final MergeMetrics metrics;
+
+    /**
+     * The stream appending to the file.
+     */
+    private final FileOutputStream fileStream;
+
+    /**
+     * The stream appending to the file and counting the bytes appended.
+     */
+    private final OutputStream out;
+
+    /**
+     * The number of bytes of the original file dropped so far.
+     */
+    private long nbBytesSkipped = 0;
+
+    /**
+     * Whether the update is committed or rolled back.
+     */
+    private boolean closed = false;
+}
@@ -0,0 +1,306 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An output stream writing a file under a temporary name and renaming it to
+ * its final name once it is complete.
+ * <p>
+ * The bytes are gathered into a large direct buffer and written to the
+ * temporary file '&lt;name&gt;.tmp' through a file channel, so iText's many
+ * small writes become few large ones. Closing the stream commits the file : the
+ * buffer is written, the file is forced to disk according to the
+ * synchronization policy and it is atomically renamed to its final name,
+ * replacing an existing file. A merge stopped before the commit leaves the
+ * final name untouched : {@link #abort()} removes the temporary file, and a
+ * crash leaves it behind to be overwritten by the next run.
+ * </p>
+ */
+class AtomicFileOutputStream extends OutputStream {
+
+    /**
+     * Create a new stream.
+     *
+     * @param file       The final file.
+     * @param bufferSize The size of the buffer in bytes.
+     * @param syncPolicy When the file is forced to disk.
+     * @param metrics    The metrics the time spent writing and committing the
+     *                   file is recorded into.
+     * @throws IOException The temporary file can not be created.
+     */
+    AtomicFileOutputStream(final File file, final int bufferSize, final MergeRequest.SyncPolicy syncPolicy, final MergeMetrics metrics) throws IOException {
+        this.file = file.toPath();
+        this.temporaryFile = this.file.resolveSibling(file.getName() + TEMPORARY_EXTENSION);
+        this.syncPolicy = syncPolicy;
+        this.metrics = metrics;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (!buffer.hasRemaining()) writeBuffer();
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        // Gather small writes into the buffer
+        if (len <= buffer.remaining()) {
+            buffer.put(b, off, len);
+            return;
+        }
+
+        // Write the buffer, then large writes directly
+        writeBuffer();
+        if (len < buffer.capacity()) {
+            buffer.put(b, off, len);
+        } else {
+            write(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    /**
+     * Commit a copy of a file, made by the kernel from one file to the other
+     * without going through the heap.
+     *
+     * @param source     The file to copy.
+     * @param file       The final file.
+     * @param syncPolicy When the file is forced to disk.
+     * @param metrics    The metrics the time spent copying and committing the
+     *                   file is recorded into.
+     * @throws IOException The file can not be copied or renamed.
+     */
+    static void commitCopy(final File source, final File file, final MergeRequest.SyncPolicy syncPolicy, final MergeMetrics metrics) throws IOException {
+        // No byte goes through the buffer
+        AtomicFileOutputStream stream = new AtomicFileOutputStream(file, 0, syncPolicy, metrics);
+        try {
+            FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+            try {
+                long writeStartTime = System.nanoTime();
+                long size = sourceChannel.size();
+                for (long position = 0; position < size; ) {
+                    long nbBytesTransferred = sourceChannel.transferTo(position, size - position, stream.channel);
+                    if (nbBytesTransferred <= 0) throw new IOException("'" + source.getPath() + "' was truncated while being copied.");
+                    position += nbBytesTransferred;
+                }
+                metrics.record(MergeMetrics.Phase.WRITE, writeStartTime);
+            } finally {
+                sourceChannel.close();
+            }
+        } catch (IOException exception) {
+            stream.abort();
+            throw exception;
+        }
+        stream.close();
+    }
+
+    /**
+     * Commit a hard link to a file : the final file shares the content of the
+     * linked file, which must not be modified in place afterwards.
+     *
+     * @param source     The file to link.
+     * @param file       The final file.
+     * @param syncPolicy When the rename is forced to disk.
+     * @param metrics    The metrics the time spent committing the file is
+     *                   recorded into.
+     * @return false if the link can not be created, both files being on
+     *         different file systems or the file system not supporting links.
+     * @throws IOException The link can not be renamed.
+     */
+    static boolean commitLink(final File source, final File file, final MergeRequest.SyncPolicy syncPolicy, final MergeMetrics metrics) throws IOException {
+        long commitStartTime = System.nanoTime();
+        Path finalFile = file.toPath();
+        Path temporaryFile = finalFile.resolveSibling(file.getName() + TEMPORARY_EXTENSION);
+
+        // Renaming a link over another link to the same file does nothing
+        if (Files.exists(finalFile) && Files.isSameFile(finalFile, source.toPath())) return true;
+        Files.deleteIfExists(temporaryFile);
+        try {
+            Files.createLink(temporaryFile, source.toPath());
+        } catch (FileSystemException exception) {
+            return false;
+        } catch (UnsupportedOperationException exception) {
+            return false;
+        }
+        try {
+            rename(temporaryFile, finalFile);
+        } catch (IOException exception) {
+            Files.deleteIfExists(temporaryFile);
+            throw exception;
+        }
+        if (syncPolicy == MergeRequest.SyncPolicy.FULL) syncDirectory(finalFile);
+        metrics.record(MergeMetrics.Phase.COMMIT, commitStartTime);
+        return true;
+    }
+
+    /**
+     * Commit a complete file by moving it to its final name, atomically if
+     * possible, replacing an existing file. The moved file must already be
+     * forced to disk according to the synchronization policy, as the files
+     * written by this stream are.
+     *
+     * @param source     The file to move.
+     * @param file       The final file.
+     * @param syncPolicy When the rename is forced to disk.
+     * @param metrics    The metrics the time spent committing the file is
+     *                   recorded into.
+     * @throws IOException The file can not be renamed.
+     */
+    static void commitMove(final File source, final File file, final MergeRequest.SyncPolicy syncPolicy, final MergeMetrics metrics) throws IOException {
+        long commitStartTime = System.nanoTime();
+        rename(source.toPath(), file.toPath());
+        if (syncPolicy == MergeRequest.SyncPolicy.FULL) syncDirectory(file.toPath());
+        metrics.record(MergeMetrics.Phase.COMMIT, commitStartTime);
+    }
+
+    /**
+     * Keep the bytes buffered : they are written once the buffer is full or the
+     * file is committed.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Commit the file.
+     *
+     * @throws IOException The file can not be written or renamed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            writeBuffer();
+            long commitStartTime = System.nanoTime();
+            if (syncPolicy != MergeRequest.SyncPolicy.NONE) channel.force(syncPolicy == MergeRequest.SyncPolicy.FULL);
+            channel.close();
+            rename(temporaryFile, file);
+            if (syncPolicy == MergeRequest.SyncPolicy.FULL) syncDirectory(file);
+            metrics.record(MergeMetrics.Phase.COMMIT, commitStartTime);
+        } catch (IOException exception) {
+            abort();
+            throw exception;
+        }
+    }
+
+    /**
+     * Drop the file : the temporary file is removed and the final name is left
+     * untouched.
+     */
+    void abort() {
+        try {
+            channel.close();
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException exception) {
+            // The temporary file will be overwritten by the next run
+        }
+    }
+
+    /**
+     * Write the buffered bytes to the file.
+     *
+     * @throws IOException The bytes can not be written.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Write bytes to the file.
+     *
+     * @param bytes The bytes to write.
+     * @throws IOException The bytes can not be written.
+     */
+    private void write(final ByteBuffer bytes) throws IOException {
+        if (!bytes.hasRemaining()) return;
+        long writeStartTime = System.nanoTime();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        metrics.record(MergeMetrics.Phase.WRITE, writeStartTime);
+    }
+
+    /**
+     * Rename a temporary file to its final name, atomically if possible,
+     * replacing an existing file.
+     *
+     * @param temporaryFile The temporary file.
+     * @param file          The final file.
+     * @throws IOException The file can not be renamed.
+     */
+    private static void rename(final Path temporaryFile, final Path file) throws IOException {
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Force the directory of a file to disk, so that the rename survives a
+     * power failure.
+     *
+     * @param file The file renamed.
+     */
+    private static void syncDirectory(final Path file) {
+        try {
+            FileChannel directoryChannel = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ);
+            try {
+                directoryChannel.force(true);
+            } finally {
+                directoryChannel.close();
+            }
+        } catch (IOException exception) {
+            // Directories can not be opened on every platform
+        }
+    }
+
+    /**
+     * The final file.
+     */
+    private final Path file;
+
+    /**
+     * The file written until it is committed.
+     */
+    private final Path temporaryFile;
+
+    /**
+     * When the file is forced to disk.
+     */
+    private final MergeRequest.SyncPolicy syncPolicy;
+
+    /**
+     * The metrics of the merge.
+     */
+    private final MergeMetrics metrics;
+
+    /**
+     * The bytes not written yet.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The channel writing the temporary file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The extension of the temporary file.
+     */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+}
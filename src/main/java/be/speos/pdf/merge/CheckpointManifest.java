@@ -0,0 +1,195 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The list of the segments of a merge committed so far.
+ * <p>
+ * A checkpointed merge writes the merged PDF as a sequence of segment files.
+ * Once a segment file is complete and synchronized to disk, it is committed by
+ * appending to the manifest the merge log lines of the PDFs it holds followed
+ * by a commit line giving the segment name and length :
+ * </p>
+ *
+ * <pre>
+ * /input/doc_001.pdf	3
+ * /input/doc_002.pdf	1
+ * [segment_0001.pdf]	48213
+ * </pre>
+ * <p>
+ * Lines following the last commit line were written by a merge stopped while
+ * committing a segment : they are dropped when the manifest is read, so that a
+ * resumed merge starts right after the last committed segment.
+ * </p>
+ */
+class CheckpointManifest {
+
+    /**
+     * Read a manifest, or create an empty one.
+     *
+     * @param file The manifest file.
+     * @return The manifest, holding the committed segments.
+     * @throws IOException The manifest can not be read, or a committed segment
+     *                     file is missing or does not have its committed length.
+     */
+    static CheckpointManifest open(final File file) throws IOException {
+        CheckpointManifest manifest = new CheckpointManifest(file);
+        if (!file.exists()) return manifest;
+
+        // Read the committed segments
+        long committedLength = 0;
+        List<String> entries = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            long lineEnd = 0;
+            while ((line = reader.readLine()) != null) {
+                lineEnd += line.getBytes(StandardCharsets.UTF_8).length + LINE_SEPARATOR.length();
+                if (!line.startsWith("[")) {
+                    entries.add(line);
+                    continue;
+                }
+
+                // A commit line cut by a crash does not commit its segment
+                if (lineEnd > file.length()) break;
+
+                // Check the committed segment file
+                int nameEnd = line.indexOf(']');
+                String segmentName = line.substring(1, nameEnd);
+                long segmentLength = Long.parseLong(line.substring(nameEnd + 2));
+                File segmentFile = new File(file.getParentFile(), segmentName);
+                if (segmentFile.length() != segmentLength)
+                    throw new IOException("The committed segment '" + segmentFile.getPath() + "' is missing or does not have its committed length of " + segmentLength + " byte(s).");
+                manifest.segments.add(new Segment(segmentName, entries));
+                entries = new ArrayList<String>();
+                committedLength = lineEnd;
+            }
+        } finally {
+            reader.close();
+        }
+
+        // Drop an uncommitted segment
+        if (committedLength < file.length()) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(committedLength);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Create a new empty manifest.
+     *
+     * @param file The manifest file.
+     */
+    private CheckpointManifest(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Commit a segment.
+     * <p>
+     * The segment file must already be synchronized to disk. The manifest is
+     * synchronized to disk before this method returns.
+     * </p>
+     *
+     * @param segmentFile The segment file.
+     * @param entries     The merge log lines of the PDFs held by the segment.
+     * @throws IOException The manifest can not be written.
+     */
+    void commit(final File segmentFile, final List<String> entries) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (String entry : entries) {
+            lines.append(entry).append(LINE_SEPARATOR);
+        }
+        lines.append('[').append(segmentFile.getName()).append("]\t").append(segmentFile.length()).append(LINE_SEPARATOR);
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        segments.add(new Segment(segmentFile.getName(), new ArrayList<String>(entries)));
+    }
+
+    /**
+     * Get the committed segments.
+     *
+     * @return The committed segments, in merge order.
+     */
+    List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * A committed segment.
+     */
+    static class Segment {
+
+        Segment(final String name, final List<String> entries) {
+            this.name = name;
+            this.entries = entries;
+        }
+
+        /**
+         * Get the name of the segment file, relative to the manifest directory.
+         *
+         * @return The name of the segment file.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Get the merge log lines of the PDFs held by the segment.
+         *
+         * @return The lines, made of the path and the number of pages of every
+         *         PDF separated by a tabulation.
+         */
+        List<String> getEntries() {
+            return entries;
+        }
+
+        /**
+         * The name of the segment file.
+         */
+        private final String name;
+
+        /**
+         * The merge log lines of the PDFs held by the segment.
+         */
+        private final List<String> entries;
+    }
+
+    /**
+     * The manifest file.
+     */
+    private final File file;
+
+    /**
+     * The committed segments.
+     */
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    /**
+     * The line separator of the manifest, the one of the merge log.
+     */
+    private static final String LINE_SEPARATOR = "\r\n";
+}
@@ -0,0 +1,47 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream counting the bytes written through it.
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    /**
+     * Create a new counting stream.
+     *
+     * @param out The stream the bytes are written to.
+     */
+    CountingOutputStream(final OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * Get the number of bytes written.
+     *
+     * @return The number of bytes written through this stream.
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * The number of bytes written.
+     */
+    private long count = 0;
+}
@@ -0,0 +1,212 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Itext PDF packages
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.BadPdfFormatException;
+import com.itextpdf.text.pdf.PRIndirectReference;
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStream;
+
+/**
+ * A PDF copier keeping only once every resource stream, such as fonts and
+ * images, shared by the merged PDFs.
+ * <p>
+ * Like PdfSmartCopy, this copier identifies a stream by a digest of its
+ * dictionary, of the objects it refers to and of its content, and copies a
+ * stream only the first time its digest is met. Unlike PdfSmartCopy, which
+ * hashes every stream on the writer thread and keeps every digest until the
+ * merged PDF is closed, the digests are computed ahead by the prefetch workers
+ * through a {@link StreamHasher} and the copied streams are kept in a
+ * {@link StreamDigestTable} of bounded size : once it is full, the streams met
+ * least recently are forgotten and copied again if they are met later.
+ * </p>
+ * <p>
+ * The digests are also recorded into a {@link ResourceFingerprintCache} kept
+ * from one run to the other, if any : the digest of a stream of an unchanged
+ * input PDF is then taken from the cache instead of being computed, and the
+ * stream content is not even read when it was already copied.
+ * </p>
+ * <p>
+ * The deduplication can be stopped while a merged PDF is being written : the
+ * table of the copied streams is then dropped and the next streams are copied
+ * as a plain PdfCopy does.
+ * </p>
+ */
+class DeduplicatingPdfCopy extends PdfCopy {
+
+    /**
+     * Create a new copier.
+     *
+     * @param document     The generic Document for merged PDF.
+     * @param os           The stream the merged PDF is written to.
+     * @param cache        The fingerprint cache shared by the merges of the
+     *                     run, null to always compute the digests.
+     * @param hasher       The hasher of the streams shared by the merges of the
+     *                     run.
+     * @param tableMemory  The memory the table of the copied streams may use in
+     *                     bytes.
+     * @param tableOffHeap Should the table be allocated outside of the heap ?
+     * @throws DocumentException The copier can not be created.
+     */
+    DeduplicatingPdfCopy(final Document document, final OutputStream os, final ResourceFingerprintCache cache, final StreamHasher hasher, final long tableMemory, final boolean tableOffHeap) throws DocumentException {
+        super(document, os);
+        this.cache = cache;
+        this.hasher = hasher;
+        this.copiedStreams = new StreamDigestTable(tableMemory, tableOffHeap);
+    }
+
+    /**
+     * Set the file of the PDF whose pages are about to be copied.
+     * <p>
+     * The digests of the streams of a PDF whose file is not set are always
+     * computed.
+     * </p>
+     *
+     * @param sourceFile The path of the PDF, null if unknown.
+     */
+    void setSourceFile(final String sourceFile) {
+        this.sourceFile = sourceFile == null ? null : new File(sourceFile);
+    }
+
+    /**
+     * Write the copied streams in compact mode.
+     *
+     * @param compactor The compactor deflating the streams again, null to copy
+     *                  them as they are.
+     */
+    void setCompactor(final StreamCompactor compactor) {
+        this.compactor = compactor;
+    }
+
+    /**
+     * Copy the next streams without deduplicating them, for the rest of the
+     * merged PDF, and drop the table of the streams already copied.
+     */
+    void stopDeduplicating() {
+        if (copiedStreams == null) return;
+        nbStreamsEvicted += copiedStreams.getNbEvictions();
+        copiedStreams = null;
+    }
+
+    @Override
+    protected PdfStream copyStream(final PRStream in) throws IOException, BadPdfFormatException {
+        PdfStream stream = super.copyStream(in);
+        return compactor == null ? stream : compactor.compact(stream, in);
+    }
+
+    @Override
+    public void freeReader(final PdfReader reader) throws IOException {
+        super.freeReader(reader);
+        hasher.release(reader);
+        if (compactor != null) compactor.release(reader);
+    }
+
+    @Override
+    protected PdfIndirectReference copyIndirect(final PRIndirectReference in) throws IOException, BadPdfFormatException {
+        // Only streams are deduplicated
+        StreamDigestTable table = copiedStreams;
+        if (table == null) return super.copyIndirect(in);
+        PdfObject srcObj = PdfReader.getPdfObjectRelease(in);
+        if (!srcObj.isStream()) return super.copyIndirect(in);
+
+        // Get the digest from the cache, or from the hasher
+        PRStream stream = (PRStream) srcObj;
+        String sourceKey = sourceFile == null || cache == null ? null : ResourceFingerprintCache.getSourceKey(sourceFile, in.getNumber(), in.getGeneration());
+        String cachedDigest = sourceKey == null ? null : cache.getDigest(sourceKey);
+        if (cachedDigest != null && StreamHasher.fromHex(cachedDigest, digest)) {
+            cache.useDigest(cachedDigest, stream.getLength());
+        } else {
+            hasher.getDigest(stream, in.getNumber(), digest);
+            if (cache != null) cache.putDigest(sourceKey, StreamHasher.toHex(digest), stream.getLength());
+        }
+
+        // Reuse the stream already copied with the same digest
+        nbStreams++;
+        int streamNumber = table.get(digest[0], digest[1]);
+        if (streamNumber != 0) {
+            nbStreamsDeduplicated++;
+            return new CopiedStreamReference(streamNumber);
+        }
+        PdfIndirectReference streamRef = super.copyIndirect(in);
+        table.put(digest[0], digest[1], streamRef.getNumber());
+        return streamRef;
+    }
+
+    /**
+     * Describe the deduplication of the merged PDF.
+     *
+     * @return The number of streams met, deduplicated and forgotten.
+     */
+    String getStatistics() {
+        StreamDigestTable table = copiedStreams;
+        long nbEvicted = nbStreamsEvicted + (table == null ? 0 : table.getNbEvictions());
+        return nbStreams + " resource stream(s) met, " + ResourceFingerprintCache.getRate(nbStreamsDeduplicated, nbStreams) + " deduplicated, " + nbEvicted + " forgotten" + (table == null ? ", deduplication stopped" : " by a table of " + table.getCapacity() + " stream(s)");
+    }
+
+    /**
+     * A reference to a stream already written into the merged PDF.
+     */
+    private static class CopiedStreamReference extends PdfIndirectReference {
+
+        CopiedStreamReference(final int number) {
+            this.number = number;
+            setContent(number + " 0 R");
+        }
+    }
+
+    /**
+     * The fingerprint cache shared by the merges of the run, null if none.
+     */
+    private final ResourceFingerprintCache cache;
+
+    /**
+     * The hasher of the streams shared by the merges of the run.
+     */
+    private final StreamHasher hasher;
+
+    /**
+     * The streams already copied into the merged PDF, by digest, null once the
+     * deduplication is stopped.
+     */
+    private StreamDigestTable copiedStreams;
+
+    /**
+     * The digest of the stream being copied.
+     */
+    private final long[] digest = new long[2];
+
+    /**
+     * The file of the PDF whose pages are being copied, null if unknown.
+     */
+    private File sourceFile = null;
+
+    /**
+     * The compactor of the copied streams, null if not in compact mode.
+     */
+    private StreamCompactor compactor = null;
+
+    /**
+     * The number of streams met.
+     */
+    private long nbStreams = 0;
+
+    /**
+     * The number of streams met which were already copied.
+     */
+    private long nbStreamsDeduplicated = 0;
+
+    /**
+     * The number of streams forgotten by a table dropped.
+     */
+    private long nbStreamsEvicted = 0;
+}
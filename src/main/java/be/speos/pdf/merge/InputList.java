@@ -0,0 +1,164 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+// J2SE Utilities packages
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Enumerate the PDFs listed in an input list file while it is being read.
+ * <p>
+ * Every line of the list gives the path of a PDF, optionally followed by a
+ * tabulation and the pages of the PDF to be merged, such as '1' or '2-'. Empty
+ * lines and lines starting with '#' are ignored, and relative paths are read
+ * from the base directory. The list is read one line at a time as the PDFs are
+ * merged, so that lists of millions of PDFs are never held in memory : only the
+ * page selections are kept, for the lines having one.
+ * </p>
+ * <p>
+ * A page selection goes with the path returned for its line, not with the PDF :
+ * the path of every line is a string of its own, and the selections are kept by
+ * path instance. A PDF listed several times is merged every time with the
+ * pages of its own line.
+ * </p>
+ *
+ * @see PageSelection
+ */
+class InputList implements Iterator<String> {
+
+    /**
+     * Create a new enumerator.
+     *
+     * @param listFile       The path of the input list file.
+     * @param baseDirectory  The directory relative paths are read from.
+     * @param pageSelections The identity map the page selections of the lines
+     *                       having one are added into, by returned path
+     *                       instance.
+     * @throws IOException The input list file can not be opened.
+     */
+    InputList(final String listFile, final String baseDirectory, final Map<String, PageSelection> pageSelections) throws IOException {
+        this.listFile = listFile;
+        this.baseDirectory = baseDirectory;
+        this.pageSelections = pageSelections;
+        this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(listFile), StandardCharsets.UTF_8));
+    }
+
+    public boolean hasNext() {
+        try {
+            return findNext();
+        } catch (IOException exception) {
+            close();
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        String pdf = nextPdf;
+        nextPdf = null;
+        return pdf;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Release the input list file.
+     */
+    void close() {
+        try {
+            reader.close();
+        } catch (IOException exception) {
+            // Nothing more can be read from the list anyway
+        }
+    }
+
+    /**
+     * Read the list until the next PDF is found.
+     *
+     * @return true if a PDF has been found.
+     * @throws IOException The list can not be read, or a line is not valid.
+     */
+    private boolean findNext() throws IOException {
+        while (nextPdf == null && !ended) {
+            String line = reader.readLine();
+            lineNumber++;
+            if (line == null) {
+                ended = true;
+                close();
+                break;
+            }
+            if (line.trim().isEmpty() || line.startsWith(COMMENT_PREFIX)) continue;
+
+            // Get the path and the page selection
+            String[] fields = line.split(FIELD_SEPARATOR, 2);
+            File pdfFile = new File(fields[0].trim());
+            if (!pdfFile.isAbsolute()) pdfFile = new File(baseDirectory, fields[0].trim());
+            String pdf = pdfFile.getPath();
+            if (fields.length > 1 && !fields[1].trim().isEmpty()) {
+                try {
+                    pageSelections.put(pdf, PageSelection.parse(fields[1]));
+                } catch (IllegalArgumentException exception) {
+                    throw new IOException("Line " + lineNumber + " of input list '" + listFile + "' : " + exception.getMessage());
+                }
+            }
+            nextPdf = pdf;
+        }
+        return nextPdf != null;
+    }
+
+    /**
+     * The path of the input list file.
+     */
+    private final String listFile;
+
+    /**
+     * The directory relative paths are read from.
+     */
+    private final String baseDirectory;
+
+    /**
+     * The page selections of the lines having one, by returned path instance.
+     */
+    private final Map<String, PageSelection> pageSelections;
+
+    /**
+     * The reader of the input list file.
+     */
+    private final BufferedReader reader;
+
+    /**
+     * The number of the last line read.
+     */
+    private int lineNumber = 0;
+
+    /**
+     * Has the whole list been read ?
+     */
+    private boolean ended = false;
+
+    /**
+     * The next PDF to return, null if not read yet.
+     */
+    private String nextPdf = null;
+
+    /**
+     * Separates the path from the page selection.
+     */
+    private static final String FIELD_SEPARATOR = "\t";
+
+    /**
+     * Starts the comment lines.
+     */
+    private static final String COMMENT_PREFIX = "#";
+}
@@ -0,0 +1,224 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Order the PDFs to be merged.
+ * <p>
+ * The size and the last modification time of every PDF are read once, in a
+ * single pass : from the directory walk itself when the input directory is
+ * scanned, or with one attribute read per PDF when the PDFs are listed. The PDFs
+ * are then sorted in memory, without reading the file system again.
+ * </p>
+ *
+ * @see MergeRequest.InputOrder
+ */
+final class InputSorter {
+
+    /**
+     * Find the PDFs of a directory, in the provided order.
+     *
+     * @param directory The directory to scan.
+     * @param extension The extension of the files to return, not case sensitive.
+     * @param recursive Should sub-directories be scanned ?
+     * @param order     The order of the PDFs.
+     * @return The paths of the PDFs found.
+     * @throws IOException The directory can not be read.
+     */
+    static List<String> scan(final String directory, final String extension, final boolean recursive, final MergeRequest.InputOrder order) throws IOException {
+        final String lowerCaseExtension = extension.toLowerCase();
+        final List<InputFile> inputFiles = new ArrayList<InputFile>();
+        Files.walkFileTree(Paths.get(directory), EnumSet.noneOf(FileVisitOption.class), recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(lowerCaseExtension)) {
+                    inputFiles.add(new InputFile(file.toString(), attributes));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return sort(inputFiles, order);
+    }
+
+    /**
+     * Order provided PDFs.
+     *
+     * @param pdfs  The paths of the PDFs.
+     * @param order The order of the PDFs.
+     * @return The paths of the PDFs, in the provided order.
+     */
+    static List<String> sort(final Iterator<String> pdfs, final MergeRequest.InputOrder order) {
+        List<InputFile> inputFiles = new ArrayList<InputFile>();
+        while (pdfs.hasNext()) {
+            String pdf = pdfs.next();
+            BasicFileAttributes attributes = null;
+            if (order == MergeRequest.InputOrder.MTIME || order == MergeRequest.InputOrder.SIZE) {
+                try {
+                    attributes = Files.readAttributes(Paths.get(pdf), BasicFileAttributes.class);
+                } catch (IOException exception) {
+                    // The PDF will fail to open when it is merged
+                }
+            }
+            inputFiles.add(new InputFile(pdf, attributes));
+        }
+        return sort(inputFiles, order);
+    }
+
+    /**
+     * Order provided PDFs.
+     *
+     * @param inputFiles The PDFs, with their attributes.
+     * @param order      The order of the PDFs.
+     * @return The paths of the PDFs, in the provided order.
+     */
+    private static List<String> sort(final List<InputFile> inputFiles, final MergeRequest.InputOrder order) {
+        switch (order) {
+        case NAME:
+            Collections.sort(inputFiles, BY_NAME);
+            break;
+        case NATURAL:
+            Collections.sort(inputFiles, BY_NATURAL_NAME);
+            break;
+        case MTIME:
+            Collections.sort(inputFiles, BY_MODIFICATION_TIME);
+            break;
+        case SIZE:
+            Collections.sort(inputFiles, BY_SIZE);
+            break;
+        default:
+            break;
+        }
+        List<String> pdfs = new ArrayList<String>(inputFiles.size());
+        for (InputFile inputFile : inputFiles) {
+            pdfs.add(inputFile.path);
+        }
+        return pdfs;
+    }
+
+    /**
+     * Compare two names, the sequences of digits being compared by their value
+     * : 'file_9' comes before 'file_10'. Letters are not case sensitive.
+     *
+     * @param name      The first name.
+     * @param otherName The second name.
+     * @return A negative number, zero or a positive number if the first name
+     *         comes before, with or after the second one.
+     */
+    private static int compareNatural(final String name, final String otherName) {
+        int index = 0;
+        int otherIndex = 0;
+        while (index < name.length() && otherIndex < otherName.length()) {
+            char c = name.charAt(index);
+            char otherC = otherName.charAt(otherIndex);
+            if (Character.isDigit(c) && Character.isDigit(otherC)) {
+                // Compare the numbers, leading zeros apart
+                int numberEnd = index;
+                while (numberEnd < name.length() && Character.isDigit(name.charAt(numberEnd))) numberEnd++;
+                int otherNumberEnd = otherIndex;
+                while (otherNumberEnd < otherName.length() && Character.isDigit(otherName.charAt(otherNumberEnd))) otherNumberEnd++;
+                String number = stripLeadingZeros(name.substring(index, numberEnd));
+                String otherNumber = stripLeadingZeros(otherName.substring(otherIndex, otherNumberEnd));
+                if (number.length() != otherNumber.length()) return number.length() - otherNumber.length();
+                int comparison = number.compareTo(otherNumber);
+                if (comparison != 0) return comparison;
+                index = numberEnd;
+                otherIndex = otherNumberEnd;
+            } else {
+                int comparison = Character.toLowerCase(c) - Character.toLowerCase(otherC);
+                if (comparison != 0) return comparison;
+                index++;
+                otherIndex++;
+            }
+        }
+        return (name.length() - index) - (otherName.length() - otherIndex);
+    }
+
+    /**
+     * Remove the leading zeros of a number.
+     *
+     * @param number The digits of the number.
+     * @return The digits without leading zeros, '0' being kept.
+     */
+    private static String stripLeadingZeros(final String number) {
+        int index = 0;
+        while (index < number.length() - 1 && number.charAt(index) == '0') index++;
+        return number.substring(index);
+    }
+
+    /**
+     * This class only has static methods.
+     */
+    private InputSorter() {
+    }
+
+    /**
+     * A PDF to be merged, with its attributes.
+     */
+    private static class InputFile {
+
+        InputFile(final String path, final BasicFileAttributes attributes) {
+            this.path = path;
+            this.size = attributes == null ? 0 : attributes.size();
+            this.lastModified = attributes == null ? 0 : attributes.lastModifiedTime().toMillis();
+        }
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+    }
+
+    /**
+     * Orders the PDFs by path.
+     */
+    private static final Comparator<InputFile> BY_NAME = new Comparator<InputFile>() {
+        public int compare(final InputFile inputFile, final InputFile otherInputFile) {
+            return inputFile.path.compareTo(otherInputFile.path);
+        }
+    };
+
+    /**
+     * Orders the PDFs by path, numbers being compared by their value.
+     */
+    private static final Comparator<InputFile> BY_NATURAL_NAME = new Comparator<InputFile>() {
+        public int compare(final InputFile inputFile, final InputFile otherInputFile) {
+            int comparison = compareNatural(inputFile.path, otherInputFile.path);
+            return comparison != 0 ? comparison : inputFile.path.compareTo(otherInputFile.path);
+        }
+    };
+
+    /**
+     * Orders the PDFs by last modification time, oldest first, then by path.
+     */
+    private static final Comparator<InputFile> BY_MODIFICATION_TIME = new Comparator<InputFile>() {
+        public int compare(final InputFile inputFile, final InputFile otherInputFile) {
+            int comparison = Long.compare(inputFile.lastModified, otherInputFile.lastModified);
+            return comparison != 0 ? comparison : inputFile.path.compareTo(otherInputFile.path);
+        }
+    };
+
+    /**
+     * Orders the PDFs by size, smallest first, then by path.
+     */
+    private static final Comparator<InputFile> BY_SIZE = new Comparator<InputFile>() {
+        public int compare(final InputFile inputFile, final InputFile otherInputFile) {
+            int comparison = Long.compare(inputFile.size, otherInputFile.size);
+            return comparison != 0 ? comparison : inputFile.path.compareTo(otherInputFile.path);
+        }
+    };
+}
@@ -0,0 +1,200 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// JMX packages
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+// Log4J packages
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Adapt a merge to the heap it uses.
+ * <p>
+ * The governor tracks the heap used after every garbage collection through the
+ * memory MXBeans : the heap used between two collections mostly holds garbage
+ * and would trigger adaptations for nothing. Once the heap used reaches three
+ * quarters of the memory budget, the next PDFs are read partially, so that
+ * their objects are released as soon as their pages are copied, the read-ahead
+ * is limited to the next PDF and the streams are no longer deflated ahead.
+ * Once the budget is reached, the resources are no longer deduplicated : the
+ * digests of the copied streams are dropped and the merged PDFs are written by
+ * a plain copier.
+ * </p>
+ * <p>
+ * The adaptations are never undone for the rest of the merge, so that the
+ * merge does not swing between both modes. Every adaptation is logged once.
+ * </p>
+ */
+class MemoryGovernor {
+
+    /**
+     * The pressure on the heap, by increasing level.
+     */
+    enum Level {
+        /** The heap used is below three quarters of the budget. */
+        NORMAL,
+        /** The heap used has reached three quarters of the budget. */
+        PRESSURE,
+        /** The heap used has reached the budget. */
+        EXCEEDED
+    }
+
+    /**
+     * Create a new governor.
+     *
+     * @param budget The heap the merge should not exceed, in bytes.
+     */
+    MemoryGovernor(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Start tracking the heap used after every garbage collection.
+     */
+    void start() {
+        long maxHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        if (maxHeap > 0 && budget >= maxHeap) {
+            LOG.warn("The memory budget of " + toMB(budget) + " MB is not below the maximum heap of " + toMB(maxHeap) + " MB : the merge will run out of memory before adapting.");
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) heapPools.add(pool.getName());
+        }
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+                emitters.add((NotificationEmitter) collector);
+            }
+        }
+    }
+
+    /**
+     * Stop tracking the heap.
+     */
+    void stop() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException exception) {
+                // Already removed
+            }
+        }
+        emitters.clear();
+    }
+
+    /**
+     * Check the heap used when garbage collections can not be tracked.
+     * <p>
+     * Without collection notifications, the heap currently used is read
+     * instead, garbage included.
+     * </p>
+     */
+    void check() {
+        if (emitters.isEmpty()) update(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    /**
+     * Should the PDFs be read partially and the read-ahead be limited ?
+     *
+     * @return true once three quarters of the budget have been reached.
+     */
+    boolean isSavingMemory() {
+        return level != Level.NORMAL;
+    }
+
+    /**
+     * Should the resources no longer be deduplicated ?
+     *
+     * @return true once the budget has been reached.
+     */
+    boolean isDeduplicationStopped() {
+        return level == Level.EXCEEDED;
+    }
+
+    /**
+     * Raise the level according to the heap used.
+     *
+     * @param heapUsed The heap used in bytes.
+     */
+    private synchronized void update(final long heapUsed) {
+        if (level == Level.NORMAL && heapUsed >= budget * PRESSURE_RATIO) {
+            level = Level.PRESSURE;
+            LOG.warn(toMB(heapUsed) + " MB of heap used, three quarters of the memory budget of " + toMB(budget) + " MB : the next PDFs are read partially.");
+            LOG.warn(toMB(heapUsed) + " MB of heap used : the read-ahead is limited to the next PDF and streams are no longer deflated ahead.");
+        }
+        if (level == Level.PRESSURE && heapUsed >= budget) {
+            level = Level.EXCEEDED;
+            LOG.warn(toMB(heapUsed) + " MB of heap used, memory budget of " + toMB(budget) + " MB reached : resources are no longer deduplicated for the rest of the merge.");
+        }
+    }
+
+    /**
+     * Convert a number of bytes into MB.
+     *
+     * @param nbBytes The number of bytes.
+     * @return The number of MB.
+     */
+    private static long toMB(final long nbBytes) {
+        return nbBytes / (1024 * 1024);
+    }
+
+    /**
+     * Sum the heap pools after every garbage collection.
+     */
+    private final NotificationListener listener = new NotificationListener() {
+        public void handleNotification(final Notification notification, final Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long heapUsed = 0;
+            for (Map.Entry<String, MemoryUsage> poolUsage : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if (heapPools.contains(poolUsage.getKey())) heapUsed += poolUsage.getValue().getUsed();
+            }
+            update(heapUsed);
+        }
+    };
+
+    /**
+     * The heap the merge should not exceed, in bytes.
+     */
+    private final long budget;
+
+    /**
+     * The names of the heap memory pools.
+     */
+    private final Set<String> heapPools = new HashSet<String>();
+
+    /**
+     * The garbage collectors notifying the listener.
+     */
+    private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+
+    /**
+     * The highest level reached.
+     */
+    private volatile Level level = Level.NORMAL;
+
+    /**
+     * The part of the budget from which memory is saved.
+     */
+    private static final double PRESSURE_RATIO = 0.75;
+
+    private static final Log LOG = LogFactory.getLog(MemoryGovernor.class);
+}
@@ -0,0 +1,2322 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Log4J packages
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+// Itext PDF packages
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfImportedPage;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+
+// Speos Framework Exception package
+import be.speos.framework.exceptions.ConfigurationException;
+import be.speos.framework.exceptions.FrameworkExceptionLevel;
+
+// Speos Framework Filesystem package
+import be.speos.framework.commons.filesystem.FileSystem;
+
+/**
+ * Merge the PDFs of a {@link MergeRequest}.
+ * <p>
+ * A job holds the state of one merge : the resource fingerprint index and the
+ * merged PDF writers are confined to the job, while its request is immutable
+ * and can be shared. Several jobs can then run concurrently in the same JVM,
+ * each one on its own thread or submitted to an executor :
+ * </p>
+ *
+ * <pre>
+ * MergeResult result = new MergeJob(request).call();
+ * </pre>
+ */
+public class MergeJob implements Callable<MergeResult> {
+
+    /**
+     * Create a new job.
+     *
+     * @param request The configuration of the merge.
+     */
+    public MergeJob(final MergeRequest request) {
+        this.request = request;
+        this.compactor = createCompactor();
+    }
+
+    /**
+     * Get the configuration of the merge.
+     *
+     * @return The request.
+     */
+    public MergeRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Merge the PDFs of the input directory.
+     * <p>
+     * This method will merge every PDF found in the input directory, or the PDFs
+     * arriving in it until the thread is interrupted when the input directory is
+     * watched.
+     * </p>
+     *
+     * @return The number of PDFs and pages merged.
+     * @throws Exception Something went wrong while merging the PDFs.
+     */
+    @Override
+    public MergeResult call() throws Exception {
+        // Prepare the directories
+        prepareDirectories();
+
+        // Load the resource fingerprint index if asked
+        openResourceCache();
+        try {
+            if (request.isWatchEnabled()) {
+                // Merge the PDFs arriving in the input directory until stopped
+                return watchInputDirectory();
+            } else {
+                // Merge every PDF found in the input directory
+                return mergeInputPdfs(null);
+            }
+        } finally {
+            // Keep the resource fingerprints for the next runs
+            closeResourceCache();
+        }
+    }
+
+    /**
+     * Check the input directory and create the output and done directories.
+     *
+     * @throws Exception The input directory does not exist, or the output
+     *                   directory is not a directory.
+     */
+    void prepareDirectories() throws Exception {
+        String inputDirectory = request.getInputDirectory();
+        String outputDirectory = request.getOutputDirectory();
+        LOG.debug("Input directory = '" + inputDirectory + "'");
+        LOG.debug("Output directory = '" + outputDirectory + "'");
+
+        // Check if the input directory exists
+        LOG.debug("Check input directory : '" + inputDirectory + "'");
+        if (!FileSystem.isDirectory(inputDirectory)) {
+            LOG.debug("Input directory : '" + inputDirectory + "' not found or not a directory.");
+            throw new FileNotFoundException("The input directory '" + inputDirectory + "' was not found or is not a directory.");
+        }
+
+        // Check if the output directory exists
+        LOG.debug("Check output directory : '" + outputDirectory + "'");
+        if (!FileSystem.exists(outputDirectory)) {
+            LOG.debug("Output directory : '" + outputDirectory + "' not found.");
+            FileSystem.createDir(outputDirectory);
+            LOG.debug("Output directory : '" + outputDirectory + "' created.");
+        } else if (!FileSystem.isDirectory(outputDirectory)) {
+            LOG.debug("Output directory : '" + outputDirectory + "' already exists and is not a directory.");
+            throw new FileNotFoundException("The output directory '" + outputDirectory + "' was found BUT is NOT a directory.");
+        }
+
+        // Create the done directory of the watch folder mode
+        if (request.isWatchEnabled()) {
+            LOG.debug("Done directory = '" + request.getWatchDoneDirectory() + "'");
+            if (!FileSystem.exists(request.getWatchDoneDirectory())) {
+                FileSystem.createDir(request.getWatchDoneDirectory());
+                LOG.debug("Done directory : '" + request.getWatchDoneDirectory() + "' created.");
+            }
+        }
+    }
+
+    /**
+     * Load the resource fingerprint index, if one is configured.
+     *
+     * @throws IOException The index can not be read.
+     */
+    void openResourceCache() throws IOException {
+        if (request.getResCacheFile() != null) {
+            resourceCache = ResourceFingerprintCache.load(new File(request.getResCacheFile()), request.getResCacheMaxAge() * CONFIG_FLAG_MILLISECONDS_PER_DAY, request.getResCacheMaxEntries());
+        }
+    }
+
+    /**
+     * Log the hit rates of the resource fingerprint index and save it for the
+     * next runs.
+     *
+     * @throws IOException The index can not be written.
+     */
+    void closeResourceCache() throws IOException {
+        if (resourceCache != null) {
+            LOG.info("Resource fingerprint index : " + resourceCache.getStatistics() + ".");
+            resourceCache.save();
+        }
+    }
+
+    /**
+     * Merge the PDFs of the input directory.
+     * <p>
+     * This method will merge every PDF found in the input directory, or provided
+     * PDFs, into a single PDF file or into one PDF file per group according to
+     * configuration.
+     * </p>
+     *
+     * @param batchPdfs The paths of the PDFs to be merged, null to merge every
+     *                  PDF found in the input directory.
+     * @return The number of PDFs and pages merged.
+     * @throws Exception Something went wrong while merging the PDFs.
+     */
+    private MergeResult mergeInputPdfs(final List<String> batchPdfs) throws Exception {
+        // Get the PDF files found in input directory that should be merged into a
+        // single one, while the directory is being read if asked
+        LOG.debug("Retrieving every PDFs found in '" + request.getInputDirectory() + "'...");
+        metrics = new MergeMetrics();
+        metrics.register();
+        compactor = createCompactor();
+        hasher = new StreamHasher();
+        preflightIndex = null;
+        pageSelections.clear();
+        inputPageSelection = request.getInputPages() == null ? null : PageSelection.parse(request.getInputPages());
+        memoryGovernor = request.getMemoryBudget() > 0 ? new MemoryGovernor(request.getMemoryBudget()) : null;
+        if (memoryGovernor != null) memoryGovernor.start();
+        PdfFileEnumerator streamedPdfs = null;
+        InputList listedPdfs = null;
+        Iterator<String> pdfsToGroup = null;
+        MergeRequest.InputOrder inputOrder = request.getInputOrder();
+        if (batchPdfs != null) {
+            pdfsToGroup = inputOrder == MergeRequest.InputOrder.LISTED ? batchPdfs.iterator() : InputSorter.sort(batchPdfs.iterator(), inputOrder).iterator();
+        } else if (request.getInputList() != null) {
+            // Read the list while merging, unless it has to be ordered first
+            listedPdfs = new InputList(request.getInputList(), request.getInputDirectory(), pageSelections);
+            if (inputOrder == MergeRequest.InputOrder.LISTED) {
+                pdfsToGroup = metrics.timeScan(listedPdfs);
+            } else {
+                long scanStartTime = System.nanoTime();
+                pdfsToGroup = InputSorter.sort(listedPdfs, inputOrder).iterator();
+                metrics.record(MergeMetrics.Phase.SCAN, scanStartTime);
+            }
+        } else if (request.isStreamingEnabled()) {
+            streamedPdfs = new PdfFileEnumerator(request.getInputDirectory(), CONFIG_FLAG_PDF_EXTENSION, request.isRecursiveSearchEnabled(), request.isSortedEnabled());
+            pdfsToGroup = metrics.timeScan(streamedPdfs);
+        } else {
+            long scanStartTime = System.nanoTime();
+            if (inputOrder == MergeRequest.InputOrder.LISTED) {
+                pdfsToGroup = FileSystem.getFiles(request.getInputDirectory(), CONFIG_FLAG_PDF_EXTENSION, request.isRecursiveSearchEnabled()).iterator();
+            } else {
+                pdfsToGroup = InputSorter.scan(request.getInputDirectory(), CONFIG_FLAG_PDF_EXTENSION, request.isRecursiveSearchEnabled(), inputOrder).iterator();
+            }
+            metrics.record(MergeMetrics.Phase.SCAN, scanStartTime);
+        }
+
+        MergeResult mergeResult = new MergeResult(0, 0);
+        String reportFile = null;
+        ProgressReporter progressReporter = null;
+        try {
+            // If some PDF files were found
+            if (pdfsToGroup.hasNext() && request.isGroupingEnabled()) {
+                // Write one merged PDF per group of input PDFs
+                reportFile = request.getOutputDirectory() + CONFIG_FLAG_GROUPS_REPORT_NAME + CONFIG_FLAG_REPORT_EXTENSION;
+                progressReporter = startProgressReporter(-1, -1);
+                mergeResult = mergeGroups(pdfsToGroup);
+                progressReporter = stopProgressReporter(progressReporter);
+                LOG.info(mergeResult.getNbPDFsMerged() + " PDF file(s) merged for a total of " + Long.toString(mergeResult.getNbPagesMerged()) + " page(s).");
+            } else if (pdfsToGroup.hasNext()) {
+                // Get the first document to be merged
+                String inputPdf = pdfsToGroup.next();
+                String mergedPdfFile = getOutputFilename(inputPdf);
+                if (request.isWatchEnabled() && !request.isAppendEnabled()) mergedPdfFile = getBatchFilename(mergedPdfFile);
+                String mergingLoggerFilePath = getLogFilename(mergedPdfFile);
+                reportFile = getReportFilename(mergingLoggerFilePath);
+                if (request.isAppendEnabled() && new File(mergedPdfFile).isFile() && new File(mergingLoggerFilePath).isFile()) {
+                    // Add the PDFs not merged yet at the end of the existing merged PDF
+                    Set<String> pdfsMerged = readMergedPdfs(mergingLoggerFilePath);
+                    LOG.info(pdfsMerged.size() + " PDF file(s) already merged into '" + mergedPdfFile + "'.");
+                    pdfsMerged.add(normalizePath(mergedPdfFile));
+                    LOG.info("Appending PDFs files...");
+                    progressReporter = startProgressReporter(-1, -1);
+                    mergeResult = appendFiles(skip(prepend(inputPdf, pdfsToGroup), pdfsMerged), mergedPdfFile, mergingLoggerFilePath);
+                    progressReporter = stopProgressReporter(progressReporter);
+                    LOG.info(mergeResult.getNbPDFsMerged() + " PDF file(s) appended for a total of " + Long.toString(mergeResult.getNbPagesMerged()) + " page(s).");
+                } else {
+                    // The merged PDF named after the first input PDF replaces it once
+                    // it is committed
+                    String firstPdfToMerge = inputPdf;
+
+                    // Do not merge the merged PDF if it is written in the directory being read
+                    if (streamedPdfs != null) {
+                        streamedPdfs.exclude(mergedPdfFile);
+                        streamedPdfs.exclude(getPartFilenamePattern(mergedPdfFile));
+                    }
+
+                    // Copy a single PDF as it is when it does not have to be rewritten
+                    MergeResult passThroughResult = pdfsToGroup.hasNext() ? null : passPdfThrough(firstPdfToMerge, mergedPdfFile, mergingLoggerFilePath);
+
+                    // Merge every PDF found into a single one, or into its parts
+                    // Read the page counts of every PDF first if asked
+                    Iterator<String> pdfsToMerge = prepend(firstPdfToMerge, pdfsToGroup);
+                    long nbPdfsPlanned = -1;
+                    long nbPagesPlanned = -1;
+                    if (passThroughResult == null && (request.isPreflightEnabled() || request.getShards() > 1)) {
+                        List<String> pdfs = preflight(pdfsToMerge);
+                        nbPdfsPlanned = pdfs.size();
+                        nbPagesPlanned = 0;
+                        for (String pdf : pdfs) {
+                            nbPagesPlanned += getNbPagesSelected(pdf);
+                        }
+                        pdfsToMerge = pdfs.iterator();
+                    }
+
+                    if (passThroughResult == null) LOG.info("Merging PDFs files...");
+                    progressReporter = startProgressReporter(nbPdfsPlanned, nbPagesPlanned);
+                    if (passThroughResult != null) {
+                        mergeResult = passThroughResult;
+                    } else if (request.getShards() > 1) {
+                        mergeResult = mergeShards(pdfsToMerge, mergedPdfFile, mergingLoggerFilePath);
+                    } else if (request.isTreeEnabled()) {
+                        mergeResult = mergeTree(pdfsToMerge, mergedPdfFile, mergingLoggerFilePath);
+                    } else if (request.getCheckpointFiles() > 0) {
+                        mergeResult = mergeCheckpointed(pdfsToMerge, mergedPdfFile, mergingLoggerFilePath);
+                    } else {
+                        Writer mergingLoggerWriter = new BufferedWriter(new FileWriter(mergingLoggerFilePath));
+                        try {
+                            mergeResult = mergeFiles(pdfsToMerge, mergedPdfFile, mergingLoggerWriter, true);
+                        } finally {
+                            mergingLoggerWriter.close();
+                        }
+                    }
+
+                    progressReporter = stopProgressReporter(progressReporter);
+                    LOG.info(mergeResult.getNbPDFsMerged() + " PDF file(s) merged for a total of " + Long.toString(mergeResult.getNbPagesMerged()) + " page(s).");
+                    if (nbPagesPlanned >= 0 && nbPagesPlanned != mergeResult.getNbPagesMerged()) {
+                        LOG.warn("The pre-flight scan announced " + Long.toString(nbPagesPlanned) + " page(s) but " + Long.toString(mergeResult.getNbPagesMerged()) + " page(s) were merged : some input PDFs changed meanwhile or have an inaccurate page count.");
+                    }
+                    if (metrics.getCompactionSummary() != null) LOG.info("Compact mode : " + metrics.getCompactionSummary() + ".");
+                }
+            } else if (request.getInputList() != null) {
+                LOG.info("No PDF file listed in '" + request.getInputList() + "'.");
+            } else {
+                LOG.info("No PDF file found in '" + request.getInputDirectory() + "'.");
+            }
+        } finally {
+            stopProgressReporter(progressReporter);
+            if (memoryGovernor != null) memoryGovernor.stop();
+            if (streamedPdfs != null) streamedPdfs.close();
+            if (listedPdfs != null) listedPdfs.close();
+
+            // Report the metrics next to the merge log, even if the merge failed
+            metrics.unregister();
+            if (reportFile != null) {
+                try {
+                    metrics.writeReport(new File(reportFile));
+                    LOG.info("Metrics report '" + reportFile + "' written : " + String.format(Locale.ROOT, "%.1f", metrics.getPagesPerSecond()) + " page(s) per second.");
+                } catch (IOException exception) {
+                    LOG.warn("The metrics report '" + reportFile + "' can not be written.", exception);
+                }
+            }
+        }
+        return mergeResult;
+    }
+
+    /**
+     * Merge the PDFs arriving in the input directory until the thread is
+     * interrupted.
+     * <p>
+     * This method will merge the PDFs already found in the input directory, then
+     * wait for new PDFs. From the first arrival, the arrivals are collected
+     * during the batch window. The PDFs whose size and modification time did not
+     * change during the stability delay are then merged as one batch, with the
+     * configuration loaded once at start, and moved to the done directory. A
+     * merged PDF that already exists is not overwritten : the merged PDF of the
+     * batch gets a time stamp.
+     * </p>
+     *
+     * @return The number of PDFs and pages merged by every batch.
+     * @throws Exception The input directory can not be watched.
+     */
+    private MergeResult watchInputDirectory() throws Exception {
+        MergeResult mergeResult = new MergeResult(0, 0);
+        boolean recursive = request.isRecursiveSearchEnabled();
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            registerDirectory(watchService, Paths.get(request.getInputDirectory()), recursive);
+            LOG.info("Watching '" + request.getInputDirectory() + "' for PDFs...");
+
+            // The PDFs already there make the first batch
+            boolean pdfsArrived = true;
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!pdfsArrived) {
+                    // Wait for the first arrival, then collect the arrivals during the window
+                    pdfsArrived = handleWatchEvents(watchService, watchService.take(), recursive);
+                    long windowEnd = System.currentTimeMillis() + request.getWatchWindow();
+                    long windowLeft;
+                    while ((windowLeft = windowEnd - System.currentTimeMillis()) > 0) {
+                        WatchKey watchKey = watchService.poll(windowLeft, TimeUnit.MILLISECONDS);
+                        if (watchKey != null) pdfsArrived |= handleWatchEvents(watchService, watchKey, recursive);
+                    }
+                    if (!pdfsArrived) continue;
+                }
+                pdfsArrived = false;
+
+                // Merge the PDFs completely written
+                List<String> batchPdfs = getStablePdfs(recursive);
+                if (batchPdfs.isEmpty()) continue;
+                mergeResult = mergeResult.add(mergeBatch(batchPdfs));
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watchService.close();
+        }
+        LOG.info("Watching '" + request.getInputDirectory() + "' stopped.");
+        return mergeResult;
+    }
+
+    /**
+     * Merge a batch of PDFs arrived in the input directory.
+     * <p>
+     * The PDFs are moved to the done directory once merged, or to its failed
+     * sub-directory if they could not be merged, so that they are not merged
+     * again by the next batch.
+     * </p>
+     *
+     * @param batchPdfs The paths of the PDFs of the batch.
+     * @return The number of PDFs and pages merged, none if the batch could not
+     *         be merged.
+     * @throws IOException A PDF can not be moved.
+     */
+    private MergeResult mergeBatch(final List<String> batchPdfs) throws IOException {
+        // Merge the batch
+        LOG.info("Merging a batch of " + batchPdfs.size() + " PDF file(s)...");
+        long batchStartTime = System.currentTimeMillis();
+        String doneDirectory = request.getWatchDoneDirectory();
+        MergeResult mergeResult = new MergeResult(0, 0);
+        try {
+            mergeResult = mergeInputPdfs(batchPdfs);
+            LOG.info("Batch merged in " + Long.toString(System.currentTimeMillis() - batchStartTime) + " milliseconds.");
+        } catch (Exception exception) {
+            LOG.error("The batch could not be merged. Its PDFs are moved to '" + CONFIG_FLAG_WATCH_FAILED_DIRECTORY + "'.", exception);
+            doneDirectory = new File(request.getWatchDoneDirectory(), CONFIG_FLAG_WATCH_FAILED_DIRECTORY).getPath();
+        }
+
+        // Move the PDFs out of the input directory
+        Path inputPath = Paths.get(request.getInputDirectory());
+        for (String batchPdf : batchPdfs) {
+            Path donePdf = Paths.get(doneDirectory).resolve(inputPath.relativize(Paths.get(batchPdf)));
+            Files.createDirectories(donePdf.getParent());
+            Files.move(Paths.get(batchPdf), donePdf, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Keep the resource fingerprints in case the application is stopped
+        if (resourceCache != null) resourceCache.save();
+        return mergeResult;
+    }
+
+    /**
+     * Watch a directory and, if asked, its sub-directories.
+     *
+     * @param watchService The watch service.
+     * @param directory    The directory to watch.
+     * @param recursive    Should sub-directories be watched ?
+     * @throws IOException A directory can not be watched.
+     */
+    private static void registerDirectory(final WatchService watchService, final Path directory, final boolean recursive) throws IOException {
+        if (!recursive) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path subDirectory, final BasicFileAttributes attributes) throws IOException {
+                subDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Handle the events of a watched directory.
+     * <p>
+     * New sub-directories are watched as well when sub-directories are searched.
+     * </p>
+     *
+     * @param watchService The watch service.
+     * @param watchKey     The key of the watched directory.
+     * @param recursive    Are sub-directories watched ?
+     * @return true if something arrived in the directory.
+     * @throws IOException A new sub-directory can not be watched.
+     */
+    private boolean handleWatchEvents(final WatchService watchService, final WatchKey watchKey, final boolean recursive) throws IOException {
+        boolean somethingArrived = false;
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            // Too many events : the stable PDFs will be found anyway
+            somethingArrived = true;
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+
+            // Watch the new sub-directories
+            Path arrived = ((Path) watchKey.watchable()).resolve((Path) event.context());
+            if (recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(arrived)) {
+                registerDirectory(watchService, arrived, true);
+            }
+        }
+        watchKey.reset();
+        return somethingArrived;
+    }
+
+    /**
+     * Retrieve the PDFs of the input directory which are completely written.
+     * <p>
+     * A PDF is considered completely written when its size and modification
+     * time did not change during the stability delay.
+     * </p>
+     *
+     * @param recursive Are sub-directories searched ?
+     * @return The paths of the stable PDFs.
+     * @throws Exception The input directory can not be read.
+     */
+    private List<String> getStablePdfs(final boolean recursive) throws Exception {
+        // Get the state of every PDF
+        Map<String, String> pdfStates = new LinkedHashMap<String, String>();
+        for (String pdf : FileSystem.getFiles(request.getInputDirectory(), CONFIG_FLAG_PDF_EXTENSION, recursive)) {
+            File pdfFile = new File(pdf);
+            pdfStates.put(pdf, pdfFile.length() + ":" + pdfFile.lastModified());
+        }
+
+        // Keep the PDFs whose state did not change during the stability delay
+        if (!pdfStates.isEmpty()) Thread.sleep(request.getWatchStable());
+        List<String> stablePdfs = new ArrayList<String>();
+        for (Map.Entry<String, String> pdfState : pdfStates.entrySet()) {
+            File pdfFile = new File(pdfState.getKey());
+            if (pdfFile.isFile() && pdfState.getValue().equals(pdfFile.length() + ":" + pdfFile.lastModified())) {
+                stablePdfs.add(pdfState.getKey());
+            }
+        }
+        if (stablePdfs.size() < pdfStates.size()) {
+            LOG.info(Integer.toString(pdfStates.size() - stablePdfs.size()) + " PDF file(s) still being written left to the next batch.");
+        }
+        return stablePdfs;
+    }
+
+    /**
+     * Merge provided PDFs into a single PDF file.
+     * <p>
+     * This method will add every page of provided PDFs, in the provided order,
+     * into the merged PDF file and write the path and the number of pages of
+     * every merged PDF into the merge log. When a rollover threshold is
+     * configured, the merged PDF is split into numbered parts : a new part is
+     * started once the current one has reached the page or size threshold, and
+     * the merge log gets one section per part. The total number of PDFs and
+     * pages added will be returned.
+     * </p>
+     * <p>
+     * When the manifest is enabled, every merged PDF file of input PDFs gets its
+     * manifest and its index, written by a thread of their own : the merge loop
+     * only queues the entries.
+     * </p>
+     *
+     * @param pdfsToMerge         The paths of the PDFs to be merged.
+     * @param mergedPdfFile       The path of the merged PDF file to write.
+     * @param mergingLoggerWriter The writer of the merge log.
+     * @param inputPdfs           Are the PDFs input PDFs, recorded into the
+     *                            metrics and compacted ? false for the
+     *                            segments of a checkpointed merge and the
+     *                            intermediate PDFs of a tree merge, already
+     *                            compacted.
+     * @return The number of PDFs and pages added to the merged PDF file.
+     * @throws Exception Something went wrong while merging provided PDFs.
+     */
+    private MergeResult mergeFiles(final Iterator<String> pdfsToMerge, final String mergedPdfFile, final Writer mergingLoggerWriter, final boolean inputPdfs) throws Exception {
+        // Declarations
+        long nbPDFsProcessed = 0;
+        long nbPagesProcessed = 0;
+        boolean rolloverEnabled = request.isRolloverEnabled();
+        int partNumber = 0;
+        long nbPagesInPart = 0;
+        String currentPdfFile = null;
+        AtomicFileOutputStream mergedPdfFileStream = null;
+        CountingOutputStream mergedPdfStream = null;
+        Document mergedPdfDocument = null;
+        PdfWriter mergedPdfWriter = null;
+        MergeManifestWriter manifestWriter = null;
+        PdfReader currentReader = null;
+        boolean manifestEnabled = request.isManifestEnabled() && inputPdfs;
+
+        // Open the PDFs to be merged ahead of the writer if asked
+        PdfReaderPrefetcher prefetcher = new PdfReaderPrefetcher(this, pdfsToMerge, inputPdfs, request.getPrefetchThreads(), request.getPrefetchDepth());
+
+        // For every PDF to be merged
+        try {
+            while (prefetcher.hasNext()) {
+                PdfReaderPrefetcher.PrefetchedPdf prefetchedPdf = prefetcher.next();
+                String currentPdf = prefetchedPdf.getPath();
+                currentReader = prefetchedPdf.getReader();
+
+                // Create handlers to manager merged PDF file (or its next part)
+                if (mergedPdfWriter == null) {
+                    partNumber++;
+                    currentPdfFile = rolloverEnabled ? getPartFilename(mergedPdfFile, partNumber) : mergedPdfFile;
+                    mergedPdfFileStream = new AtomicFileOutputStream(new File(currentPdfFile), request.getOutputBufferSize(), request.getOutputSyncPolicy(), metrics);
+                    mergedPdfStream = new CountingOutputStream(mergedPdfFileStream);
+                    mergedPdfDocument = new Document();
+                    mergedPdfWriter = createMergedPdfWriter(mergedPdfDocument, mergedPdfStream, inputPdfs);
+                    mergedPdfDocument.open();
+                    if (rolloverEnabled) mergingLoggerWriter.write(getLogSectionHeader(currentPdfFile));
+                    if (manifestEnabled) manifestWriter = new MergeManifestWriter(getManifestFilename(currentPdfFile, CONFIG_FLAG_MANIFEST_EXTENSION), getManifestFilename(currentPdfFile, CONFIG_FLAG_MANIFEST_INDEX_EXTENSION));
+                    nbPagesInPart = 0;
+                }
+
+                // Add PDF the current group PDF
+                LOG.debug("Adding '" + currentPdf + "' to '" + currentPdfFile + "'...");
+                if (mergedPdfWriter instanceof DeduplicatingPdfCopy) ((DeduplicatingPdfCopy) mergedPdfWriter).setSourceFile(inputPdfs ? currentPdf : null);
+                long mergeStartTime = System.nanoTime();
+                long mergeStartDate = System.currentTimeMillis();
+                long outputStart = mergedPdfStream.getCount();
+                int nbPdfBytes = prefetchedPdf.getReader().getFileLength();
+                int nbPagesMerged;
+                try {
+                    nbPagesMerged = mergePDF(currentReader, mergedPdfWriter, mergedPdfDocument, inputPdfs ? getPageSelection(currentPdf) : null, metrics);
+                } finally {
+                    // Whatever the writer, drop the streams prepared ahead
+                    releasePdfReader(currentReader);
+                    currentReader = null;
+                }
+                long mergeTime = prefetchedPdf.getOpenTime() + System.nanoTime() - mergeStartTime;
+                if (inputPdfs) metrics.recordFile(currentPdf, nbPagesMerged, nbPdfBytes, mergeTime);
+                mergingLoggerWriter.write(currentPdf + "\t" + Integer.toString(nbPagesMerged) + "\r\n");
+                if (manifestWriter != null) manifestWriter.add(currentPdf, nbPdfBytes, nbPagesInPart + 1, nbPagesMerged, outputStart, mergedPdfStream.getCount(), mergeStartDate, mergeTime);
+                LOG.debug("'" + currentPdf + "' added.");
+                nbPDFsProcessed++;
+                nbPagesProcessed += nbPagesMerged;
+                nbPagesInPart += nbPagesMerged;
+                adaptToMemory(prefetcher, mergedPdfWriter);
+
+                // Roll over to the next part once a threshold has been reached
+                if (rolloverEnabled && ((request.getRolloverPages() > 0 && nbPagesInPart >= request.getRolloverPages()) || (request.getRolloverSize() > 0 && mergedPdfStream.getCount() >= request.getRolloverSize()))) {
+                    closeMergedPdf(currentPdfFile, mergedPdfDocument, mergedPdfWriter);
+                    mergedPdfWriter = null;
+                    if (manifestWriter != null) manifestWriter.close();
+                    manifestWriter = null;
+                }
+            }
+
+            // Close the current writer and document
+            if (mergedPdfWriter != null) {
+                closeMergedPdf(currentPdfFile, mergedPdfDocument, mergedPdfWriter);
+                mergedPdfWriter = null;
+            }
+            if (manifestWriter != null) manifestWriter.close();
+            manifestWriter = null;
+        } catch (Exception exception) {
+            // Do not leave a half-written merged PDF under its final name
+            if (mergedPdfWriter != null) mergedPdfFileStream.abort();
+            if (manifestWriter != null) manifestWriter.abort();
+            throw exception;
+        } finally {
+            // Release the reader of a PDF which failed to be merged
+            if (currentReader != null) releasePdfReader(currentReader);
+            prefetcher.close();
+        }
+
+        // Return the number of PDFs and pages merged
+        return new MergeResult(nbPDFsProcessed, nbPagesProcessed);
+    }
+
+    /**
+     * Copy a single PDF as the merged PDF file, without rewriting it.
+     * <p>
+     * Merging a single PDF only rewrites it page by page, so the PDF is hard
+     * linked as the merged PDF when both files are on the same file system, and
+     * copied by the kernel from file to file otherwise. Only the document
+     * structure is read, to count the pages of the PDF. The merge log, and the
+     * manifest if asked, get the same entry as if the PDF was merged.
+     * </p>
+     * <p>
+     * The PDF is merged the usual way when it has to be transformed : when its
+     * pages are selected, when its streams are compacted or its resources
+     * optimized, when it is encrypted, when the merged PDF may roll over to
+     * parts or when the merge is checkpointed. In append mode, the PDF is
+     * always copied, the merged PDF being updated in place by the next runs. A
+     * merged PDF linked by a run without append mode is copied by the first
+     * run appending to it.
+     * </p>
+     *
+     * @param pdf                   The path of the single PDF to be merged.
+     * @param mergedPdfFile         The path of the merged PDF file to write.
+     * @param mergingLoggerFilePath The path of the merge log file to write.
+     * @return The number of PDFs and pages merged, null if the PDF has to be
+     *         merged the usual way.
+     * @throws Exception Something went wrong while copying provided PDF.
+     */
+    private MergeResult passPdfThrough(final String pdf, final String mergedPdfFile, final String mergingLoggerFilePath) throws Exception {
+        if (getPageSelection(pdf) != null || compactor != null || request.isOptimizingResourcesEnabled() || request.isRolloverEnabled() || request.getCheckpointFiles() > 0) return null;
+
+        // Count the pages, reading the document structure only
+        long mergeStartTime = System.nanoTime();
+        long mergeStartDate = System.currentTimeMillis();
+        PdfReader reader = openPartialPdfReader(pdf, 0);
+        int nbPages;
+        try {
+            if (reader.isEncrypted()) return null;
+            nbPages = reader.getNumberOfPages();
+        } finally {
+            reader.close();
+        }
+        metrics.record(MergeMetrics.Phase.OPEN, mergeStartTime);
+
+        // Link or copy the PDF, unless it is already the merged PDF
+        LOG.debug("Passing '" + pdf + "' through to '" + mergedPdfFile + "'...");
+        File inputPdfFile = new File(pdf);
+        File outputPdfFile = new File(mergedPdfFile);
+        long nbPdfBytes = inputPdfFile.length();
+        if (outputPdfFile.exists() && Files.isSameFile(inputPdfFile.toPath(), outputPdfFile.toPath())) {
+            LOG.info("'" + pdf + "' is the only PDF to merge and already the merged PDF.");
+        } else if (!request.isAppendEnabled() && AtomicFileOutputStream.commitLink(inputPdfFile, outputPdfFile, request.getOutputSyncPolicy(), metrics)) {
+            LOG.info("'" + pdf + "' is the only PDF to merge : it is linked as '" + mergedPdfFile + "'.");
+        } else {
+            AtomicFileOutputStream.commitCopy(inputPdfFile, outputPdfFile, request.getOutputSyncPolicy(), metrics);
+            LOG.info("'" + pdf + "' is the only PDF to merge : it is copied as '" + mergedPdfFile + "'.");
+        }
+        long mergeTime = System.nanoTime() - mergeStartTime;
+        metrics.recordFile(pdf, nbPages, nbPdfBytes, mergeTime);
+
+        // Write the same merge log and manifest entries as a merge
+        Writer mergingLoggerWriter = new BufferedWriter(new FileWriter(mergingLoggerFilePath));
+        try {
+            mergingLoggerWriter.write(pdf + "\t" + Integer.toString(nbPages) + "\r\n");
+        } finally {
+            mergingLoggerWriter.close();
+        }
+        if (request.isManifestEnabled()) {
+            MergeManifestWriter manifestWriter = new MergeManifestWriter(getManifestFilename(mergedPdfFile, CONFIG_FLAG_MANIFEST_EXTENSION), getManifestFilename(mergedPdfFile, CONFIG_FLAG_MANIFEST_INDEX_EXTENSION));
+            try {
+                manifestWriter.add(pdf, nbPdfBytes, 1, nbPages, 0, nbPdfBytes, mergeStartDate, mergeTime);
+                manifestWriter.close();
+            } catch (Exception exception) {
+                manifestWriter.abort();
+                throw exception;
+            }
+        }
+        return new MergeResult(1, nbPages);
+    }
+
+    /**
+     * Merge provided PDFs into a single PDF file through committed segments.
+     * <p>
+     * This method will merge provided PDFs into segment files of a fixed number
+     * of PDFs, written into a checkpoint directory next to the merged PDF. Every
+     * complete segment is synchronized to disk and committed into the manifest
+     * of the checkpoint directory. When the merge is resumed, the PDFs of the
+     * committed segments are skipped and the merge goes on from the last
+     * committed segment. Once every PDF has been merged, the segments are
+     * merged into the merged PDF file, a single segment being linked or copied
+     * as the merged PDF file, the merge log is written from the manifest and
+     * the checkpoint directory is removed. The segments are kept until then, so
+     * that a merge stopped at any point can be resumed.
+     * </p>
+     *
+     * @param pdfsToMerge           The paths of the PDFs to be merged.
+     * @param mergedPdfFile         The path of the merged PDF file to write.
+     * @param mergingLoggerFilePath The path of the merge log file to write.
+     * @return The number of PDFs and pages added to the merged PDF file,
+     *         including the ones of the segments committed before a resume.
+     * @throws Exception Something went wrong while merging provided PDFs.
+     */
+    private MergeResult mergeCheckpointed(final Iterator<String> pdfsToMerge, final String mergedPdfFile, final String mergingLoggerFilePath) throws Exception {
+        // Prepare the checkpoint directory, keeping its committed segments if resuming
+        File checkpointDirectory = new File(mergedPdfFile + CONFIG_FLAG_CHECKPOINT_DIRECTORY_EXTENSION);
+        File manifestFile = new File(checkpointDirectory, CONFIG_FLAG_CHECKPOINT_MANIFEST);
+        if (checkpointDirectory.isDirectory() && !request.isResumeEnabled()) {
+            LOG.warn("Checkpoint directory '" + checkpointDirectory.getPath() + "' found but the merge is not resumed : it is cleared.");
+            deleteCheckpointDirectory(checkpointDirectory);
+        }
+        if (!checkpointDirectory.isDirectory() && !checkpointDirectory.mkdirs()) {
+            throw new IOException("The checkpoint directory '" + checkpointDirectory.getPath() + "' can not be created.");
+        }
+        CheckpointManifest manifest = CheckpointManifest.open(manifestFile);
+
+        // Skip the PDFs of the committed segments
+        Set<String> pdfsCommitted = new HashSet<String>();
+        for (CheckpointManifest.Segment segment : manifest.getSegments()) {
+            for (String entry : segment.getEntries()) {
+                pdfsCommitted.add(normalizePath(entry.substring(0, entry.lastIndexOf('\t'))));
+            }
+        }
+        if (!manifest.getSegments().isEmpty()) {
+            LOG.info("Resuming after " + manifest.getSegments().size() + " committed segment(s) holding " + pdfsCommitted.size() + " PDF file(s).");
+        }
+        Iterator<String> pdfsRemaining = skip(pdfsToMerge, pdfsCommitted);
+
+        // Merge the remaining PDFs, one segment at a time
+        int segmentNumber = manifest.getSegments().size();
+        while (pdfsRemaining.hasNext()) {
+            segmentNumber++;
+            File segmentFile = new File(checkpointDirectory, String.format(CONFIG_FLAG_CHECKPOINT_SEGMENT_FORMAT, segmentNumber));
+            StringWriter segmentLoggerWriter = new StringWriter();
+            mergeFiles(limit(pdfsRemaining, request.getCheckpointFiles()), segmentFile.getPath(), segmentLoggerWriter, true);
+
+            // Commit the segment once it is on disk
+            syncFile(segmentFile);
+            manifest.commit(segmentFile, Arrays.asList(segmentLoggerWriter.toString().split("\r\n")));
+            LOG.debug("Segment '" + segmentFile.getPath() + "' committed.");
+        }
+
+        // Merge the segments into the merged PDF
+        List<String> segmentFiles = new ArrayList<String>();
+        long nbPDFsProcessed = 0;
+        long nbPagesProcessed = 0;
+        for (CheckpointManifest.Segment segment : manifest.getSegments()) {
+            segmentFiles.add(new File(checkpointDirectory, segment.getName()).getPath());
+            for (String entry : segment.getEntries()) {
+                nbPDFsProcessed++;
+                nbPagesProcessed += Long.parseLong(entry.substring(entry.lastIndexOf('\t') + 1));
+            }
+        }
+        LOG.info("Merging " + segmentFiles.size() + " segment(s) into '" + mergedPdfFile + "'...");
+        if (segmentFiles.size() == 1) {
+            // Keep the segment until the checkpoint is removed, so that a merge
+            // stopped meanwhile can still be resumed
+            File segmentFile = new File(segmentFiles.get(0));
+            if (!AtomicFileOutputStream.commitLink(segmentFile, new File(mergedPdfFile), request.getOutputSyncPolicy(), metrics)) {
+                AtomicFileOutputStream.commitCopy(segmentFile, new File(mergedPdfFile), request.getOutputSyncPolicy(), metrics);
+            }
+        } else {
+            mergeFiles(segmentFiles.iterator(), mergedPdfFile, new StringWriter(), false);
+        }
+
+        // Write the merge log from the manifest
+        Writer mergingLoggerWriter = new BufferedWriter(new FileWriter(mergingLoggerFilePath));
+        try {
+            for (CheckpointManifest.Segment segment : manifest.getSegments()) {
+                for (String entry : segment.getEntries()) {
+                    mergingLoggerWriter.write(entry + "\r\n");
+                }
+            }
+        } finally {
+            mergingLoggerWriter.close();
+        }
+
+        // The checkpoint is not needed anymore
+        deleteCheckpointDirectory(checkpointDirectory);
+
+        // Return the number of PDFs and pages merged
+        return new MergeResult(nbPDFsProcessed, nbPagesProcessed);
+    }
+
+    /**
+     * Remove a checkpoint or tree merge directory and the files it holds.
+     *
+     * @param checkpointDirectory The directory.
+     * @throws IOException A file can not be removed.
+     */
+    private static void deleteCheckpointDirectory(final File checkpointDirectory) throws IOException {
+        File[] checkpointFiles = checkpointDirectory.listFiles();
+        if (checkpointFiles != null) {
+            for (File checkpointFile : checkpointFiles) {
+                Files.delete(checkpointFile.toPath());
+            }
+        }
+        Files.delete(checkpointDirectory.toPath());
+    }
+
+    /**
+     * Force the content of a file to disk.
+     *
+     * @param file The file.
+     * @throws IOException The file can not be synchronized.
+     */
+    private static void syncFile(final File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Merge provided PDFs into page balanced shards written concurrently.
+     * <p>
+     * This method will take the pages of every provided PDF from the pre-flight
+     * index and split the PDFs list, keeping its order, into consecutive shards holding about the same
+     * number of pages. Every shard is then merged concurrently into its own
+     * numbered part of the merged PDF file and gets its own section in the merge
+     * log. The total number of PDFs and pages added will be returned.
+     * </p>
+     *
+     * @param pdfsToMerge         The paths of the PDFs to be merged.
+     * @param mergedPdfFile       The path of the merged PDF file, used to name
+     *                            the parts.
+     * @param mergingLoggerFilePath The path of the merge log file to write.
+     * @return The number of PDFs and pages added to every part.
+     * @throws Exception Something went wrong while merging at least one shard.
+     */
+    private MergeResult mergeShards(final Iterator<String> pdfsToMerge, final String mergedPdfFile, final String mergingLoggerFilePath) throws Exception {
+        // Get the pages of every PDF from the pre-flight index
+        List<String> pdfs = new ArrayList<String>();
+        while (pdfsToMerge.hasNext()) {
+            pdfs.add(pdfsToMerge.next());
+        }
+        int[] nbPages = new int[pdfs.size()];
+        for (int pdfIndex = 0; pdfIndex < nbPages.length; pdfIndex++) {
+            nbPages[pdfIndex] = getNbPagesSelected(pdfs.get(pdfIndex));
+        }
+
+        // Split the PDFs into consecutive shards of about the same number of pages
+        long nbPagesTotal = 0;
+        for (int nbPdfPages : nbPages) {
+            nbPagesTotal += nbPdfPages;
+        }
+        final List<List<String>> shards = new ArrayList<List<String>>();
+        List<String> shard = new ArrayList<String>();
+        long nbPagesCumulated = 0;
+        for (int pdfIndex = 0; pdfIndex < pdfs.size(); pdfIndex++) {
+            shard.add(pdfs.get(pdfIndex));
+            nbPagesCumulated += nbPages[pdfIndex];
+            if (shards.size() < request.getShards() - 1 && nbPagesCumulated * request.getShards() >= nbPagesTotal * (shards.size() + 1)) {
+                shards.add(shard);
+                shard = new ArrayList<String>();
+            }
+        }
+        if (!shard.isEmpty()) shards.add(shard);
+        LOG.info(shards.size() + " shard(s) of about " + Long.toString(nbPagesTotal / shards.size()) + " page(s) built.");
+
+        // Merge every shard on the worker pool into its own part and log section
+        ExecutorService executor = Executors.newFixedThreadPool(shards.size());
+        List<Future<MergeResult>> mergedShards = new ArrayList<Future<MergeResult>>();
+        try {
+            for (int shardIndex = 0; shardIndex < shards.size(); shardIndex++) {
+                final int partNumber = shardIndex + 1;
+                final List<String> shardPdfs = shards.get(shardIndex);
+                mergedShards.add(executor.submit(new Callable<MergeResult>() {
+                    public MergeResult call() throws Exception {
+                        String partPdfFile = getPartFilename(mergedPdfFile, partNumber);
+                        Writer shardLoggerWriter = new BufferedWriter(new FileWriter(getShardLogFilename(mergingLoggerFilePath, partNumber)));
+                        try {
+                            shardLoggerWriter.write(getLogSectionHeader(partPdfFile));
+                            MergeResult shardResult = mergeFiles(shardPdfs.iterator(), partPdfFile, shardLoggerWriter, true);
+                            LOG.info("Shard " + partNumber + " : " + shardResult.getNbPDFsMerged() + " PDF file(s) merged into '" + partPdfFile + "' for a total of " + Long.toString(shardResult.getNbPagesMerged()) + " page(s).");
+                            return shardResult;
+                        } finally {
+                            shardLoggerWriter.close();
+                        }
+                    }
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Wait for every shard
+        MergeResult mergeResult = new MergeResult(0, 0);
+        Exception shardException = null;
+        for (Future<MergeResult> mergedShard : mergedShards) {
+            try {
+                mergeResult = mergeResult.add(mergedShard.get());
+            } catch (ExecutionException exception) {
+                if (shardException == null) shardException = (exception.getCause() instanceof Exception) ? (Exception) exception.getCause() : exception;
+            }
+        }
+        if (shardException != null) throw shardException;
+
+        // Gather the sections of every shard into the merge log
+        Writer mergingLoggerWriter = new BufferedWriter(new FileWriter(mergingLoggerFilePath));
+        try {
+            for (int partNumber = 1; partNumber <= shards.size(); partNumber++) {
+                File shardLoggerFile = new File(getShardLogFilename(mergingLoggerFilePath, partNumber));
+                BufferedReader shardLoggerReader = new BufferedReader(new FileReader(shardLoggerFile));
+                try {
+                    String line;
+                    while ((line = shardLoggerReader.readLine()) != null) {
+                        mergingLoggerWriter.write(line + "\r\n");
+                    }
+                } finally {
+                    shardLoggerReader.close();
+                }
+                shardLoggerFile.delete();
+            }
+        } finally {
+            mergingLoggerWriter.close();
+        }
+
+        // Return the number of PDFs and pages merged
+        return mergeResult;
+    }
+
+    /**
+     * Merge provided PDFs as a tree of intermediate PDFs.
+     * <p>
+     * This method will split provided PDFs, keeping their order, into chunks of
+     * fan-in PDFs merged concurrently into intermediate PDFs, written into a
+     * work directory next to the merged PDF. As soon as all the intermediate
+     * PDFs of a node of the tree are written, they are merged the same way
+     * into an intermediate PDF of the next level and removed, before the next
+     * chunks of input PDFs are merged, so that the intermediate PDFs on disk
+     * stay about the size of the merged PDF. Once at most fan-in intermediate
+     * PDFs remain, they are merged into the merged PDF file and the work
+     * directory is removed.
+     * </p>
+     * <p>
+     * Every writer only holds the page tree and cross reference of its own
+     * intermediate PDF, and the final pass copies intermediate PDFs already
+     * compacted : the memory of a writer is bounded by the fan-in, and the
+     * intermediate PDFs are written on every configured thread.
+     * </p>
+     *
+     * @param pdfsToMerge           The paths of the PDFs to be merged.
+     * @param mergedPdfFile         The path of the merged PDF file to write.
+     * @param mergingLoggerFilePath The path of the merge log file to write.
+     * @return The number of PDFs and pages added to the merged PDF file.
+     * @throws Exception Something went wrong while merging provided PDFs, or
+     *                   the intermediate PDFs went over the temporary space
+     *                   limit.
+     */
+    private MergeResult mergeTree(final Iterator<String> pdfsToMerge, final String mergedPdfFile, final String mergingLoggerFilePath) throws Exception {
+        // Prepare the work directory, clearing the one of an interrupted merge
+        final File treeDirectory = new File(mergedPdfFile + CONFIG_FLAG_TREE_DIRECTORY_EXTENSION);
+        if (treeDirectory.isDirectory()) {
+            LOG.warn("Tree merge directory '" + treeDirectory.getPath() + "' of an interrupted merge found : it is cleared.");
+            deleteCheckpointDirectory(treeDirectory);
+        }
+        if (!treeDirectory.mkdirs()) {
+            throw new IOException("The tree merge directory '" + treeDirectory.getPath() + "' can not be created.");
+        }
+
+        // Split the PDFs into leaves of fan-in PDFs
+        int fanIn = request.getTreeFanIn();
+        int nodeNumber = 0;
+        List<TreeNode> leaves = new ArrayList<TreeNode>();
+        List<String> leafPdfs = new ArrayList<String>();
+        while (pdfsToMerge.hasNext()) {
+            leafPdfs.add(pdfsToMerge.next());
+            if (leafPdfs.size() == fanIn || !pdfsToMerge.hasNext()) {
+                leaves.add(new TreeNode(new File(treeDirectory, String.format(CONFIG_FLAG_TREE_NODE_FORMAT, ++nodeNumber)), leafPdfs, null));
+                leafPdfs = new ArrayList<String>();
+            }
+        }
+
+        // Build the levels of the tree until at most fan-in nodes remain
+        List<TreeNode> nodes = leaves;
+        int nbLevels = 1;
+        while (nodes.size() > fanIn) {
+            List<TreeNode> parents = new ArrayList<TreeNode>();
+            for (int nodeIndex = 0; nodeIndex < nodes.size(); nodeIndex += fanIn) {
+                parents.add(new TreeNode(new File(treeDirectory, String.format(CONFIG_FLAG_TREE_NODE_FORMAT, ++nodeNumber)), null, nodes.subList(nodeIndex, Math.min(nodeIndex + fanIn, nodes.size()))));
+            }
+            nodes = parents;
+            nbLevels++;
+        }
+        LOG.info("Tree merge of " + leaves.size() + " chunk(s) of at most " + fanIn + " PDF file(s) over " + nbLevels + " level(s), " + Integer.toString(nodeNumber) + " intermediate PDF(s) written by " + request.getTreeThreads() + " thread(s).");
+
+        // Write the intermediate PDFs, the nodes whose children are written first
+        ExecutorService executor = Executors.newFixedThreadPool(request.getTreeThreads());
+        CompletionService<TreeNode> completionService = new ExecutorCompletionService<TreeNode>(executor);
+        ArrayDeque<TreeNode> readyNodes = new ArrayDeque<TreeNode>();
+        int nextLeafIndex = 0;
+        int nbRunning = 0;
+        long tempSize = 0;
+        try {
+            while (true) {
+                while (nbRunning < request.getTreeThreads() && (!readyNodes.isEmpty() || nextLeafIndex < leaves.size())) {
+                    final TreeNode node = readyNodes.isEmpty() ? leaves.get(nextLeafIndex++) : readyNodes.poll();
+                    completionService.submit(new Callable<TreeNode>() {
+                        public TreeNode call() throws Exception {
+                            writeTreeNode(node);
+                            return node;
+                        }
+                    });
+                    nbRunning++;
+                }
+                if (nbRunning == 0) break;
+
+                // Wait for the next intermediate PDF, and remove its children
+                TreeNode writtenNode;
+                try {
+                    writtenNode = completionService.take().get();
+                } catch (ExecutionException exception) {
+                    if (exception.getCause() instanceof Exception) throw (Exception) exception.getCause();
+                    throw exception;
+                }
+                nbRunning--;
+                tempSize += writtenNode.file.length();
+                if (writtenNode.children != null) {
+                    for (TreeNode child : writtenNode.children) {
+                        tempSize -= child.file.length();
+                        Files.delete(child.file.toPath());
+                    }
+                }
+                if (request.getTreeTempLimit() > 0 && tempSize > request.getTreeTempLimit()) {
+                    throw new IOException("The intermediate PDFs of the tree merge take " + String.format(Locale.ROOT, "%.1f", tempSize / (1024.0 * 1024.0)) + " MB, above the temporary space limit of " + Long.toString(request.getTreeTempLimit() / (1024L * 1024L)) + " MB. The tree merge directory '" + treeDirectory.getPath() + "' is left as is.");
+                }
+
+                // Its parent is ready once all its children are written
+                TreeNode parent = writtenNode.parent;
+                if (parent != null && ++parent.nbChildrenWritten == parent.children.size()) readyNodes.add(parent);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Merge the remaining intermediate PDFs into the merged PDF
+        LOG.info("Merging " + nodes.size() + " intermediate PDF(s) into '" + mergedPdfFile + "'...");
+        if (nodes.size() == 1) {
+            AtomicFileOutputStream.commitMove(nodes.get(0).file, new File(mergedPdfFile), request.getOutputSyncPolicy(), metrics);
+        } else {
+            List<String> nodeFiles = new ArrayList<String>();
+            for (TreeNode node : nodes) {
+                nodeFiles.add(node.file.getPath());
+            }
+            mergeFiles(nodeFiles.iterator(), mergedPdfFile, new StringWriter(), false);
+        }
+
+        // Write the merge log from the leaves
+        MergeResult mergeResult = new MergeResult(0, 0);
+        Writer mergingLoggerWriter = new BufferedWriter(new FileWriter(mergingLoggerFilePath));
+        try {
+            for (TreeNode leaf : leaves) {
+                mergingLoggerWriter.write(leaf.log);
+                mergeResult = mergeResult.add(leaf.result);
+            }
+        } finally {
+            mergingLoggerWriter.close();
+        }
+
+        // The intermediate PDFs are not needed anymore
+        deleteCheckpointDirectory(treeDirectory);
+
+        // Return the number of PDFs and pages merged
+        return mergeResult;
+    }
+
+    /**
+     * Write the intermediate PDF of a node of a tree merge.
+     *
+     * @param node The node, whose children are written if it is not a leaf.
+     * @throws Exception Something went wrong while merging the PDFs of the
+     *                   node.
+     */
+    private void writeTreeNode(final TreeNode node) throws Exception {
+        if (node.pdfs != null) {
+            StringWriter leafLoggerWriter = new StringWriter();
+            node.result = mergeFiles(node.pdfs.iterator(), node.file.getPath(), leafLoggerWriter, true);
+            node.log = leafLoggerWriter.toString();
+        } else {
+            List<String> childFiles = new ArrayList<String>();
+            for (TreeNode child : node.children) {
+                childFiles.add(child.file.getPath());
+            }
+            mergeFiles(childFiles.iterator(), node.file.getPath(), new StringWriter(), false);
+        }
+        LOG.debug("Intermediate PDF '" + node.file.getPath() + "' written.");
+    }
+
+    /**
+     * Read the page count of provided PDFs before they are merged.
+     * <p>
+     * This method will scan provided PDFs concurrently into the pre-flight
+     * index, reusing the index file if configured, and fail before anything is
+     * merged if a PDF can not be read.
+     * </p>
+     *
+     * @param pdfsToMerge The paths of the PDFs to be merged.
+     * @return The paths of the PDFs, in the same order.
+     * @throws Exception A PDF can not be read, or the index file can not be
+     *                   read or written.
+     */
+    private List<String> preflight(final Iterator<String> pdfsToMerge) throws Exception {
+        List<String> pdfs = new ArrayList<String>();
+        while (pdfsToMerge.hasNext()) {
+            pdfs.add(pdfsToMerge.next());
+        }
+
+        // Scan the PDFs, the unchanged ones being taken from the index file
+        LOG.info("Pre-flight scan of " + pdfs.size() + " PDF file(s)...");
+        long preflightStartTime = System.nanoTime();
+        PreflightIndex index = PreflightIndex.load(request.getPreflightIndexFile() == null ? null : new File(request.getPreflightIndexFile()));
+        index.scan(pdfs, request.getPreflightThreads(), request.getMapWindowSize());
+        index.save();
+        metrics.record(MergeMetrics.Phase.PREFLIGHT, preflightStartTime);
+        preflightIndex = index;
+
+        // Check every PDF can be read
+        long nbPages = 0;
+        long nbBytes = 0;
+        List<String> invalidPdfs = new ArrayList<String>();
+        for (String pdf : pdfs) {
+            PreflightIndex.Entry entry = index.getEntry(pdf);
+            if (!entry.isValid()) invalidPdfs.add(pdf);
+            nbPages += getNbPagesSelected(pdf);
+            nbBytes += entry.getSize();
+        }
+        if (!invalidPdfs.isEmpty()) {
+            throw new IOException(invalidPdfs.size() + " PDF file(s) can not be read, such as '" + invalidPdfs.get(0) + "' : nothing is merged.");
+        }
+        LOG.info("Pre-flight scan done : " + pdfs.size() + " PDF file(s), " + Long.toString(nbPages) + " page(s), " + Long.toString(nbBytes) + " byte(s) to merge, " + index.getNbEntriesReused() + " PDF file(s) taken from the index.");
+        return pdfs;
+    }
+
+    /**
+     * Start displaying the progress of the merge if asked.
+     *
+     * @param nbPdfs  The number of PDFs to merge, -1 if unknown.
+     * @param nbPages The number of pages to merge, -1 if unknown.
+     * @return The started reporter, null if the progress is not displayed.
+     */
+    private ProgressReporter startProgressReporter(final long nbPdfs, final long nbPages) {
+        if (!request.isDisplayProgressEnabled()) return null;
+        ProgressReporter progressReporter = new ProgressReporter(metrics, nbPdfs, nbPages, request.getDisplayProgressInterval(), System.out);
+        progressReporter.start();
+        return progressReporter;
+    }
+
+    /**
+     * Stop displaying the progress of the merge.
+     *
+     * @param progressReporter The reporter, null if the progress is not
+     *                         displayed.
+     * @return null, the reporter being stopped.
+     */
+    private static ProgressReporter stopProgressReporter(final ProgressReporter progressReporter) {
+        if (progressReporter != null) progressReporter.stop();
+        return null;
+    }
+
+    /**
+     * Create the writer of a merged PDF according to configuration.
+     *
+     * @param mergedPdfDocument The generic Document for merged PDF.
+     * @param mergedPdfStream   The stream the merged PDF is written to.
+     * @return The writer of the merged PDF.
+     * @throws Exception The writer can not be created.
+     */
+    PdfWriter createMergedPdfWriter(final Document mergedPdfDocument, final OutputStream mergedPdfStream) throws Exception {
+        return createMergedPdfWriter(mergedPdfDocument, mergedPdfStream, true);
+    }
+
+    /**
+     * Create the writer of a merged PDF according to configuration.
+     *
+     * @param mergedPdfDocument The generic Document for merged PDF.
+     * @param mergedPdfStream   The stream the merged PDF is written to.
+     * @param compactStreams    Should the streams be deflated again in compact
+     *                          mode ? false when merging PDFs already compacted.
+     * @return The writer of the merged PDF.
+     * @throws Exception The writer can not be created.
+     */
+    private PdfWriter createMergedPdfWriter(final Document mergedPdfDocument, final OutputStream mergedPdfStream, final boolean compactStreams) throws Exception {
+        OutputStream countedPdfStream = metrics.countBytesWritten(mergedPdfStream);
+        StreamCompactor compactor = compactStreams ? this.compactor : null;
+        MemoryGovernor governor = memoryGovernor;
+        boolean optimizingResources = request.isOptimizingResourcesEnabled() && (governor == null || !governor.isDeduplicationStopped());
+        PdfWriter mergedPdfWriter;
+        if (optimizingResources) {
+            DeduplicatingPdfCopy deduplicatingPdfCopy = new DeduplicatingPdfCopy(mergedPdfDocument, countedPdfStream, resourceCache, hasher, request.getResTableMemory(), request.isResTableOffHeapEnabled());
+            deduplicatingPdfCopy.setCompactor(compactor);
+            mergedPdfWriter = deduplicatingPdfCopy;
+        } else {
+            mergedPdfWriter = compactor == null ? new PdfCopy(mergedPdfDocument, countedPdfStream) : new StreamCompactor.CompactingPdfCopy(mergedPdfDocument, countedPdfStream, compactor);
+        }
+
+        // Compress the cross reference and the objects in compact mode
+        if (request.isCompactEnabled()) {
+            mergedPdfWriter.setFullCompression();
+            mergedPdfWriter.setCompressionLevel(request.getCompactLevel());
+        }
+        return mergedPdfWriter;
+    }
+
+    /**
+     * Create the compactor of the streams of the current merge.
+     *
+     * @return The compactor, null if the compact mode is disabled.
+     */
+    private StreamCompactor createCompactor() {
+        return request.isCompactEnabled() ? new StreamCompactor(request.getCompactLevel(), metrics) : null;
+    }
+
+    /**
+     * Prepare an opened PDF on a prefetch worker, ahead of the merged PDF
+     * writer.
+     * <p>
+     * In compact mode, the streams of the PDF are deflated so that the writer
+     * only appends them. When resources are optimized, the streams of the PDF
+     * are hashed so that the writer only looks their digests up, unless the
+     * digests are in the resource fingerprint index. The streams of a PDF
+     * having selected pages are not prepared : most of them belong to pages
+     * which are not merged, and the streams of the selected pages are prepared
+     * by the writer when they are copied. Nor are they once the heap is under
+     * pressure, the prepared streams being held until the PDF is merged. The
+     * streams of the segments of a checkpointed merge and of the intermediate
+     * PDFs of a tree merge are not deflated again : they were compacted when
+     * they were written, and their writer does not compact them.
+     * </p>
+     *
+     * @param pdfPath   The path of the PDF.
+     * @param reader    The reader of the PDF.
+     * @param inputPdfs Is the PDF an input PDF ? false for a segment or an
+     *                  intermediate PDF.
+     * @throws IOException Something went wrong while reading the PDF.
+     */
+    void preparePdfReader(final String pdfPath, final PdfReader reader, final boolean inputPdfs) throws IOException {
+        MemoryGovernor governor = memoryGovernor;
+        if ((governor != null && governor.isSavingMemory()) || (inputPdfs && getPageSelection(pdfPath) != null)) return;
+        StreamCompactor currentCompactor = compactor;
+        if (currentCompactor != null && inputPdfs) currentCompactor.precompact(reader);
+        ResourceFingerprintCache cache = resourceCache;
+        if (request.isOptimizingResourcesEnabled() && (cache == null || !cache.isPdfKnown(new File(pdfPath)))) hasher.prehash(reader);
+    }
+
+    /**
+     * Release an opened PDF once it is merged, or failed to be merged.
+     * <p>
+     * The reader is closed and the streams prepared ahead for the writer are
+     * dropped, whatever the writer the PDF was handed to : a plain copier does
+     * not release them.
+     * </p>
+     *
+     * @param reader The reader of the PDF.
+     */
+    void releasePdfReader(final PdfReader reader) {
+        reader.close();
+        hasher.release(reader);
+        StreamCompactor currentCompactor = compactor;
+        if (currentCompactor != null) currentCompactor.release(reader);
+    }
+
+    /**
+     * Adapt the merge to the heap it uses, once a PDF has been merged.
+     * <p>
+     * Under pressure, the read-ahead is limited to the next PDF. Once the
+     * memory budget is reached, the merged PDF being written stops
+     * deduplicating its resources.
+     * </p>
+     *
+     * @param prefetcher      The prefetcher of the PDFs being merged.
+     * @param mergedPdfWriter The writer of the merged PDF, null if the PDFs are
+     *                        appended.
+     */
+    private void adaptToMemory(final PdfReaderPrefetcher prefetcher, final PdfWriter mergedPdfWriter) {
+        MemoryGovernor governor = memoryGovernor;
+        if (governor == null) return;
+        governor.check();
+        if (governor.isSavingMemory()) prefetcher.throttle(1);
+        if (governor.isDeduplicationStopped() && mergedPdfWriter instanceof DeduplicatingPdfCopy) ((DeduplicatingPdfCopy) mergedPdfWriter).stopDeduplicating();
+    }
+
+    /**
+     * Close a merged PDF.
+     *
+     * @param mergedPdfFile     The path of the merged PDF file.
+     * @param mergedPdfDocument The generic Document for merged PDF.
+     * @param mergedPdfWriter   The writer of the merged PDF.
+     */
+    void closeMergedPdf(final String mergedPdfFile, final Document mergedPdfDocument, final PdfWriter mergedPdfWriter) {
+        LOG.debug("Closing '" + mergedPdfFile + "'...");
+        mergedPdfDocument.close();
+        mergedPdfWriter.close();
+        LOG.debug("'" + mergedPdfFile + "' closed.");
+        if (mergedPdfWriter instanceof DeduplicatingPdfCopy) {
+            LOG.info("'" + mergedPdfFile + "' : " + ((DeduplicatingPdfCopy) mergedPdfWriter).getStatistics() + ".");
+        }
+    }
+
+    /**
+     * Merge provided PDFs into one PDF file per group.
+     * <p>
+     * This method will dispatch every provided PDF into a group identified by
+     * the part of its file name extracted according to the output PDF file name
+     * configuration (split or extract). The input order is kept within every
+     * group. Every group is then merged into its own PDF file, with its own
+     * merge log file, and independent groups are merged concurrently. A failing
+     * group does not stop the other ones. The total number of PDFs and pages
+     * added will be returned.
+     * </p>
+     *
+     * @param pdfsToGroup The paths of the PDFs to be merged.
+     * @return The number of PDFs and pages added to every merged PDF file.
+     * @throws Exception Something went wrong while grouping provided PDFs or
+     *                   while merging at least one group.
+     */
+    private MergeResult mergeGroups(final Iterator<String> pdfsToGroup) throws Exception {
+        // Dispatch every PDF into its group, keeping the input order
+        LOG.info("Grouping PDFs files...");
+        Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+        while (pdfsToGroup.hasNext()) {
+            String pdfToGroup = pdfsToGroup.next();
+            String groupId = getOutputPdfId(pdfToGroup);
+            List<String> group = groups.get(groupId);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(groupId, group);
+            }
+            group.add(pdfToGroup);
+        }
+        LOG.info(groups.size() + " group(s) found.");
+
+        // Merge every group on the worker pool
+        LOG.info("Merging PDFs files...");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(request.getGroupingThreads(), groups.size()));
+        Map<String, Future<MergeResult>> mergedGroups = new LinkedHashMap<String, Future<MergeResult>>();
+        try {
+            for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+                final String groupId = group.getKey();
+                final List<String> groupPdfs = group.getValue();
+                mergedGroups.put(groupId, executor.submit(new Callable<MergeResult>() {
+                    public MergeResult call() throws Exception {
+                        String mergedPdfFile = getOutputFilenameForId(groupId);
+                        if (request.isWatchEnabled() && !request.isAppendEnabled()) mergedPdfFile = getBatchFilename(mergedPdfFile);
+                        String mergingLoggerFilePath = getLogFilename(mergedPdfFile);
+                        MergeResult groupResult = groupPdfs.size() == 1 ? passPdfThrough(groupPdfs.get(0), mergedPdfFile, mergingLoggerFilePath) : null;
+                        if (groupResult == null) {
+                            Writer mergingLoggerWriter = new BufferedWriter(new FileWriter(mergingLoggerFilePath));
+                            try {
+                                groupResult = mergeFiles(groupPdfs.iterator(), mergedPdfFile, mergingLoggerWriter, true);
+                            } finally {
+                                mergingLoggerWriter.close();
+                            }
+                        }
+                        LOG.info("Group '" + groupId + "' : " + groupResult.getNbPDFsMerged() + " PDF file(s) merged into '" + mergedPdfFile + "' for a total of " + Long.toString(groupResult.getNbPagesMerged()) + " page(s).");
+                        return groupResult;
+                    }
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Wait for every group
+        MergeResult mergeResult = new MergeResult(0, 0);
+        int nbGroupsFailed = 0;
+        for (Map.Entry<String, Future<MergeResult>> mergedGroup : mergedGroups.entrySet()) {
+            try {
+                mergeResult = mergeResult.add(mergedGroup.getValue().get());
+            } catch (ExecutionException exception) {
+                LOG.error("Group '" + mergedGroup.getKey() + "' could not be merged.", exception.getCause());
+                nbGroupsFailed++;
+            }
+        }
+        if (nbGroupsFailed > 0) {
+            throw new Exception(Integer.toString(nbGroupsFailed) + " group(s) out of " + Integer.toString(groups.size()) + " could not be merged.");
+        }
+
+        // Return the number of PDFs and pages merged
+        return mergeResult;
+    }
+
+    /**
+     * Add provided PDFs at the end of an existing merged PDF.
+     * <p>
+     * This method will write the pages of provided PDFs as an incremental update
+     * of the merged PDF : the existing content of the merged PDF is not written
+     * again, only the new pages are appended to the file, which is then forced
+     * to disk according to the synchronization policy. iText still reads the
+     * whole merged PDF once to copy it ahead of the update, which the appending
+     * stream drops : appending costs a sequential read of the merged PDF on top
+     * of the new pages. Every added page wraps the imported page. The paths and numbers of
+     * pages of the added PDFs are appended to the merge log once the merged PDF
+     * is complete. If anything goes wrong, the merged PDF is restored to its
+     * previous content.
+     * </p>
+     *
+     * @param pdfsToAppend          The paths of the PDFs to be added.
+     * @param mergedPdfFile         The path of the existing merged PDF file.
+     * @param mergingLoggerFilePath The path of the existing merge log file.
+     * @return The number of PDFs and pages added to the merged PDF file.
+     * @throws Exception Something went wrong while adding provided PDFs.
+     */
+    private MergeResult appendFiles(final Iterator<String> pdfsToAppend, final String mergedPdfFile, final String mergingLoggerFilePath) throws Exception {
+        // Declarations
+        long nbPDFsProcessed = 0;
+        long nbPagesProcessed = 0;
+        StringBuilder mergingLoggerEntries = new StringBuilder();
+        if (!pdfsToAppend.hasNext()) return new MergeResult(0, 0);
+
+        // Do not update an input PDF the merged PDF was linked to
+        breakHardLink(new File(mergedPdfFile));
+
+        // Open the merged PDF partially and the stream appending to its file
+        PdfReader mergedPdfReader = openPartialPdfReader(mergedPdfFile, request.getMapWindowSize());
+        AppendingOutputStream mergedPdfStream = null;
+        PdfStamper mergedPdfStamper = null;
+        PdfReader currentReader = null;
+        PdfReaderPrefetcher prefetcher = new PdfReaderPrefetcher(this, pdfsToAppend, true, request.getPrefetchThreads(), request.getPrefetchDepth());
+        try {
+            mergedPdfStream = new AppendingOutputStream(new File(mergedPdfFile), request.getOutputSyncPolicy(), metrics);
+            mergedPdfStamper = new PdfStamper(mergedPdfReader, mergedPdfStream, '\0', true);
+
+            // For every PDF to be added
+            while (prefetcher.hasNext()) {
+                PdfReaderPrefetcher.PrefetchedPdf prefetchedPdf = prefetcher.next();
+                String currentPdf = prefetchedPdf.getPath();
+                currentReader = prefetchedPdf.getReader();
+                LOG.debug("Appending '" + currentPdf + "' to '" + mergedPdfFile + "'...");
+                long appendStartTime = System.nanoTime();
+                int nbPdfBytes = prefetchedPdf.getReader().getFileLength();
+                int nbPagesMerged;
+                try {
+                    nbPagesMerged = appendPDF(currentReader, mergedPdfStamper, getPageSelection(currentPdf));
+                } finally {
+                    releasePdfReader(currentReader);
+                    currentReader = null;
+                }
+                metrics.recordFile(currentPdf, nbPagesMerged, nbPdfBytes, prefetchedPdf.getOpenTime() + System.nanoTime() - appendStartTime);
+                mergingLoggerEntries.append(currentPdf).append("\t").append(Integer.toString(nbPagesMerged)).append("\r\n");
+                LOG.debug("'" + currentPdf + "' appended.");
+                nbPDFsProcessed++;
+                nbPagesProcessed += nbPagesMerged;
+                adaptToMemory(prefetcher, null);
+            }
+
+            // Write the update
+            mergedPdfStamper.close();
+            mergedPdfStamper = null;
+        } catch (Exception exception) {
+            // Restore the merged PDF
+            LOG.error("Appending to '" + mergedPdfFile + "' failed, restoring its previous content.");
+            if (mergedPdfStream != null) mergedPdfStream.rollback();
+            throw exception;
+        } finally {
+            // Release the reader of a PDF which failed to be merged
+            if (currentReader != null) releasePdfReader(currentReader);
+            prefetcher.close();
+            mergedPdfReader.close();
+            if (mergedPdfStream != null) mergedPdfStream.close();
+        }
+
+        // Add the appended PDFs to the merge log
+        Writer mergingLoggerWriter = new BufferedWriter(new FileWriter(mergingLoggerFilePath, true));
+        try {
+            mergingLoggerWriter.write(mergingLoggerEntries.toString());
+        } finally {
+            mergingLoggerWriter.close();
+        }
+
+        // Return the number of PDFs and pages added
+        return new MergeResult(nbPDFsProcessed, nbPagesProcessed);
+    }
+
+    /**
+     * Give a merged PDF its own copy of its content before it is updated in
+     * place.
+     * <p>
+     * A merged PDF written from a single PDF may be a hard link to that PDF,
+     * which is then in the input directory or in the done directory : updating
+     * the merged PDF in place would update it too. The link is broken by
+     * committing a copy of the merged PDF under its own name. Links can only be
+     * counted on Unix file systems.
+     * </p>
+     *
+     * @param mergedPdfFile The merged PDF file about to be updated.
+     * @throws IOException The merged PDF can not be copied.
+     */
+    private void breakHardLink(final File mergedPdfFile) throws IOException {
+        int nbLinks;
+        try {
+            nbLinks = ((Number) Files.getAttribute(mergedPdfFile.toPath(), "unix:nlink")).intValue();
+        } catch (UnsupportedOperationException exception) {
+            return;
+        } catch (IllegalArgumentException exception) {
+            return;
+        }
+        if (nbLinks <= 1) return;
+        LOG.info("'" + mergedPdfFile.getPath() + "' is linked to another file : it is copied before being updated.");
+        AtomicFileOutputStream.commitCopy(mergedPdfFile, mergedPdfFile, request.getOutputSyncPolicy(), metrics);
+    }
+
+    /**
+     * Add the pages of a PDF at the end of a merged PDF being updated.
+     * <p>
+     * Every page is added as a new page of the same size, showing the imported
+     * page turned according to its rotation. Provided reader is closed once
+     * every page has been added.
+     * </p>
+     *
+     * @param reader            The reader of the PDF to be added.
+     * @param mergedPdfStamper  The stamper updating the merged PDF.
+     * @param pageSelection     The pages to add, null to add every page.
+     * @return The number of pages added.
+     * @throws Exception Something went wrong while adding the pages.
+     */
+    private static int appendPDF(final PdfReader reader, final PdfStamper mergedPdfStamper, final PageSelection pageSelection) throws Exception {
+        // For every selected page of the PDF
+        int[] pageNumbers = getPageNumbers(reader, pageSelection);
+        for (int pageNumber : pageNumbers) {
+            // Add a new page at the end of the merged PDF
+            Rectangle pageSize = reader.getPageSizeWithRotation(pageNumber);
+            int mergedPageNumber = mergedPdfStamper.getReader().getNumberOfPages() + 1;
+            mergedPdfStamper.insertPage(mergedPageNumber, pageSize);
+
+            // Show the imported page on it
+            PdfImportedPage page = mergedPdfStamper.getImportedPage(reader, pageNumber);
+            PdfContentByte content = mergedPdfStamper.getOverContent(mergedPageNumber);
+            switch (reader.getPageRotation(pageNumber)) {
+            case 90:
+                content.addTemplate(page, 0, -1f, 1f, 0, 0, pageSize.getHeight());
+                break;
+            case 180:
+                content.addTemplate(page, -1f, 0, 0, -1f, pageSize.getWidth(), pageSize.getHeight());
+                break;
+            case 270:
+                content.addTemplate(page, 0, 1f, -1f, 0, pageSize.getWidth(), 0);
+                break;
+            default:
+                content.addTemplate(page, 0, 0);
+            }
+        }
+
+        // Write the imported pages and release the PDF
+        mergedPdfStamper.getWriter().freeReader(reader);
+        reader.close();
+        return pageNumbers.length;
+    }
+
+    /**
+     * Read the PDFs already merged from a merge log.
+     *
+     * @param mergingLoggerFilePath The path of the merge log file.
+     * @return The normalized paths of the merged PDFs.
+     * @throws IOException The merge log can not be read.
+     */
+    private static Set<String> readMergedPdfs(final String mergingLoggerFilePath) throws IOException {
+        Set<String> pdfsMerged = new HashSet<String>();
+        BufferedReader mergingLoggerReader = new BufferedReader(new FileReader(mergingLoggerFilePath));
+        try {
+            String line;
+            while ((line = mergingLoggerReader.readLine()) != null) {
+                int separatorIndex = line.lastIndexOf('\t');
+                if (separatorIndex > 0) pdfsMerged.add(normalizePath(line.substring(0, separatorIndex)));
+            }
+        } finally {
+            mergingLoggerReader.close();
+        }
+        return pdfsMerged;
+    }
+
+    /**
+     * Normalize a path so that two paths to the same file can be compared.
+     *
+     * @param path The path.
+     * @return The absolute path, without redundant elements.
+     */
+    private static String normalizePath(final String path) {
+        return new File(path).getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Take at most a given number of PDFs among PDFs to be merged.
+     * <p>
+     * The PDFs not taken are left to the provided iterator.
+     * </p>
+     *
+     * @param pdfs   The paths of the PDFs.
+     * @param nbPdfs The maximum number of PDFs to take.
+     * @return The paths of the PDFs taken.
+     */
+    private static Iterator<String> limit(final Iterator<String> pdfs, final int nbPdfs) {
+        return new Iterator<String>() {
+            public boolean hasNext() {
+                return nbPdfsTaken < nbPdfs && pdfs.hasNext();
+            }
+
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                nbPdfsTaken++;
+                return pdfs.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private int nbPdfsTaken = 0;
+        };
+    }
+
+    /**
+     * Skip some PDFs among PDFs to be merged.
+     *
+     * @param pdfs        The paths of the PDFs.
+     * @param skippedPdfs The normalized paths of the PDFs to skip.
+     * @return The paths of the PDFs not skipped.
+     */
+    private static Iterator<String> skip(final Iterator<String> pdfs, final Set<String> skippedPdfs) {
+        return new Iterator<String>() {
+            public boolean hasNext() {
+                while (nextPdf == null && pdfs.hasNext()) {
+                    String pdf = pdfs.next();
+                    if (!skippedPdfs.contains(normalizePath(pdf))) nextPdf = pdf;
+                }
+                return nextPdf != null;
+            }
+
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String pdf = nextPdf;
+                nextPdf = null;
+                return pdf;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private String nextPdf = null;
+        };
+    }
+
+    /**
+     * Add a PDF in front of other PDFs to be merged.
+     *
+     * @param firstPdf  The path of the first PDF.
+     * @param otherPdfs The paths of the following PDFs.
+     * @return The paths of every PDF.
+     */
+    private static Iterator<String> prepend(final String firstPdf, final Iterator<String> otherPdfs) {
+        return new Iterator<String>() {
+            public boolean hasNext() {
+                return !firstReturned || otherPdfs.hasNext();
+            }
+
+            public String next() {
+                if (firstReturned) return otherPdfs.next();
+                firstReturned = true;
+                return firstPdf;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private boolean firstReturned = false;
+        };
+    }
+
+    /**
+     * Open a PDF to be merged.
+     * <p>
+     * This method will open provided PDF according to configuration. By default
+     * the whole PDF is loaded and parsed onto the heap. In low memory mode, only
+     * the cross-reference table and the document structure are read when the
+     * PDF is opened : the objects needed by a page are read from the file when
+     * the page is imported. PDFs having selected pages are always read this way,
+     * so that the contents and resources of the other pages are never read, as
+     * well as every PDF once the heap is under pressure.
+     * </p>
+     *
+     * @param pdfPath The path to the PDF to be opened.
+     * @return The reader of the PDF.
+     * @throws IOException Something went wrong while opening the PDF.
+     */
+    PdfReader openPdfReader(final String pdfPath) throws IOException {
+        long openStartTime = System.nanoTime();
+        PdfReader reader;
+        MemoryGovernor governor = memoryGovernor;
+        if (request.isLowMemoryEnabled() || getPageSelection(pdfPath) != null || (governor != null && governor.isSavingMemory())) {
+            reader = openPartialPdfReader(pdfPath, request.getMapWindowSize());
+        } else {
+            reader = new PdfReader(pdfPath);
+        }
+        metrics.record(MergeMetrics.Phase.OPEN, openStartTime);
+        return reader;
+    }
+
+    /**
+     * Open a PDF for partial reading.
+     * <p>
+     * The PDF is accessed through a memory mapped file when it fits in the
+     * provided map window, and through positioned reads of a random access file
+     * otherwise. iText maps the whole PDF at once, so the map window bounds the
+     * size of the mappings and files too large to be mapped are still read
+     * without being loaded onto the heap.
+     * </p>
+     *
+     * @param pdfPath       The path to the PDF to be opened.
+     * @param mapWindowSize The size in bytes of the largest PDF which is memory
+     *                      mapped. 0 disables memory mapping.
+     * @return The partial reader of the PDF.
+     * @throws IOException Something went wrong while opening the PDF.
+     */
+    static PdfReader openPartialPdfReader(final String pdfPath, final long mapWindowSize) throws IOException {
+        boolean plainRandomAccess = new File(pdfPath).length() > mapWindowSize;
+        return new PdfReader(new RandomAccessFileOrArray(pdfPath, false, plainRandomAccess), null);
+    }
+
+    /**
+     * Merge provided PDF.
+     * <p>
+     * This method will add provided PDF file to the provided PDF document through
+     * the provided PDF document writer. The number of pages added to the writer
+     * will be returned. The provided reader is closed once its pages have been
+     * added.
+     * </p>
+     *
+     * @param reader          The opened reader of the PDF that should be added to
+     *                        existing document.
+     * @param mergedPdfWriter The DocWriter for merged PDF file
+     * @param mergedDocument  The generic Document for merged PDF.
+     * @param metrics         The metrics the time spent on every phase is
+     *                        recorded into.
+     * @return The number of pages added to the writer.
+     * @throws Exception Something went wrong while adding provided PDF to merged
+     *                   PDF file through provided writer.
+     */
+    static int mergePDF(PdfReader reader, PdfWriter mergedPdfWriter, Document mergedDocument, MergeMetrics metrics) throws Exception {
+        return mergePDF(reader, mergedPdfWriter, mergedDocument, null, metrics);
+    }
+
+    /**
+     * Merge the selected pages of provided PDF.
+     * <p>
+     * This method will add the selected pages of provided PDF file, in the order
+     * of the selection, to the provided PDF document through the provided PDF
+     * document writer. The number of pages added to the writer will be returned.
+     * The provided reader is closed once its pages have been added.
+     * </p>
+     *
+     * @param reader          The opened reader of the PDF that should be added to
+     *                        existing document.
+     * @param mergedPdfWriter The DocWriter for merged PDF file
+     * @param mergedDocument  The generic Document for merged PDF.
+     * @param pageSelection   The pages to add, null to add every page.
+     * @param metrics         The metrics the time spent on every phase is
+     *                        recorded into.
+     * @return The number of pages added to the writer.
+     * @throws Exception Something went wrong while adding provided PDF to merged
+     *                   PDF file through provided writer.
+     */
+    static int mergePDF(PdfReader reader, PdfWriter mergedPdfWriter, Document mergedDocument, PageSelection pageSelection, MergeMetrics metrics) throws Exception {
+        PdfImportedPage page;
+        long phaseStartTime;
+
+        // Add every selected page to provided writer
+        int[] pageNumbers = getPageNumbers(reader, pageSelection);
+        for (int pageIndexInCurrentPdf : pageNumbers) {
+            // Get the page from reader
+            phaseStartTime = System.nanoTime();
+            page = mergedPdfWriter.getImportedPage(reader, pageIndexInCurrentPdf);
+            metrics.record(MergeMetrics.Phase.IMPORT, phaseStartTime);
+
+            // Add page to merged document according using PDF copy
+            phaseStartTime = System.nanoTime();
+            ((PdfCopy) mergedPdfWriter).addPage(page);
+            metrics.record(MergeMetrics.Phase.ADD, phaseStartTime);
+        }
+
+        // Flush PDF current content
+        phaseStartTime = System.nanoTime();
+        mergedPdfWriter.flush();
+        metrics.record(MergeMetrics.Phase.FLUSH, phaseStartTime);
+        phaseStartTime = System.nanoTime();
+        mergedPdfWriter.freeReader(reader);
+        metrics.record(MergeMetrics.Phase.FREE, phaseStartTime);
+
+        // Close the reader
+        reader.close();
+        page = null;
+
+        // Return the number of pages imported
+        return pageNumbers.length;
+    }
+
+    /**
+     * Get the numbers of the pages of a PDF to be merged.
+     *
+     * @param reader        The reader of the PDF.
+     * @param pageSelection The pages to merge, null to merge every page.
+     * @return The page numbers, in merge order.
+     */
+    private static int[] getPageNumbers(final PdfReader reader, final PageSelection pageSelection) {
+        int nbPages = reader.getNumberOfPages();
+        if (pageSelection != null) return pageSelection.getPages(nbPages);
+        int[] pageNumbers = new int[nbPages];
+        for (int pageIndex = 0; pageIndex < nbPages; pageIndex++) {
+            pageNumbers[pageIndex] = pageIndex + 1;
+        }
+        return pageNumbers;
+    }
+
+    /**
+     * Get the pages of an input PDF to be merged : the pages given by its line
+     * of the input list, or else the pages selected for every input PDF.
+     *
+     * @param pdf The path of the input PDF, as returned by the input list.
+     * @return The selected pages, null to merge every page.
+     */
+    PageSelection getPageSelection(final String pdf) {
+        PageSelection pageSelection = pageSelections.get(pdf);
+        return pageSelection != null ? pageSelection : inputPageSelection;
+    }
+
+    /**
+     * Count the pages of an input PDF to be merged, from the pre-flight index.
+     *
+     * @param pdf The path of the input PDF, scanned by the pre-flight scan.
+     * @return The number of selected pages.
+     */
+    private int getNbPagesSelected(final String pdf) {
+        int nbPages = preflightIndex.getEntry(pdf).getNbPages();
+        PageSelection pageSelection = getPageSelection(pdf);
+        return pageSelection == null ? nbPages : pageSelection.getNbPages(nbPages);
+    }
+
+    /**
+     * Retrieve the output filename.
+     * <p>
+     * This method will build and return the fully qualified filename that should
+     * be given to the file once it has been processed.
+     * </p>
+     *
+     * @param inputFilePath The fully qualified filename of the input file.
+     * @return The name that should be provided to the file once it has been
+     *         processed.
+     * @throws Exception Something went wrong while building the merged PDF file
+     *           name.
+     */
+    private String getOutputFilename(final String inputFilePath) throws Exception {
+        // Extract the input filename
+        LOG.info("Building merged PDF file name...");
+        StringBuffer inputfileName = new StringBuffer(FileSystem.getFilename(inputFilePath));
+
+        // If merged PDF file name was not provided through configuration
+        String outputPdfFileName = request.getOutputPdfFileName();
+        if (outputPdfFileName == null) {
+            // If the input file name should be used for merged PDF file
+            if (request.isOutputPdfFileNameBasedOnInput()) {
+                outputPdfFileName = inputfileName.toString();
+            }
+            // If an extract or a part of input file name should be used for merged PDF
+            // file
+            else {
+                outputPdfFileName = getOutputPdfId(inputFilePath);
+            }
+        }
+
+        // If it does not end with correct extension
+        if (!outputPdfFileName.toLowerCase().endsWith(CONFIG_FLAG_PDF_EXTENSION)) {
+            // Add extension and build log file name
+            outputPdfFileName = outputPdfFileName + CONFIG_FLAG_PDF_EXTENSION;
+        }
+
+        // Build the merged PDF file name
+        StringBuffer outputFilename = new StringBuffer(request.getOutputDirectory()).append(outputPdfFileName);
+
+        // Return the created file name
+        LOG.info("Merged PDF file name '" + outputFilename.toString() + "' built.");
+        return outputFilename.toString();
+    }
+
+    /**
+     * Retrieve the merged PDF identifier of an input file.
+     * <p>
+     * This method will extract the identifier from the input file name according
+     * to the output PDF file name configuration : an extract of the file name or
+     * a part of the file name once it has been split. PDFs sharing the same
+     * identifier belong to the same group.
+     * </p>
+     *
+     * @param inputFilePath The fully qualified filename of the input file.
+     * @return The identifier of the merged PDF the input file belongs to.
+     * @throws Exception The identifier can not be extracted from the input file
+     *                   name.
+     */
+    private String getOutputPdfId(final String inputFilePath) throws Exception {
+        // Extract the input filename
+        StringBuffer inputfileName = new StringBuffer(FileSystem.getFilename(inputFilePath));
+
+        // If the an extract of input file name should be used for merged PDF file
+        if (request.isOutputPdfFileNameBasedOnIdExtract()) {
+            // Check if provided index is valid
+            if (request.getOutputPdfIdExtractFrom() < 1 || request.getOutputPdfIdExtractFrom() > inputfileName.length()) {
+                throw new ConfigurationException("Merged PDF file name should be build with an extract of input file name that starts at character '" + Integer.toString(request.getOutputPdfIdExtractFrom()) + "'. This index is outside the limit of PDF file name '" + Integer.toString(inputfileName.length()) + "'.", FrameworkExceptionLevel.FATAL);
+            }
+
+            // Extract the desired part of the file name
+            return inputfileName.substring(request.getOutputPdfIdExtractFrom() - 1, request.getOutputPdfIdExtractFrom() + request.getOutputPdfIdExtractLength() - 1);
+        }
+
+        // Split the input filename
+        String[] splittedFilename = inputfileName.toString().split(request.getOutputPdfIdSplitRegex());
+
+        // Check if provided index is valid
+        if (request.getOutputPdfIdSplitIndex() < 1 || request.getOutputPdfIdSplitIndex() > splittedFilename.length) {
+            throw new ConfigurationException("Merged PDF file name should be build according to a split based on regular expression '" + request.getOutputPdfIdSplitRegex() + "' and by extracting part found at index '" + Integer.toString(request.getOutputPdfIdSplitIndex()) + "'. This index is out of bounds : 1 -> " + Integer.toString(splittedFilename.length) + ".", FrameworkExceptionLevel.FATAL);
+        }
+
+        // Use the part found at provided index
+        return splittedFilename[request.getOutputPdfIdSplitIndex() - 1];
+    }
+
+    /**
+     * Retrieve the output filename of a group.
+     *
+     * @param outputPdfId The identifier of the group.
+     * @return The fully qualified filename of the merged PDF of the group.
+     */
+    private String getOutputFilenameForId(final String outputPdfId) {
+        // If it does not end with correct extension
+        String groupPdfFileName = outputPdfId;
+        if (!groupPdfFileName.toLowerCase().endsWith(CONFIG_FLAG_PDF_EXTENSION)) {
+            groupPdfFileName = groupPdfFileName + CONFIG_FLAG_PDF_EXTENSION;
+        }
+
+        // Build the merged PDF file name
+        return new StringBuffer(request.getOutputDirectory()).append(groupPdfFileName).toString();
+    }
+
+    /**
+     * Retrieve the filename of the merged PDF of a batch.
+     * <p>
+     * An existing merged PDF is not overwritten : a time stamp is then added
+     * between the name and the extension of the merged PDF.
+     * </p>
+     *
+     * @param mergedPdfFilePath The fully qualified filename of the merged PDF.
+     * @return The fully qualified filename of a merged PDF that does not exist.
+     */
+    private static String getBatchFilename(final String mergedPdfFilePath) {
+        // Keep the name if it is free
+        if (!new File(mergedPdfFilePath).exists()) return mergedPdfFilePath;
+
+        // Remove the PDF extension if necessary
+        String batchFileName = mergedPdfFilePath;
+        if (batchFileName.toLowerCase().endsWith(CONFIG_FLAG_PDF_EXTENSION)) {
+            batchFileName = batchFileName.substring(0, batchFileName.length() - CONFIG_FLAG_PDF_EXTENSION.length());
+        }
+
+        // Add a time stamp, and a counter if needed
+        batchFileName = batchFileName + new SimpleDateFormat(CONFIG_FLAG_BATCH_TIMESTAMP_FORMAT).format(new Date());
+        String batchFilePath = batchFileName + CONFIG_FLAG_PDF_EXTENSION;
+        for (int batchNumber = 2; new File(batchFilePath).exists(); batchNumber++) {
+            batchFilePath = batchFileName + "_" + batchNumber + CONFIG_FLAG_PDF_EXTENSION;
+        }
+        return batchFilePath;
+    }
+
+    /**
+     * Retrieve the filename of a part of the merged PDF.
+     * <p>
+     * The part number is inserted, on four digits, between the name and the
+     * extension of the merged PDF : 'name.pdf' becomes 'name_0001.pdf'.
+     * </p>
+     *
+     * @param mergedPdfFilePath The fully qualified filename of the merged PDF.
+     * @param partNumber        The number of the part, starting at 1.
+     * @return The fully qualified filename of the part.
+     */
+    private static String getPartFilename(final String mergedPdfFilePath, final int partNumber) {
+        // Remove the PDF extension if necessary
+        String partFileName = mergedPdfFilePath;
+        if (partFileName.toLowerCase().endsWith(CONFIG_FLAG_PDF_EXTENSION)) {
+            partFileName = partFileName.substring(0, partFileName.length() - CONFIG_FLAG_PDF_EXTENSION.length());
+        }
+
+        // Add the part number and the extension
+        return partFileName + String.format(CONFIG_FLAG_PART_NUMBER_FORMAT, partNumber) + CONFIG_FLAG_PDF_EXTENSION;
+    }
+
+    /**
+     * Build the pattern matching the filenames of every part of the merged PDF.
+     *
+     * @param mergedPdfFilePath The fully qualified filename of the merged PDF.
+     * @return The pattern matching the absolute path of any part.
+     */
+    private static Pattern getPartFilenamePattern(final String mergedPdfFilePath) {
+        String partFileName = new File(getPartFilename(mergedPdfFilePath, 0)).getAbsoluteFile().toPath().normalize().toString();
+        int partNumberStart = partFileName.length() - CONFIG_FLAG_PDF_EXTENSION.length() - String.format(CONFIG_FLAG_PART_NUMBER_FORMAT, 0).length();
+        return Pattern.compile(Pattern.quote(partFileName.substring(0, partNumberStart)) + "_\\d{4,}" + Pattern.quote(CONFIG_FLAG_PDF_EXTENSION), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Retrieve the filename of the temporary log of a shard.
+     *
+     * @param mergingLoggerFilePath The fully qualified filename of the merge log.
+     * @param partNumber            The number of the shard, starting at 1.
+     * @return The fully qualified filename of the temporary log of the shard.
+     */
+    private static String getShardLogFilename(final String mergingLoggerFilePath, final int partNumber) {
+        return mergingLoggerFilePath + String.format(CONFIG_FLAG_PART_NUMBER_FORMAT, partNumber);
+    }
+
+    /**
+     * Build the fully qualified filename of the manifest or the manifest index
+     * of a merged PDF file.
+     *
+     * @param mergedPdfFilePath The fully qualified filename of the merged PDF.
+     * @param extension         The extension of the manifest or its index.
+     * @return The filename, next to the merged PDF.
+     */
+    private static String getManifestFilename(final String mergedPdfFilePath, final String extension) {
+        String manifestFileName = mergedPdfFilePath;
+        if (manifestFileName.toLowerCase().endsWith(CONFIG_FLAG_PDF_EXTENSION)) {
+            manifestFileName = manifestFileName.substring(0, manifestFileName.length() - CONFIG_FLAG_PDF_EXTENSION.length());
+        }
+        return manifestFileName + extension;
+    }
+
+    /**
+     * Build the merge log line starting the section of a part.
+     *
+     * @param partPdfFilePath The fully qualified filename of the part.
+     * @return The section header, with its line separator.
+     */
+    private static String getLogSectionHeader(final String partPdfFilePath) {
+        return "[" + FileSystem.getFilename(partPdfFilePath) + "]\r\n";
+    }
+
+    /**
+     * Retrieve the log filename.
+     * <p>
+     * This method will build and return the fully qualified filename that should
+     * be given to the log file.
+     * </p>
+     *
+     * @param mergedPdfFilePath The fully qualified filename of the generated
+     *                          file.
+     * @return The name that should be provided to the log file.
+     * @throws Exception Something went wrong while building the log file name.
+     */
+    private String getLogFilename(final String mergedPdfFilePath) throws Exception {
+        // Initialize
+        LOG.info("Building log file name...");
+        String logFileName = null;
+
+        // If the log file name was not provided through configuration or one log
+        // file is written per group or per batch
+        if (request.getOutputLogFileName() == null || request.getOutputLogFileName().isEmpty() || request.isGroupingEnabled() || request.isWatchEnabled()) {
+            // Extract the merged filename
+            String mergedPdfName = FileSystem.getFilename(mergedPdfFilePath).toLowerCase();
+
+            // Remove the PDF extension if necessary
+            if (mergedPdfName.endsWith(CONFIG_FLAG_PDF_EXTENSION)) {
+                StringBuffer buffer = new StringBuffer(mergedPdfName);
+                logFileName = buffer.substring(0, mergedPdfName.lastIndexOf(CONFIG_FLAG_PDF_EXTENSION));
+            }
+        }
+        // Name was provided through configuration
+        else {
+            logFileName = request.getOutputLogFileName();
+        }
+
+        // If it does not end with correct extension
+        if (!logFileName.toLowerCase().endsWith(CONFIG_FLAG_LOG_EXTENSION)) {
+            // Add extension and build log file name
+            logFileName = logFileName + CONFIG_FLAG_LOG_EXTENSION;
+        }
+
+        // Build the log file path
+        StringBuffer logFilepath = new StringBuffer(request.getOutputDirectory()).append(logFileName);
+
+        // Return the created file name
+        LOG.info("Log file name '" + logFilepath.toString() + "' built.");
+        return logFilepath.toString();
+    }
+
+    /**
+     * Retrieve the filename of the metrics report of a merge.
+     *
+     * @param mergingLoggerFilePath The fully qualified filename of the merge log.
+     * @return The fully qualified filename of the report, next to the merge log.
+     */
+    private static String getReportFilename(final String mergingLoggerFilePath) {
+        String reportFilePath = mergingLoggerFilePath;
+        if (reportFilePath.toLowerCase().endsWith(CONFIG_FLAG_LOG_EXTENSION)) {
+            reportFilePath = reportFilePath.substring(0, reportFilePath.length() - CONFIG_FLAG_LOG_EXTENSION.length());
+        }
+        return reportFilePath + CONFIG_FLAG_REPORT_EXTENSION;
+    }
+
+    /**
+     * Get the pre-flight index of the current merge.
+     *
+     * @return The index, null if the input PDFs were not scanned.
+     */
+    PreflightIndex getPreflightIndex() {
+        return preflightIndex;
+    }
+
+    /**
+     * Get the metrics of the current merge.
+     *
+     * @return The metrics.
+     */
+    MergeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * A node of a tree merge : a chunk of input PDFs, or intermediate PDFs,
+     * merged into an intermediate PDF.
+     */
+    private static class TreeNode {
+
+        TreeNode(final File file, final List<String> pdfs, final List<TreeNode> children) {
+            this.file = file;
+            this.pdfs = pdfs;
+            this.children = children;
+            if (children != null) {
+                for (TreeNode child : children) {
+                    child.parent = this;
+                }
+            }
+        }
+
+        /**
+         * The intermediate PDF file.
+         */
+        private final File file;
+
+        /**
+         * The input PDFs of a leaf, null for the other nodes.
+         */
+        private final List<String> pdfs;
+
+        /**
+         * The nodes whose intermediate PDFs are merged, null for a leaf.
+         */
+        private final List<TreeNode> children;
+
+        /**
+         * The node this intermediate PDF is merged into, null if it is merged
+         * into the merged PDF.
+         */
+        private TreeNode parent = null;
+
+        /**
+         * The number of children whose intermediate PDF is written, only
+         * updated by the thread scheduling the nodes.
+         */
+        private int nbChildrenWritten = 0;
+
+        /**
+         * The number of PDFs and pages merged into a leaf.
+         */
+        private volatile MergeResult result = null;
+
+        /**
+         * The merge log section of a leaf.
+         */
+        private volatile String log = null;
+    }
+
+    /**
+     * The configuration of the merge.
+     */
+    private final MergeRequest request;
+
+    /**
+     * The resource fingerprint index kept from one run to the other, null if
+     * not configured.
+     */
+    private ResourceFingerprintCache resourceCache = null;
+
+    /**
+     * The metrics of the current merge, replaced at the start of every merge of
+     * the input directory or of a batch.
+     */
+    private volatile MergeMetrics metrics = new MergeMetrics();
+
+    /**
+     * The compactor of the streams of the current merge, replaced with the
+     * metrics, null if the compact mode is disabled.
+     */
+    private volatile StreamCompactor compactor;
+
+    /**
+     * The hasher of the resource streams of the current merge, replaced with
+     * the metrics.
+     */
+    private volatile StreamHasher hasher = new StreamHasher();
+
+    /**
+     * The pre-flight index of the current merge, null if the input PDFs were
+     * not scanned.
+     */
+    private volatile PreflightIndex preflightIndex = null;
+
+    /**
+     * The pages to be merged of the input PDFs listed with a page selection, by
+     * path instance : every line of the input list has its own.
+     */
+    private final Map<String, PageSelection> pageSelections = Collections.synchronizedMap(new IdentityHashMap<String, PageSelection>());
+
+    /**
+     * The pages to be merged of every other input PDF, null to merge every page.
+     */
+    private volatile PageSelection inputPageSelection = null;
+
+    /**
+     * The governor adapting the current merge to the heap, null if no memory
+     * budget is configured.
+     */
+    private volatile MemoryGovernor memoryGovernor = null;
+
+    private static final String CONFIG_FLAG_PDF_EXTENSION = ".pdf";
+    private static final String CONFIG_FLAG_PART_NUMBER_FORMAT = "_%04d";
+    private static final String CONFIG_FLAG_CHECKPOINT_DIRECTORY_EXTENSION = ".checkpoint";
+    private static final String CONFIG_FLAG_CHECKPOINT_MANIFEST = "manifest.txt";
+    private static final String CONFIG_FLAG_CHECKPOINT_SEGMENT_FORMAT = "segment_%04d.pdf.part";
+    private static final String CONFIG_FLAG_TREE_DIRECTORY_EXTENSION = ".tree";
+    private static final String CONFIG_FLAG_TREE_NODE_FORMAT = "node_%06d.pdf.part";
+    static final String CONFIG_FLAG_WATCH_FAILED_DIRECTORY = "failed";
+    private static final String CONFIG_FLAG_BATCH_TIMESTAMP_FORMAT = "_yyyyMMdd_HHmmss";
+    private static final String CONFIG_FLAG_LOG_EXTENSION = ".log";
+    private static final String CONFIG_FLAG_REPORT_EXTENSION = ".metrics.json";
+    private static final String CONFIG_FLAG_MANIFEST_EXTENSION = ".manifest.jsonl";
+    private static final String CONFIG_FLAG_MANIFEST_INDEX_EXTENSION = ".manifest.idx";
+    private static final String CONFIG_FLAG_GROUPS_REPORT_NAME = "groups";
+    private static final long CONFIG_FLAG_MILLISECONDS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+    /**
+     * Log4J Logger instance.
+     */
+    private static final Log LOG = LogFactory.getLog(MergeJob.class);
+}
@@ -0,0 +1,323 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Write the manifest of a merged PDF on a thread of its own.
+ * <p>
+ * The manifest describes every input PDF merged into the merged PDF, one JSON
+ * object per line (JSON Lines) in '&lt;name&gt;.manifest.jsonl' : its path, its
+ * size and content hash, the first and last pages it got in the merged PDF, the
+ * range of bytes of the merged PDF written while its pages were added, and when
+ * and how long it was merged. Resources shared with previous PDFs are written
+ * once, so the bytes of a PDF may refer to objects outside of its range.
+ * </p>
+ * <p>
+ * The binary index '&lt;name&gt;.manifest.idx' gives direct access to the
+ * entries : the entry of the n-th merged PDF, counted from 0, is described by
+ * the 16 bytes at offset 16 * n, made of the offset of its line in the manifest
+ * (8 bytes), its first page and its last page (4 bytes each), big-endian. The
+ * pages of any PDF are found with a single read of the index, and the PDF
+ * holding a page by a binary search of the index.
+ * </p>
+ * <p>
+ * The merge loop only queues the entries : the content hashes are computed and
+ * the files are written by the manifest thread, which flushes both files once
+ * per batch of queued entries instead of once per PDF. The queue is bounded, so
+ * a slow manifest thread holds the merge back instead of piling up entries.
+ * </p>
+ */
+class MergeManifestWriter {
+
+    /**
+     * Create a new writer and start its thread.
+     *
+     * @param manifestFile The path of the manifest file.
+     * @param indexFile    The path of the index file.
+     * @throws IOException The files can not be created.
+     */
+    MergeManifestWriter(final String manifestFile, final String indexFile) throws IOException {
+        this.manifestFile = new File(manifestFile);
+        this.indexFile = new File(indexFile);
+        this.manifestStream = new BufferedOutputStream(new FileOutputStream(this.manifestFile), BUFFER_SIZE);
+        this.indexStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.indexFile), BUFFER_SIZE));
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                writeEntries();
+            }
+        }, "pdf-manifest-" + this.manifestFile.getName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue the entry of a merged PDF.
+     *
+     * @param pdf          The path of the PDF.
+     * @param nbPdfBytes   The size of the PDF in bytes.
+     * @param firstPage    The number of its first page in the merged PDF,
+     *                     counted from 1.
+     * @param nbPages      The number of pages merged.
+     * @param outputStart  The size of the merged PDF before the PDF was added.
+     * @param outputEnd    The size of the merged PDF once it was added.
+     * @param startTime    When the PDF started being merged, in milliseconds
+     *                     since the epoch.
+     * @param mergeTime    The time spent opening and merging the PDF in
+     *                     nanoseconds.
+     * @throws IOException The manifest thread failed.
+     * @throws InterruptedException The merge was interrupted while the queue was
+     *                              full.
+     */
+    void add(final String pdf, final long nbPdfBytes, final long firstPage, final int nbPages, final long outputStart, final long outputEnd, final long startTime, final long mergeTime) throws IOException, InterruptedException {
+        checkFailure();
+        queue.put(new Entry(pdf, nbPdfBytes, firstPage, nbPages, outputStart, outputEnd, startTime, mergeTime));
+    }
+
+    /**
+     * Write the queued entries and close the files.
+     *
+     * @throws IOException The manifest can not be written.
+     * @throws InterruptedException The merge was interrupted while waiting for
+     *                              the manifest thread.
+     */
+    void close() throws IOException, InterruptedException {
+        queue.put(END);
+        thread.join();
+        checkFailure();
+    }
+
+    /**
+     * Stop the manifest thread and remove the files.
+     */
+    void abort() {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        manifestFile.delete();
+        indexFile.delete();
+    }
+
+    /**
+     * Write the entries until the end of the manifest, one batch at a time.
+     */
+    private void writeEntries() {
+        try {
+            try {
+                MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                List<Entry> batch = new ArrayList<Entry>();
+                while (true) {
+                    // Take every entry queued so far
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+
+                    // Write them and flush once
+                    for (Entry entry : batch) {
+                        if (entry == END) {
+                            manifestStream.flush();
+                            indexStream.flush();
+                            return;
+                        }
+                        write(entry, hash(entry.pdf, digest, buffer));
+                    }
+                    manifestStream.flush();
+                    indexStream.flush();
+                    batch.clear();
+                }
+            } finally {
+                manifestStream.close();
+                indexStream.close();
+            }
+        } catch (InterruptedException exception) {
+            // Aborted
+        } catch (Exception exception) {
+            failure = exception;
+            queue.clear();
+        }
+    }
+
+    /**
+     * Write an entry into the manifest and the index.
+     *
+     * @param entry The entry.
+     * @param hash  The content hash of the PDF.
+     * @throws IOException The files can not be written.
+     */
+    private void write(final Entry entry, final String hash) throws IOException {
+        long lastPage = entry.firstPage + entry.nbPages - 1;
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"seq\": ").append(nbEntries);
+        line.append(", \"path\": \"").append(MergeMetrics.escape(entry.pdf)).append("\"");
+        line.append(", \"bytes\": ").append(entry.nbPdfBytes);
+        line.append(", \"sha256\": \"").append(hash).append("\"");
+        line.append(", \"pages\": ").append(entry.nbPages);
+        line.append(", \"firstPage\": ").append(entry.firstPage);
+        line.append(", \"lastPage\": ").append(lastPage);
+        line.append(", \"outputStart\": ").append(entry.outputStart);
+        line.append(", \"outputEnd\": ").append(entry.outputEnd);
+        line.append(", \"startTime\": ").append(entry.startTime);
+        line.append(", \"mergeTimeMs\": ").append(String.format(Locale.ROOT, "%.3f", entry.mergeTime / 1e6));
+        line.append("}\n");
+        byte[] lineBytes = line.toString().getBytes(StandardCharsets.UTF_8);
+
+        indexStream.writeLong(manifestOffset);
+        indexStream.writeInt((int) entry.firstPage);
+        indexStream.writeInt((int) lastPage);
+        manifestStream.write(lineBytes);
+        manifestOffset += lineBytes.length;
+        nbEntries++;
+    }
+
+    /**
+     * Compute the content hash of a PDF.
+     *
+     * @param pdf    The path of the PDF.
+     * @param digest The digest to use.
+     * @param buffer The buffer the PDF is read through.
+     * @return The hash, in hexadecimal.
+     * @throws IOException The PDF can not be read.
+     */
+    private static String hash(final String pdf, final MessageDigest digest, final byte[] buffer) throws IOException {
+        digest.reset();
+        InputStream pdfStream = new FileInputStream(pdf);
+        try {
+            int nbBytesRead;
+            while ((nbBytesRead = pdfStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, nbBytesRead);
+            }
+        } finally {
+            pdfStream.close();
+        }
+        byte[] hash = digest.digest();
+        StringBuilder hexHash = new StringBuilder(hash.length * 2);
+        for (byte hashByte : hash) {
+            hexHash.append(Character.forDigit((hashByte >> 4) & 0xf, 16)).append(Character.forDigit(hashByte & 0xf, 16));
+        }
+        return hexHash.toString();
+    }
+
+    /**
+     * Report a failure of the manifest thread to the merge.
+     *
+     * @throws IOException The manifest thread failed.
+     */
+    private void checkFailure() throws IOException {
+        Exception exception = failure;
+        if (exception == null) return;
+        if (exception instanceof IOException) throw (IOException) exception;
+        if (exception instanceof NoSuchAlgorithmException) throw new IOException("The " + DIGEST_ALGORITHM + " digest is not available.", exception);
+        throw new IOException("The manifest '" + manifestFile.getPath() + "' can not be written.", exception);
+    }
+
+    /**
+     * The entry of a merged PDF, waiting to be written.
+     */
+    private static class Entry {
+
+        Entry(final String pdf, final long nbPdfBytes, final long firstPage, final int nbPages, final long outputStart, final long outputEnd, final long startTime, final long mergeTime) {
+            this.pdf = pdf;
+            this.nbPdfBytes = nbPdfBytes;
+            this.firstPage = firstPage;
+            this.nbPages = nbPages;
+            this.outputStart = outputStart;
+            this.outputEnd = outputEnd;
+            this.startTime = startTime;
+            this.mergeTime = mergeTime;
+        }
+
+        private final String pdf;
+        private final long nbPdfBytes;
+        private final long firstPage;
+        private final int nbPages;
+        private final long outputStart;
+        private final long outputEnd;
+        private final long startTime;
+        private final long mergeTime;
+    }
+
+    /**
+     * The manifest file.
+     */
+    private final File manifestFile;
+
+    /**
+     * The index file.
+     */
+    private final File indexFile;
+
+    /**
+     * The stream writing the manifest.
+     */
+    private final OutputStream manifestStream;
+
+    /**
+     * The stream writing the index.
+     */
+    private final DataOutputStream indexStream;
+
+    /**
+     * The thread writing the files.
+     */
+    private final Thread thread;
+
+    /**
+     * The entries waiting to be written.
+     */
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+
+    /**
+     * The number of entries written.
+     */
+    private long nbEntries = 0;
+
+    /**
+     * The number of bytes of manifest written.
+     */
+    private long manifestOffset = 0;
+
+    /**
+     * The failure of the manifest thread, null if none.
+     */
+    private volatile Exception failure = null;
+
+    /**
+     * Marks the end of the manifest in the queue.
+     */
+    private static final Entry END = new Entry(null, 0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * The maximum number of entries waiting to be written.
+     */
+    private static final int QUEUE_SIZE = 1024;
+
+    /**
+     * The size of the buffers the files are written and the PDFs read through.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The digest algorithm of the content hashes.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+}
@@ -0,0 +1,557 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// JMX packages
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The timing metrics of a merge.
+ * <p>
+ * The hot path of the merge records the latency of every phase into a
+ * histogram : the scan of the input directory, the pre-flight scan of the
+ * input PDFs, the opening and parsing of every
+ * PDF, the import, addition, flush and release of its pages, the compaction of
+ * its streams, and the writes and commits of the merged PDF files. The bytes
+ * read and written, the number of pages, the size reduction of the compaction
+ * and the slowest PDFs are tracked as well.
+ * Metrics are recorded concurrently by the prefetch workers, the shards and the
+ * groups, so every counter is lock free except the slowest PDFs.
+ * </p>
+ * <p>
+ * While the merge runs, the metrics are exposed through JMX. Once it is done,
+ * they are written as a JSON report next to the merge log.
+ * </p>
+ */
+class MergeMetrics implements MergeMetricsMBean {
+
+    /**
+     * The phases of the merge whose latency is recorded.
+     */
+    enum Phase {
+        SCAN, PREFLIGHT, OPEN, IMPORT, ADD, FLUSH, FREE, COMPACT, WRITE, COMMIT
+    }
+
+    /**
+     * Create new metrics, starting the clock of the merge.
+     */
+    MergeMetrics() {
+        for (int index = 0; index < histograms.length; index++) {
+            histograms[index] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record the latency of a phase.
+     *
+     * @param phase     The phase.
+     * @param startTime The {@link System#nanoTime()} at which the phase started.
+     */
+    void record(final Phase phase, final long startTime) {
+        histograms[phase.ordinal()].record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Record a merged PDF.
+     *
+     * @param path    The path of the PDF.
+     * @param nbPages The number of pages merged.
+     * @param size    The size of the PDF in bytes.
+     * @param time    The time spent opening and merging the PDF in nanoseconds.
+     */
+    void recordFile(final String path, final int nbPages, final long size, final long time) {
+        nbPDFsMerged.incrementAndGet();
+        nbPagesMerged.addAndGet(nbPages);
+        bytesRead.addAndGet(size);
+        synchronized (slowestFiles) {
+            if (slowestFiles.size() < SLOWEST_FILES || slowestFiles.peek().time < time) {
+                slowestFiles.add(new FileTime(path, nbPages, size, time));
+                if (slowestFiles.size() > SLOWEST_FILES) slowestFiles.poll();
+            }
+        }
+    }
+
+    /**
+     * Record a stream written in compact mode.
+     *
+     * @param originalSize The size of the stream in the input PDF in bytes.
+     * @param compactSize  The size of the stream in the merged PDF in bytes.
+     */
+    void recordCompaction(final long originalSize, final long compactSize) {
+        nbStreamsCompacted.incrementAndGet();
+        if (compactSize < originalSize) nbStreamsReduced.incrementAndGet();
+        compactionOriginalBytes.addAndGet(originalSize);
+        compactionCompactBytes.addAndGet(compactSize);
+    }
+
+    /**
+     * Record the CPU time spent deflating a stream in compact mode, be it
+     * written or not.
+     *
+     * @param cpuTime The CPU time in nanoseconds.
+     */
+    void recordCompactionCpuTime(final long cpuTime) {
+        compactionCpuTime.addAndGet(cpuTime);
+    }
+
+    /**
+     * Get a summary of the compaction.
+     *
+     * @return The number of streams deflated again, the bytes saved and the CPU
+     *         time spent, null if no stream was compacted.
+     */
+    String getCompactionSummary() {
+        if (nbStreamsCompacted.get() == 0) return null;
+        return nbStreamsReduced.get() + " of " + nbStreamsCompacted.get() + " stream(s) recompressed, " + getCompactionSavedBytes() + " of " + compactionOriginalBytes.get() + " byte(s) saved (" + String.format(Locale.ROOT, "%.1f", getCompactionRatio() * 100) + "%) for " + getCompactionCpuTime() + " ms of CPU";
+    }
+
+    /**
+     * Count the bytes written to a merged PDF.
+     *
+     * @param out The stream the merged PDF is written to.
+     * @return A stream writing to the provided one and counting the bytes
+     *         written.
+     */
+    OutputStream countBytesWritten(final OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                bytesWritten.incrementAndGet();
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten.addAndGet(len);
+            }
+        };
+    }
+
+    /**
+     * Time the scan of the input directory when PDFs are merged while it is
+     * being read.
+     *
+     * @param pdfs The PDFs found while the input directory is being read.
+     * @return The same PDFs, the time spent finding them being recorded.
+     */
+    Iterator<String> timeScan(final Iterator<String> pdfs) {
+        return new Iterator<String>() {
+            public boolean hasNext() {
+                long startTime = System.nanoTime();
+                boolean hasNext = pdfs.hasNext();
+                record(Phase.SCAN, startTime);
+                return hasNext;
+            }
+
+            public String next() {
+                return pdfs.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Register the metrics on the platform MBean server.
+     */
+    void register() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME_PREFIX + JOB_NUMBER.incrementAndGet());
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException exception) {
+            // Metrics are still reported at the end of the merge
+            objectName = null;
+        }
+    }
+
+    /**
+     * Unregister the metrics from the platform MBean server.
+     */
+    void unregister() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException exception) {
+            // Already unregistered
+        }
+        objectName = null;
+    }
+
+    /**
+     * Write the metrics as a JSON report.
+     *
+     * @param reportFile The report file.
+     * @throws IOException The report can not be written.
+     */
+    void writeReport(final File reportFile) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"startTime\": \"").append(new SimpleDateFormat(REPORT_DATE_FORMAT).format(new Date(startTime))).append("\",\n");
+        json.append("  \"elapsedTimeMs\": ").append(getElapsedTime()).append(",\n");
+        json.append("  \"nbPDFsMerged\": ").append(getNbPDFsMerged()).append(",\n");
+        json.append("  \"nbPagesMerged\": ").append(getNbPagesMerged()).append(",\n");
+        json.append("  \"pagesPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", getPagesPerSecond())).append(",\n");
+        json.append("  \"bytesRead\": ").append(getBytesRead()).append(",\n");
+        json.append("  \"bytesWritten\": ").append(getBytesWritten()).append(",\n");
+        json.append("  \"writeMBPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", getWriteThroughput())).append(",\n");
+
+        // The size reduction of the compact mode
+        json.append("  \"compaction\": { ");
+        json.append("\"nbStreams\": ").append(nbStreamsCompacted.get());
+        json.append(", \"nbStreamsRecompressed\": ").append(nbStreamsReduced.get());
+        json.append(", \"originalBytes\": ").append(compactionOriginalBytes.get());
+        json.append(", \"compactBytes\": ").append(compactionCompactBytes.get());
+        json.append(", \"savedPercent\": ").append(String.format(Locale.ROOT, "%.1f", getCompactionRatio() * 100));
+        json.append(", \"cpuTimeMs\": ").append(getCompactionCpuTime()).append(" },\n");
+
+        // The latency histograms, in microseconds
+        json.append("  \"phases\": {");
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = histograms[phase.ordinal()];
+            json.append(phase.ordinal() == 0 ? "\n" : ",\n");
+            json.append("    \"").append(phase.name().toLowerCase(Locale.ROOT)).append("\": { ");
+            json.append("\"count\": ").append(histogram.getCount());
+            json.append(", \"totalTimeMs\": ").append(histogram.getTotal() / NANOSECONDS_PER_MILLISECOND);
+            json.append(", \"p50Us\": ").append(histogram.getPercentile(0.5));
+            json.append(", \"p90Us\": ").append(histogram.getPercentile(0.9));
+            json.append(", \"p99Us\": ").append(histogram.getPercentile(0.99));
+            json.append(", \"maxUs\": ").append(histogram.getMax());
+            json.append(", \"buckets\": [");
+            for (int bucket = 0; bucket < LatencyHistogram.NB_BUCKETS; bucket++) {
+                if (bucket > 0) json.append(", ");
+                json.append(histogram.buckets.get(bucket));
+            }
+            json.append("] }");
+        }
+        json.append("\n  },\n");
+
+        // The slowest PDFs, slowest first
+        json.append("  \"slowestFiles\": [");
+        List<FileTime> files = getSortedSlowestFiles();
+        for (int index = 0; index < files.size(); index++) {
+            FileTime file = files.get(index);
+            json.append(index == 0 ? "\n" : ",\n");
+            json.append("    { \"path\": \"").append(escape(file.path)).append("\"");
+            json.append(", \"timeMs\": ").append(file.time / NANOSECONDS_PER_MILLISECOND);
+            json.append(", \"nbPages\": ").append(file.nbPages);
+            json.append(", \"size\": ").append(file.size).append(" }");
+        }
+        json.append(files.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8);
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    public long getElapsedTime() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public long getNbPDFsMerged() {
+        return nbPDFsMerged.get();
+    }
+
+    public long getNbPagesMerged() {
+        return nbPagesMerged.get();
+    }
+
+    public double getPagesPerSecond() {
+        return nbPagesMerged.get() * 1000.0 / Math.max(1, getElapsedTime());
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public double getWriteThroughput() {
+        long writeTime = histograms[Phase.WRITE.ordinal()].getTotal();
+        return writeTime == 0 ? 0 : bytesWritten.get() * (double) NANOSECONDS_PER_SECOND / writeTime / BYTES_PER_MB;
+    }
+
+    public long getCompactionSavedBytes() {
+        return compactionOriginalBytes.get() - compactionCompactBytes.get();
+    }
+
+    public long getCompactionCpuTime() {
+        return compactionCpuTime.get() / NANOSECONDS_PER_MILLISECOND;
+    }
+
+    public String[] getPhaseStatistics() {
+        String[] statistics = new String[histograms.length];
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = histograms[phase.ordinal()];
+            statistics[phase.ordinal()] = phase.name().toLowerCase(Locale.ROOT) + " : " + histogram.getCount() + " in " + histogram.getTotal() / NANOSECONDS_PER_MILLISECOND + " ms, p50 " + histogram.getPercentile(0.5) + " us, p90 " + histogram.getPercentile(0.9) + " us, p99 " + histogram.getPercentile(0.99) + " us, max " + histogram.getMax() + " us";
+        }
+        return statistics;
+    }
+
+    public String[] getSlowestFiles() {
+        List<FileTime> files = getSortedSlowestFiles();
+        String[] slowest = new String[files.size()];
+        for (int index = 0; index < slowest.length; index++) {
+            FileTime file = files.get(index);
+            slowest[index] = file.time / NANOSECONDS_PER_MILLISECOND + " ms, " + file.nbPages + " page(s), " + file.size + " byte(s) : " + file.path;
+        }
+        return slowest;
+    }
+
+    /**
+     * Get the slowest PDFs.
+     *
+     * @return The slowest PDFs, slowest first.
+     */
+    private List<FileTime> getSortedSlowestFiles() {
+        List<FileTime> files;
+        synchronized (slowestFiles) {
+            files = new ArrayList<FileTime>(slowestFiles);
+        }
+        Collections.sort(files);
+        Collections.reverse(files);
+        return files;
+    }
+
+    /**
+     * Get the size reduction of the compaction.
+     *
+     * @return The bytes saved divided by the original size of the compacted
+     *         streams, 0 if no stream was compacted.
+     */
+    private double getCompactionRatio() {
+        long originalBytes = compactionOriginalBytes.get();
+        return originalBytes == 0 ? 0 : getCompactionSavedBytes() / (double) originalBytes;
+    }
+
+    /**
+     * Escape a string for a JSON document.
+     *
+     * @param value The string.
+     * @return The escaped string, without the surrounding quotes.
+     */
+    static String escape(final String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int index = 0; index < value.length(); index++) {
+            char c = value.charAt(index);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * A latency histogram with power of two buckets.
+     * <p>
+     * Bucket 0 counts the latencies below one microsecond and bucket n the
+     * latencies from 2^(n-1) included to 2^n excluded microseconds, so
+     * recording a latency is a single atomic increment and the percentiles are
+     * accurate within a factor of two.
+     * </p>
+     */
+    private static class LatencyHistogram {
+
+        /**
+         * Record a latency.
+         *
+         * @param latency The latency in nanoseconds.
+         */
+        void record(final long latency) {
+            long micros = latency / NANOSECONDS_PER_MICROSECOND;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(micros));
+            total.addAndGet(latency);
+            long currentMax;
+            while (micros > (currentMax = max.get()) && !max.compareAndSet(currentMax, micros)) {
+                // Another thread recorded a latency meanwhile
+            }
+        }
+
+        long getCount() {
+            long count = 0;
+            for (int bucket = 0; bucket < NB_BUCKETS; bucket++) {
+                count += buckets.get(bucket);
+            }
+            return count;
+        }
+
+        /**
+         * Get the total recorded latency.
+         *
+         * @return The total latency in nanoseconds.
+         */
+        long getTotal() {
+            return total.get();
+        }
+
+        /**
+         * Get the maximum recorded latency.
+         *
+         * @return The maximum latency in microseconds.
+         */
+        long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Get a percentile of the recorded latencies.
+         *
+         * @param fraction The percentile, between 0 and 1.
+         * @return The upper bound in microseconds of the bucket holding the
+         *         percentile, 0 if no latency was recorded.
+         */
+        long getPercentile(final double fraction) {
+            long count = getCount();
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(count * fraction);
+            long cumulated = 0;
+            for (int bucket = 0; bucket < NB_BUCKETS; bucket++) {
+                cumulated += buckets.get(bucket);
+                if (cumulated >= rank) return Math.min(1L << bucket, getMax());
+            }
+            return getMax();
+        }
+
+        static final int NB_BUCKETS = 65;
+        final AtomicLongArray buckets = new AtomicLongArray(NB_BUCKETS);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+    }
+
+    /**
+     * The time spent on a merged PDF.
+     */
+    private static class FileTime implements Comparable<FileTime> {
+
+        FileTime(final String path, final int nbPages, final long size, final long time) {
+            this.path = path;
+            this.nbPages = nbPages;
+            this.size = size;
+            this.time = time;
+        }
+
+        public int compareTo(final FileTime other) {
+            return Long.compare(time, other.time);
+        }
+
+        private final String path;
+        private final int nbPages;
+        private final long size;
+        private final long time;
+    }
+
+    /**
+     * The time the merge started.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * The latency histogram of every phase.
+     */
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+
+    /**
+     * The number of PDFs merged.
+     */
+    private final AtomicLong nbPDFsMerged = new AtomicLong();
+
+    /**
+     * The number of pages merged.
+     */
+    private final AtomicLong nbPagesMerged = new AtomicLong();
+
+    /**
+     * The number of bytes of the merged PDFs.
+     */
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * The number of bytes of merged PDF written.
+     */
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    /**
+     * The number of streams deflated again in compact mode.
+     */
+    private final AtomicLong nbStreamsCompacted = new AtomicLong();
+
+    /**
+     * The number of streams made smaller in compact mode.
+     */
+    private final AtomicLong nbStreamsReduced = new AtomicLong();
+
+    /**
+     * The size of the compacted streams in the input PDFs.
+     */
+    private final AtomicLong compactionOriginalBytes = new AtomicLong();
+
+    /**
+     * The size of the compacted streams in the merged PDF.
+     */
+    private final AtomicLong compactionCompactBytes = new AtomicLong();
+
+    /**
+     * The CPU time spent compacting streams, in nanoseconds.
+     */
+    private final AtomicLong compactionCpuTime = new AtomicLong();
+
+    /**
+     * The slowest PDFs, the fastest of them first.
+     */
+    private final PriorityQueue<FileTime> slowestFiles = new PriorityQueue<FileTime>();
+
+    /**
+     * The name the metrics are registered under, null if not registered.
+     */
+    private ObjectName objectName = null;
+
+    /**
+     * The number of the last job whose metrics were registered.
+     */
+    private static final AtomicInteger JOB_NUMBER = new AtomicInteger();
+
+    private static final int SLOWEST_FILES = 10;
+    private static final long NANOSECONDS_PER_MICROSECOND = 1000L;
+    private static final long NANOSECONDS_PER_MILLISECOND = 1000000L;
+    private static final long NANOSECONDS_PER_SECOND = 1000000000L;
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+    private static final String OBJECT_NAME_PREFIX = "be.speos.pdf.merge:type=MergeMetrics,id=";
+    private static final String REPORT_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+}
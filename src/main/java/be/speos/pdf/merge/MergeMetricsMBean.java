@@ -0,0 +1,94 @@
+package be.speos.pdf.merge;
+
+/**
+ * The management interface of the metrics of a running merge.
+ * <p>
+ * Every running merge registers its metrics on the platform MBean server under
+ * the name 'be.speos.pdf.merge:type=MergeMetrics,id=&lt;job number&gt;', so
+ * that they can be followed from JConsole or any JMX client.
+ * </p>
+ *
+ * @see MergeMetrics
+ */
+public interface MergeMetricsMBean {
+
+    /**
+     * Get the time elapsed since the merge started.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    long getElapsedTime();
+
+    /**
+     * Get the number of PDFs merged so far.
+     *
+     * @return The number of PDFs merged.
+     */
+    long getNbPDFsMerged();
+
+    /**
+     * Get the number of pages merged so far.
+     *
+     * @return The number of pages merged.
+     */
+    long getNbPagesMerged();
+
+    /**
+     * Get the merge throughput.
+     *
+     * @return The number of pages merged per second since the merge started.
+     */
+    double getPagesPerSecond();
+
+    /**
+     * Get the number of bytes of the PDFs opened so far.
+     *
+     * @return The number of bytes read.
+     */
+    long getBytesRead();
+
+    /**
+     * Get the number of bytes of merged PDF written so far.
+     *
+     * @return The number of bytes written.
+     */
+    long getBytesWritten();
+
+    /**
+     * Get the write throughput of the merged PDF files.
+     *
+     * @return The number of MB written per second spent writing the merged PDF
+     *         files.
+     */
+    double getWriteThroughput();
+
+    /**
+     * Get the number of bytes saved by deflating streams again in compact mode.
+     *
+     * @return The number of bytes saved.
+     */
+    long getCompactionSavedBytes();
+
+    /**
+     * Get the CPU time spent deflating streams again in compact mode.
+     *
+     * @return The CPU time in milliseconds.
+     */
+    long getCompactionCpuTime();
+
+    /**
+     * Get the latency statistics of every phase.
+     *
+     * @return One line per phase giving its count, total time and latency
+     *         percentiles.
+     */
+    String[] getPhaseStatistics();
+
+    /**
+     * Get the slowest PDFs merged so far.
+     *
+     * @return One line per PDF giving its time, pages, size and path, slowest
+     *         first.
+     */
+    String[] getSlowestFiles();
+}
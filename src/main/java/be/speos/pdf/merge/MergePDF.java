@@ -1,19 +1,14 @@
 package be.speos.pdf.merge;
 
 // J2SE IO Packages
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.Writer;
 import java.text.SimpleDateFormat;
 
 // J2SE Utilities packages
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Vector;
 
 // Log4J packages
 import org.apache.commons.logging.Log;
@@ -22,14 +17,6 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
-// Itext PDF packages
-import com.itextpdf.text.Document;
-import com.itextpdf.text.pdf.PdfCopy;
-import com.itextpdf.text.pdf.PdfImportedPage;
-import com.itextpdf.text.pdf.PdfReader;
-import com.itextpdf.text.pdf.PdfSmartCopy;
-import com.itextpdf.text.pdf.PdfWriter;
-
 // JSAP Command line parser package
 import com.martiansoftware.jsap.FlaggedOption;
 import com.martiansoftware.jsap.JSAP;
@@ -87,8 +74,6 @@ public class MergePDF {
             Date processStartTime = null;
             Date processEndTime = null;
             long processTime = 0;
-            long nbPDFsProcessed = 0;
-            long nbPagesProcessed = 0;
 
             // Configure Log4J
             System.setProperty(SYSTEM_PROPERTY_DIRECTORY_HOME_KEY, FileSystem.getApplicationDirectory());
@@ -99,13 +84,14 @@ public class MergePDF {
             processStartTime = new Date();
 
             // Load configuration from file
+            SimpleDateFormat dateFormat = new SimpleDateFormat(CONFIG_FLAG_DATE_FORMAT);
             LOG.info("MergePDF started at " + dateFormat.format(processStartTime));
             LOG.info("Java Version : " + System.getProperty(SYSTEM_PROPERTY_JAVA_VERSION_KEY));
             LOG.info("Application directory : " + System.getProperty(SYSTEM_PROPERTY_DIRECTORY_HOME_KEY));
 
             // Load configuration
             LOG.info("Loading configuration...");
-            loadConfiguration(args);
+            MergeRequest mergeRequest = loadConfiguration(args);
             LOG.info("Configuration loaded.");
 
             // Is debugging enabled ?
@@ -117,77 +103,20 @@ public class MergePDF {
                 logApplicationParameters(args);
             }
 
-            // Prepare the directories
-            prepareDirectories();
-
-            // Get the PDF files found in input directory that should be merged into a
-            // single one
-            LOG.debug("Retrieving every PDFs found in '" + inputDirectory + "'...");
-            Vector<String> pdfsToGroup = FileSystem.getFiles(inputDirectory, CONFIG_FLAG_PDF_EXTENSION, commandLineArguments.getBoolean(CONFIG_KEY_INPUT_RECURSIVE_SEARCH));
-
-            // If some PDF files were found
-            if (!pdfsToGroup.isEmpty()) {
-                // Get the first document to be merged
-                String inputPdf = pdfsToGroup.elementAt(0);
-                if (outputDirectoryIsInputDirectory && outputPdfFileNameBasedOnInput) {
-                    // Rename current PDF
-                    FileSystem.renameFile(inputPdf, inputPdf + ".old");
-                    String newInputPdf = inputPdf + ".old";
-                    pdfsToGroup.set(0, newInputPdf);
-                }
-
-                // Create handlers to manager merged PDF file according to configuration
-                String mergedPdfFile = getOutputFilename(inputPdf);
-                Document mergedPdfDocument = new Document();
-                PdfWriter mergedPdfWriter = null;
-                if (mergePdfOptimizingResourcesEnabled) {
-                    mergedPdfWriter = new PdfSmartCopy(mergedPdfDocument, new FileOutputStream(mergedPdfFile));
-                } else {
-                    mergedPdfWriter = new PdfCopy(mergedPdfDocument, new FileOutputStream(mergedPdfFile));
-                }
-                mergedPdfDocument.open();
-
-                // Create a new merge logging file
-                String mergingLoggerFilePath = getLogFilename(mergedPdfFile);
-                File mergingLoggerFile = new File(mergingLoggerFilePath);
-                Writer mergingLoggerWriter = new BufferedWriter(new FileWriter(mergingLoggerFile));
-
-                // For every PDF found in input
-                LOG.info("Merging PDFs files...");
-                for (String currentPdf : pdfsToGroup) {
-
-                    // Add PDF the current group PDF
-                    LOG.debug("Adding '" + currentPdf + "' to '" + mergedPdfFile + "'...");
-                    int nbPagesMerged = mergePDF(currentPdf, mergedPdfWriter, mergedPdfDocument);
-                    mergingLoggerWriter.write(currentPdf + "\t" + Integer.toString(nbPagesMerged) + "\r\n");
-                    mergingLoggerWriter.flush();
-                    LOG.debug("'" + currentPdf + "' added.");
-                    nbPDFsProcessed++;
-                    nbPagesProcessed += nbPagesMerged;
-
-                    // Update progress display if asked
-                    if (commandLineArguments.getBoolean(CONFIG_KEY_DISPLAY_PROGESS) && !commandLineArguments.getBoolean(CONFIG_KEY_LOG_DEBUG)) {
-                        if (nbPDFsProcessed == 0) System.out.println("");
-                        if ((nbPDFsProcessed % 5 == 0) && (nbPDFsProcessed % 10 != 0)) System.out.print("|");
-                        if (nbPDFsProcessed % 10 == 0) System.out.print(nbPDFsProcessed);
-                        else System.out.print(".");
-                    }
+            MergeJob mergeJob = new MergeJob(mergeRequest);
+            if (serverPort > 0) {
+                // Merge the PDFs posted to the merge service until stopped
+                mergeJob.prepareDirectories();
+                mergeJob.openResourceCache();
+                try {
+                    serveMergeRequests(mergeJob);
+                } finally {
+                    mergeJob.closeResourceCache();
                 }
-
-                // Close the merge logging file
-                mergingLoggerWriter.close();
-
-                // Close the current writer and document
-                LOG.debug("Closing '" + mergedPdfFile + "'...");
-                mergedPdfDocument.close();
-                mergedPdfWriter.close();
-                LOG.debug("'" + mergedPdfFile + "' closed.");
-
-                if (commandLineArguments.getBoolean(CONFIG_KEY_DISPLAY_PROGESS) && !commandLineArguments.getBoolean(CONFIG_KEY_LOG_DEBUG))
-                    System.out.println("");
-                LOG.info(pdfsToGroup.size() + " PDF file(s) merged for a total of " + Long.toString(nbPagesProcessed) + " page(s).");
             } else {
-                LOG.info("No PDF file found in '" + inputDirectory + "'.");
+                // Merge every PDF found in the input directory, or arriving in it
+                // until stopped
+                mergeJob.call();
             }
 
             // Log the process time
@@ -216,10 +145,11 @@ public class MergePDF {
      *
      * @param commandLineArgs The arguments list provided in command line when the
      *                        application was started.
+     * @return The merge request built from the configuration.
      * @throws Exception A problem occurred while setting the application
      *                   configuration.
      */
-    private static void loadConfiguration(final String[] commandLineArgs) throws Exception {
+    private MergeRequest loadConfiguration(final String[] commandLineArgs) throws Exception {
         // Initialize command line parameters
         String cmdLineArgs[] = new String[commandLineArgs.length];
         System.arraycopy(commandLineArgs, 0, cmdLineArgs, 0, cmdLineArgs.length);
@@ -258,7 +188,7 @@ public class MergePDF {
         Switch swForward = new Switch(CONFIG_KEY_DISPLAY_PROGESS);
         swForward.setShortFlag('f');
         swForward.setLongFlag("forward");
-        swForward.setHelp("Display application progression on screen (By default OFF) \n(" + CONFIG_KEY_DISPLAY_PROGESS + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swForward.setHelp("Display application progression on screen : PDFs and pages merged, files, pages and MB per second, and the remaining time when the pre-flight scan is enabled (By default OFF) \n(" + CONFIG_KEY_DISPLAY_PROGESS + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
         swForward.setDefault("false");
         if (config.containsKey(CONFIG_KEY_DISPLAY_PROGESS)) {
             if (((String) config.get(CONFIG_KEY_DISPLAY_PROGESS)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
@@ -267,6 +197,23 @@ public class MergePDF {
         }
         cmdLineInterpreter.registerParameter(swForward);
 
+        // Add the progress display interval option
+        int defaultProgressInterval = CONFIG_FLAG_PROGRESS_INTERVAL_SECONDS;
+        if (config.containsKey(CONFIG_KEY_DISPLAY_PROGESS_INTERVAL)) {
+            if (!((String) config.get(CONFIG_KEY_DISPLAY_PROGESS_INTERVAL)).isEmpty()) {
+                defaultProgressInterval = Integer.parseInt((String) config.get(CONFIG_KEY_DISPLAY_PROGESS_INTERVAL));
+            }
+        }
+        FlaggedOption foProgressInterval = new FlaggedOption(CONFIG_KEY_DISPLAY_PROGESS_INTERVAL);
+        foProgressInterval.setShortFlag(JSAP.NO_SHORTFLAG);
+        foProgressInterval.setLongFlag("progressinterval");
+        foProgressInterval.setUsageName("Progress interval in seconds");
+        foProgressInterval.setHelp("Number of seconds between two displays of the progression. Default is '" + Integer.toString(defaultProgressInterval) + "'. \n(" + CONFIG_KEY_DISPLAY_PROGESS_INTERVAL + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foProgressInterval.setStringParser(JSAP.INTEGER_PARSER);
+        foProgressInterval.setRequired(false);
+        foProgressInterval.setDefault(Integer.toString(defaultProgressInterval));
+        cmdLineInterpreter.registerParameter(foProgressInterval);
+
         // Add the recursive directory parsing flag
         Switch swDepth = new Switch(CONFIG_KEY_INPUT_RECURSIVE_SEARCH);
         swDepth.setShortFlag('d');
@@ -280,6 +227,79 @@ public class MergePDF {
         }
         cmdLineInterpreter.registerParameter(swDepth);
 
+        // Add the streaming directory enumeration flag
+        Switch swStreaming = new Switch(CONFIG_KEY_INPUT_STREAMING);
+        swStreaming.setShortFlag(JSAP.NO_SHORTFLAG);
+        swStreaming.setLongFlag("stream");
+        swStreaming.setHelp("PDFs will be merged while the input directory is still being read instead of once every PDF has been found (By default OFF). \n(" + CONFIG_KEY_INPUT_STREAMING + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swStreaming.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_INPUT_STREAMING)) {
+            if (((String) config.get(CONFIG_KEY_INPUT_STREAMING)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swStreaming.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swStreaming);
+
+        // Add the sorted directory enumeration flag
+        Switch swSorted = new Switch(CONFIG_KEY_INPUT_SORTED);
+        swSorted.setShortFlag(JSAP.NO_SHORTFLAG);
+        swSorted.setLongFlag("sorted");
+        swSorted.setHelp("When PDFs are merged while the input directory is being read, the entries of every directory will be sorted by name so that the merge order is reproducible (By default OFF). \n(" + CONFIG_KEY_INPUT_SORTED + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swSorted.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_INPUT_SORTED)) {
+            if (((String) config.get(CONFIG_KEY_INPUT_SORTED)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swSorted.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swSorted);
+
+        // Add the input list option
+        FlaggedOption foInputList = new FlaggedOption(CONFIG_KEY_INPUT_LIST);
+        foInputList.setShortFlag(JSAP.NO_SHORTFLAG);
+        foInputList.setLongFlag("inputlist");
+        foInputList.setUsageName("Input list file");
+        foInputList.setHelp("File listing the PDFs to merge instead of the PDFs of the input directory, one path per line, optionally followed by a tabulation and the pages to merge such as '1' or '2-5,7-'. Relative paths are read from the input directory. The list is read while the PDFs are merged. \n(" + CONFIG_KEY_INPUT_LIST + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foInputList.setStringParser(JSAP.STRING_PARSER);
+        foInputList.setRequired(false);
+        if (config.containsKey(CONFIG_KEY_INPUT_LIST)) {
+            if (!((String) config.get(CONFIG_KEY_INPUT_LIST)).isEmpty()) {
+                foInputList.setDefault((String) config.get(CONFIG_KEY_INPUT_LIST));
+            }
+        }
+        cmdLineInterpreter.registerParameter(foInputList);
+
+        // Add the input order option
+        String defaultInputOrder = CONFIG_FLAG_INPUT_ORDER;
+        if (config.containsKey(CONFIG_KEY_INPUT_ORDER)) {
+            if (!((String) config.get(CONFIG_KEY_INPUT_ORDER)).isEmpty()) {
+                defaultInputOrder = (String) config.get(CONFIG_KEY_INPUT_ORDER);
+            }
+        }
+        FlaggedOption foInputOrder = new FlaggedOption(CONFIG_KEY_INPUT_ORDER);
+        foInputOrder.setShortFlag(JSAP.NO_SHORTFLAG);
+        foInputOrder.setLongFlag("order");
+        foInputOrder.setUsageName("listed, name, natural, mtime or size");
+        foInputOrder.setHelp("Order the PDFs are merged in : 'listed' as listed in the input list or found in the input directory, 'name' by path, 'natural' by path with numbers compared by value (file_9 before file_10), 'mtime' by modification time, 'size' by size. Can not be combined with streaming. Default is '" + defaultInputOrder + "'. \n(" + CONFIG_KEY_INPUT_ORDER + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foInputOrder.setStringParser(JSAP.STRING_PARSER);
+        foInputOrder.setRequired(false);
+        foInputOrder.setDefault(defaultInputOrder);
+        cmdLineInterpreter.registerParameter(foInputOrder);
+
+        // Add the input pages option
+        FlaggedOption foInputPages = new FlaggedOption(CONFIG_KEY_INPUT_PAGES);
+        foInputPages.setShortFlag(JSAP.NO_SHORTFLAG);
+        foInputPages.setLongFlag("pages");
+        foInputPages.setUsageName("Page selection");
+        foInputPages.setHelp("Pages of every input PDF to merge, such as '1' for the first page, '2-' from the second page to the last one or '1,3-5'. The pages given by the input list prevail. Only the selected pages are read. By default, every page is merged. \n(" + CONFIG_KEY_INPUT_PAGES + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foInputPages.setStringParser(JSAP.STRING_PARSER);
+        foInputPages.setRequired(false);
+        if (config.containsKey(CONFIG_KEY_INPUT_PAGES)) {
+            if (!((String) config.get(CONFIG_KEY_INPUT_PAGES)).isEmpty()) {
+                foInputPages.setDefault((String) config.get(CONFIG_KEY_INPUT_PAGES));
+            }
+        }
+        cmdLineInterpreter.registerParameter(foInputPages);
+
         // Add the PDF merging resources optimization flag
         Switch swPdfOptimzing = new Switch(CONFIG_KEY_MERGE_PDF_RESOURCES_OPTIMIZING);
         swPdfOptimzing.setShortFlag('z');
@@ -293,6 +313,546 @@ public class MergePDF {
         }
         cmdLineInterpreter.registerParameter(swPdfOptimzing);
 
+        // Add the resource fingerprint index option
+        FlaggedOption foResCache = new FlaggedOption(CONFIG_KEY_MERGE_PDF_RES_CACHE);
+        foResCache.setShortFlag(JSAP.NO_SHORTFLAG);
+        foResCache.setLongFlag("rescache");
+        foResCache.setUsageName("Resource fingerprint index file");
+        foResCache.setHelp("File keeping, from one run to the other, the fingerprints of the resources met when resources usage is optimized. The fingerprints of unchanged input PDFs are not computed again. \n(" + CONFIG_KEY_MERGE_PDF_RES_CACHE + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foResCache.setStringParser(JSAP.STRING_PARSER);
+        foResCache.setRequired(false);
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_RES_CACHE)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_RES_CACHE)).isEmpty()) {
+                foResCache.setDefault((String) config.get(CONFIG_KEY_MERGE_PDF_RES_CACHE));
+            }
+        }
+        cmdLineInterpreter.registerParameter(foResCache);
+
+        // Add the resource fingerprint index maximum age option
+        int defaultResCacheMaxAge = CONFIG_FLAG_RES_CACHE_MAX_AGE_DAYS;
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_AGE)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_AGE)).isEmpty()) {
+                defaultResCacheMaxAge = Integer.parseInt((String) config.get(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_AGE));
+            }
+        }
+        FlaggedOption foResCacheMaxAge = new FlaggedOption(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_AGE);
+        foResCacheMaxAge.setShortFlag(JSAP.NO_SHORTFLAG);
+        foResCacheMaxAge.setLongFlag("rescachemaxage");
+        foResCacheMaxAge.setUsageName("Maximum age in days");
+        foResCacheMaxAge.setHelp("Number of days after which a fingerprint not used is removed from the resource fingerprint index. 0 keeps fingerprints regardless of their age. Default is '" + Integer.toString(defaultResCacheMaxAge) + "'. \n(" + CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_AGE + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foResCacheMaxAge.setStringParser(JSAP.INTEGER_PARSER);
+        foResCacheMaxAge.setRequired(false);
+        foResCacheMaxAge.setDefault(Integer.toString(defaultResCacheMaxAge));
+        cmdLineInterpreter.registerParameter(foResCacheMaxAge);
+
+        // Add the resource fingerprint index maximum size option
+        int defaultResCacheMaxEntries = CONFIG_FLAG_RES_CACHE_MAX_ENTRIES;
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_ENTRIES)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_ENTRIES)).isEmpty()) {
+                defaultResCacheMaxEntries = Integer.parseInt((String) config.get(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_ENTRIES));
+            }
+        }
+        FlaggedOption foResCacheMaxEntries = new FlaggedOption(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_ENTRIES);
+        foResCacheMaxEntries.setShortFlag(JSAP.NO_SHORTFLAG);
+        foResCacheMaxEntries.setLongFlag("rescachemaxentries");
+        foResCacheMaxEntries.setUsageName("Maximum number of entries");
+        foResCacheMaxEntries.setHelp("Maximum number of entries kept in the resource fingerprint index. The least recently used ones are removed first. Default is '" + Integer.toString(defaultResCacheMaxEntries) + "'. \n(" + CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_ENTRIES + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foResCacheMaxEntries.setStringParser(JSAP.INTEGER_PARSER);
+        foResCacheMaxEntries.setRequired(false);
+        foResCacheMaxEntries.setDefault(Integer.toString(defaultResCacheMaxEntries));
+        cmdLineInterpreter.registerParameter(foResCacheMaxEntries);
+
+        // Add the resource table size option
+        int defaultResTable = CONFIG_FLAG_RES_TABLE_MB;
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_RES_TABLE)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_RES_TABLE)).isEmpty()) {
+                defaultResTable = Integer.parseInt((String) config.get(CONFIG_KEY_MERGE_PDF_RES_TABLE));
+            }
+        }
+        FlaggedOption foResTable = new FlaggedOption(CONFIG_KEY_MERGE_PDF_RES_TABLE);
+        foResTable.setShortFlag(JSAP.NO_SHORTFLAG);
+        foResTable.setLongFlag("restable");
+        foResTable.setUsageName("Resource table size in MB");
+        foResTable.setHelp("Memory used by the table of the resources copied into every merged PDF when resources usage is optimized, in MB (24 bytes per resource). Once it is full, the resources met least recently are copied again if they are met later. Default is '" + Integer.toString(defaultResTable) + "'. \n(" + CONFIG_KEY_MERGE_PDF_RES_TABLE + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foResTable.setStringParser(JSAP.INTEGER_PARSER);
+        foResTable.setRequired(false);
+        foResTable.setDefault(Integer.toString(defaultResTable));
+        cmdLineInterpreter.registerParameter(foResTable);
+
+        // Add the off-heap resource table flag
+        Switch swResTableOffHeap = new Switch(CONFIG_KEY_MERGE_PDF_RES_TABLE_OFFHEAP);
+        swResTableOffHeap.setShortFlag(JSAP.NO_SHORTFLAG);
+        swResTableOffHeap.setLongFlag("restableoffheap");
+        swResTableOffHeap.setHelp("The table of the copied resources is allocated outside of the heap, which it then does not load (By default OFF). \n(" + CONFIG_KEY_MERGE_PDF_RES_TABLE_OFFHEAP + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swResTableOffHeap.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_RES_TABLE_OFFHEAP)) {
+            if (((String) config.get(CONFIG_KEY_MERGE_PDF_RES_TABLE_OFFHEAP)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swResTableOffHeap.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swResTableOffHeap);
+
+        // Add the pre-flight scan flag
+        Switch swPreflight = new Switch(CONFIG_KEY_MERGE_PDF_PREFLIGHT);
+        swPreflight.setShortFlag(JSAP.NO_SHORTFLAG);
+        swPreflight.setLongFlag("preflight");
+        swPreflight.setHelp("The page count of every input PDF is read from its page tree before anything is merged, without parsing its pages. The totals are logged and the merge fails at once if a PDF can not be read. Always done with shards (By default OFF). \n(" + CONFIG_KEY_MERGE_PDF_PREFLIGHT + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swPreflight.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_PREFLIGHT)) {
+            if (((String) config.get(CONFIG_KEY_MERGE_PDF_PREFLIGHT)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swPreflight.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swPreflight);
+
+        // Add the pre-flight index option
+        FlaggedOption foPreflightIndex = new FlaggedOption(CONFIG_KEY_MERGE_PDF_PREFLIGHT_INDEX);
+        foPreflightIndex.setShortFlag(JSAP.NO_SHORTFLAG);
+        foPreflightIndex.setLongFlag("preflightindex");
+        foPreflightIndex.setUsageName("Pre-flight index file");
+        foPreflightIndex.setHelp("File keeping, from one run to the other, the page counts read by the pre-flight scan. Unchanged input PDFs are not opened again. \n(" + CONFIG_KEY_MERGE_PDF_PREFLIGHT_INDEX + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foPreflightIndex.setStringParser(JSAP.STRING_PARSER);
+        foPreflightIndex.setRequired(false);
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_PREFLIGHT_INDEX)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_PREFLIGHT_INDEX)).isEmpty()) {
+                foPreflightIndex.setDefault((String) config.get(CONFIG_KEY_MERGE_PDF_PREFLIGHT_INDEX));
+            }
+        }
+        cmdLineInterpreter.registerParameter(foPreflightIndex);
+
+        // Add the number of pre-flight threads option
+        int defaultPreflightThreads = Runtime.getRuntime().availableProcessors();
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_PREFLIGHT_THREADS)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_PREFLIGHT_THREADS)).isEmpty()) {
+                defaultPreflightThreads = Integer.parseInt((String) config.get(CONFIG_KEY_MERGE_PDF_PREFLIGHT_THREADS));
+            }
+        }
+        FlaggedOption foPreflightThreads = new FlaggedOption(CONFIG_KEY_MERGE_PDF_PREFLIGHT_THREADS);
+        foPreflightThreads.setShortFlag(JSAP.NO_SHORTFLAG);
+        foPreflightThreads.setLongFlag("preflightthreads");
+        foPreflightThreads.setUsageName("Number of pre-flight threads");
+        foPreflightThreads.setHelp("Number of input PDFs read concurrently by the pre-flight scan. Default is '" + Integer.toString(defaultPreflightThreads) + "'. \n(" + CONFIG_KEY_MERGE_PDF_PREFLIGHT_THREADS + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foPreflightThreads.setStringParser(JSAP.INTEGER_PARSER);
+        foPreflightThreads.setRequired(false);
+        foPreflightThreads.setDefault(Integer.toString(defaultPreflightThreads));
+        cmdLineInterpreter.registerParameter(foPreflightThreads);
+
+        // Add the one merged PDF per group flag
+        Switch swGrouping = new Switch(CONFIG_KEY_OUTPUT_PDF_GROUPING);
+        swGrouping.setShortFlag('g');
+        swGrouping.setLongFlag("group");
+        swGrouping.setHelp("One merged PDF and one log file will be written per group of input PDFs sharing the same extracted or split file name part (By default OFF). \n(" + CONFIG_KEY_OUTPUT_PDF_GROUPING + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swGrouping.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_GROUPING)) {
+            if (((String) config.get(CONFIG_KEY_OUTPUT_PDF_GROUPING)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swGrouping.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swGrouping);
+
+        // Add the number of groups merged concurrently option
+        int defaultGroupingThreads = Runtime.getRuntime().availableProcessors();
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_GROUPING_THREADS)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_GROUPING_THREADS)).isEmpty()) {
+                defaultGroupingThreads = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_GROUPING_THREADS));
+            }
+        }
+        FlaggedOption foGroupingThreads = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_GROUPING_THREADS);
+        foGroupingThreads.setShortFlag(JSAP.NO_SHORTFLAG);
+        foGroupingThreads.setLongFlag("groupthreads");
+        foGroupingThreads.setUsageName("Number of group threads");
+        foGroupingThreads.setHelp("Number of groups merged concurrently when one merged PDF is written per group. Default is '" + Integer.toString(defaultGroupingThreads) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_GROUPING_THREADS + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foGroupingThreads.setStringParser(JSAP.INTEGER_PARSER);
+        foGroupingThreads.setRequired(false);
+        foGroupingThreads.setDefault(Integer.toString(defaultGroupingThreads));
+        cmdLineInterpreter.registerParameter(foGroupingThreads);
+
+        // Add the merged PDF rollover page threshold option
+        int defaultRolloverPages = 0;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_PAGES)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_PAGES)).isEmpty()) {
+                defaultRolloverPages = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_PAGES));
+            }
+        }
+        FlaggedOption foRolloverPages = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_PAGES);
+        foRolloverPages.setShortFlag(JSAP.NO_SHORTFLAG);
+        foRolloverPages.setLongFlag("rolloverpages");
+        foRolloverPages.setUsageName("Pages per part");
+        foRolloverPages.setHelp("Number of pages after which the merged PDF is closed and the next PDFs are merged into a new numbered part (name_0001.pdf, name_0002.pdf, ...). 0 disables the page threshold. Default is '" + Integer.toString(defaultRolloverPages) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_ROLLOVER_PAGES + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foRolloverPages.setStringParser(JSAP.INTEGER_PARSER);
+        foRolloverPages.setRequired(false);
+        foRolloverPages.setDefault(Integer.toString(defaultRolloverPages));
+        cmdLineInterpreter.registerParameter(foRolloverPages);
+
+        // Add the merged PDF rollover size threshold option
+        int defaultRolloverSize = 0;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_SIZE)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_SIZE)).isEmpty()) {
+                defaultRolloverSize = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_SIZE));
+            }
+        }
+        FlaggedOption foRolloverSize = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_SIZE);
+        foRolloverSize.setShortFlag(JSAP.NO_SHORTFLAG);
+        foRolloverSize.setLongFlag("rolloversize");
+        foRolloverSize.setUsageName("Part size in MB");
+        foRolloverSize.setHelp("Size in MB after which the merged PDF is closed and the next PDFs are merged into a new numbered part (name_0001.pdf, name_0002.pdf, ...). 0 disables the size threshold. Default is '" + Integer.toString(defaultRolloverSize) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_ROLLOVER_SIZE + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foRolloverSize.setStringParser(JSAP.INTEGER_PARSER);
+        foRolloverSize.setRequired(false);
+        foRolloverSize.setDefault(Integer.toString(defaultRolloverSize));
+        cmdLineInterpreter.registerParameter(foRolloverSize);
+
+        // Add the number of merged PDF shards option
+        int defaultShards = 1;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_SHARDS)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_SHARDS)).isEmpty()) {
+                defaultShards = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_SHARDS));
+            }
+        }
+        FlaggedOption foShards = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_SHARDS);
+        foShards.setShortFlag(JSAP.NO_SHORTFLAG);
+        foShards.setLongFlag("shards");
+        foShards.setUsageName("Number of shards");
+        foShards.setHelp("Number of page balanced parts (name_0001.pdf, name_0002.pdf, ...) the input PDFs are split into, keeping their order, and merged concurrently. Pages of every input PDF are counted first by the pre-flight scan. 1 writes a single merged PDF. Default is '" + Integer.toString(defaultShards) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_SHARDS + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foShards.setStringParser(JSAP.INTEGER_PARSER);
+        foShards.setRequired(false);
+        foShards.setDefault(Integer.toString(defaultShards));
+        cmdLineInterpreter.registerParameter(foShards);
+
+        // Add the tree merge fan-in option
+        int defaultTreeFanIn = 0;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_TREE_FANIN)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_TREE_FANIN)).isEmpty()) {
+                defaultTreeFanIn = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_TREE_FANIN));
+            }
+        }
+        FlaggedOption foTreeFanIn = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_TREE_FANIN);
+        foTreeFanIn.setShortFlag(JSAP.NO_SHORTFLAG);
+        foTreeFanIn.setLongFlag("treefanin");
+        foTreeFanIn.setUsageName("Tree merge fan-in");
+        foTreeFanIn.setHelp("Number of PDFs merged into every intermediate PDF of a tree merge : chunks of input PDFs are merged concurrently into intermediate PDFs, merged the same way level after level, and at most this number of intermediate PDFs are merged into the merged PDF. 0 disables the tree merge. Default is '" + Integer.toString(defaultTreeFanIn) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_TREE_FANIN + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foTreeFanIn.setStringParser(JSAP.INTEGER_PARSER);
+        foTreeFanIn.setRequired(false);
+        foTreeFanIn.setDefault(Integer.toString(defaultTreeFanIn));
+        cmdLineInterpreter.registerParameter(foTreeFanIn);
+
+        // Add the number of tree merge threads option
+        int defaultTreeThreads = Runtime.getRuntime().availableProcessors();
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_TREE_THREADS)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_TREE_THREADS)).isEmpty()) {
+                defaultTreeThreads = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_TREE_THREADS));
+            }
+        }
+        FlaggedOption foTreeThreads = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_TREE_THREADS);
+        foTreeThreads.setShortFlag(JSAP.NO_SHORTFLAG);
+        foTreeThreads.setLongFlag("treethreads");
+        foTreeThreads.setUsageName("Number of tree merge threads");
+        foTreeThreads.setHelp("Number of intermediate PDFs of a tree merge written concurrently. Default is '" + Integer.toString(defaultTreeThreads) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_TREE_THREADS + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foTreeThreads.setStringParser(JSAP.INTEGER_PARSER);
+        foTreeThreads.setRequired(false);
+        foTreeThreads.setDefault(Integer.toString(defaultTreeThreads));
+        cmdLineInterpreter.registerParameter(foTreeThreads);
+
+        // Add the tree merge temporary space limit option
+        int defaultTreeTempLimit = 0;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_TREE_TEMP_LIMIT)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_TREE_TEMP_LIMIT)).isEmpty()) {
+                defaultTreeTempLimit = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_TREE_TEMP_LIMIT));
+            }
+        }
+        FlaggedOption foTreeTempLimit = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_TREE_TEMP_LIMIT);
+        foTreeTempLimit.setShortFlag(JSAP.NO_SHORTFLAG);
+        foTreeTempLimit.setLongFlag("treetemplimit");
+        foTreeTempLimit.setUsageName("Temporary space in MB");
+        foTreeTempLimit.setHelp("Size in MB the intermediate PDFs of a tree merge may take on disk at the same time. The merge fails once it is exceeded. 0 disables the limit. Default is '" + Integer.toString(defaultTreeTempLimit) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_TREE_TEMP_LIMIT + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foTreeTempLimit.setStringParser(JSAP.INTEGER_PARSER);
+        foTreeTempLimit.setRequired(false);
+        foTreeTempLimit.setDefault(Integer.toString(defaultTreeTempLimit));
+        cmdLineInterpreter.registerParameter(foTreeTempLimit);
+
+        // Add the append to existing merged PDF flag
+        Switch swAppend = new Switch(CONFIG_KEY_OUTPUT_PDF_APPEND);
+        swAppend.setShortFlag(JSAP.NO_SHORTFLAG);
+        swAppend.setLongFlag("append");
+        swAppend.setHelp("If the merged PDF and its log file already exist, only the PDFs not listed in the log file are added at the end of the merged PDF, as an incremental update. The existing content is not written again, but is still read once (By default OFF). \n(" + CONFIG_KEY_OUTPUT_PDF_APPEND + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swAppend.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_APPEND)) {
+            if (((String) config.get(CONFIG_KEY_OUTPUT_PDF_APPEND)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swAppend.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swAppend);
+
+        // Add the number of PDFs per checkpoint option
+        int defaultCheckpointFiles = 0;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_CHECKPOINT)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_CHECKPOINT)).isEmpty()) {
+                defaultCheckpointFiles = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_CHECKPOINT));
+            }
+        }
+        FlaggedOption foCheckpoint = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_CHECKPOINT);
+        foCheckpoint.setShortFlag(JSAP.NO_SHORTFLAG);
+        foCheckpoint.setLongFlag("checkpoint");
+        foCheckpoint.setUsageName("PDFs per checkpoint");
+        foCheckpoint.setHelp("Number of input PDFs merged into a segment committed to disk before the next one is started. An interrupted merge can then be resumed after its last committed segment. 0 disables checkpoints. Default is '" + Integer.toString(defaultCheckpointFiles) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_CHECKPOINT + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foCheckpoint.setStringParser(JSAP.INTEGER_PARSER);
+        foCheckpoint.setRequired(false);
+        foCheckpoint.setDefault(Integer.toString(defaultCheckpointFiles));
+        cmdLineInterpreter.registerParameter(foCheckpoint);
+
+        // Add the resume flag
+        Switch swResume = new Switch(CONFIG_KEY_OUTPUT_PDF_RESUME);
+        swResume.setShortFlag(JSAP.NO_SHORTFLAG);
+        swResume.setLongFlag("resume");
+        swResume.setHelp("An interrupted checkpointed merge is resumed after its last committed segment : the PDFs already committed are skipped (By default OFF). \n(" + CONFIG_KEY_OUTPUT_PDF_RESUME + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swResume.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_RESUME)) {
+            if (((String) config.get(CONFIG_KEY_OUTPUT_PDF_RESUME)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swResume.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swResume);
+
+        // Add the merged PDF output buffer option
+        int defaultOutputBuffer = CONFIG_FLAG_OUTPUT_BUFFER_KB;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_BUFFER)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_BUFFER)).isEmpty()) {
+                defaultOutputBuffer = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_BUFFER));
+            }
+        }
+        FlaggedOption foOutputBuffer = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_BUFFER);
+        foOutputBuffer.setShortFlag(JSAP.NO_SHORTFLAG);
+        foOutputBuffer.setLongFlag("outputbuffer");
+        foOutputBuffer.setUsageName("Output buffer in KB");
+        foOutputBuffer.setHelp("Size in KB of the buffer the merged PDF is written through. Default is '" + Integer.toString(defaultOutputBuffer) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_BUFFER + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foOutputBuffer.setStringParser(JSAP.INTEGER_PARSER);
+        foOutputBuffer.setRequired(false);
+        foOutputBuffer.setDefault(Integer.toString(defaultOutputBuffer));
+        cmdLineInterpreter.registerParameter(foOutputBuffer);
+
+        // Add the merged PDF synchronization policy option
+        String defaultOutputSync = CONFIG_FLAG_OUTPUT_SYNC;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_SYNC)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_SYNC)).isEmpty()) {
+                defaultOutputSync = (String) config.get(CONFIG_KEY_OUTPUT_PDF_SYNC);
+            }
+        }
+        FlaggedOption foOutputSync = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_SYNC);
+        foOutputSync.setShortFlag(JSAP.NO_SHORTFLAG);
+        foOutputSync.setLongFlag("outputsync");
+        foOutputSync.setUsageName("none, data or full");
+        foOutputSync.setHelp("When the merged PDF is forced to disk before it is renamed to its final name : 'none' never, 'data' its content, 'full' its content, its metadata and its directory. Default is '" + defaultOutputSync + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_SYNC + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foOutputSync.setStringParser(JSAP.STRING_PARSER);
+        foOutputSync.setRequired(false);
+        foOutputSync.setDefault(defaultOutputSync);
+        cmdLineInterpreter.registerParameter(foOutputSync);
+
+        // Add the compact merged PDF flag
+        Switch swCompact = new Switch(CONFIG_KEY_OUTPUT_PDF_COMPACT);
+        swCompact.setShortFlag(JSAP.NO_SHORTFLAG);
+        swCompact.setLongFlag("compact");
+        swCompact.setHelp("The merged PDF is written in compact mode : its cross reference and objects are written as compressed streams, and the streams not or poorly compressed are deflated again. Smaller files for more CPU time. Ignored when appending (By default OFF). \n(" + CONFIG_KEY_OUTPUT_PDF_COMPACT + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swCompact.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_COMPACT)) {
+            if (((String) config.get(CONFIG_KEY_OUTPUT_PDF_COMPACT)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swCompact.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swCompact);
+
+        // Add the compact mode compression level option
+        int defaultCompactLevel = CONFIG_FLAG_COMPACT_LEVEL;
+        if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_COMPACT_LEVEL)) {
+            if (!((String) config.get(CONFIG_KEY_OUTPUT_PDF_COMPACT_LEVEL)).isEmpty()) {
+                defaultCompactLevel = Integer.parseInt((String) config.get(CONFIG_KEY_OUTPUT_PDF_COMPACT_LEVEL));
+            }
+        }
+        FlaggedOption foCompactLevel = new FlaggedOption(CONFIG_KEY_OUTPUT_PDF_COMPACT_LEVEL);
+        foCompactLevel.setShortFlag(JSAP.NO_SHORTFLAG);
+        foCompactLevel.setLongFlag("compactlevel");
+        foCompactLevel.setUsageName("Compression level");
+        foCompactLevel.setHelp("Compression level of the compact mode, from 1 (fastest) to 9 (smallest). Default is '" + Integer.toString(defaultCompactLevel) + "'. \n(" + CONFIG_KEY_OUTPUT_PDF_COMPACT_LEVEL + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foCompactLevel.setStringParser(JSAP.INTEGER_PARSER);
+        foCompactLevel.setRequired(false);
+        foCompactLevel.setDefault(Integer.toString(defaultCompactLevel));
+        cmdLineInterpreter.registerParameter(foCompactLevel);
+
+        // Add the low memory input flag
+        Switch swLowMemory = new Switch(CONFIG_KEY_MERGE_PDF_LOW_MEMORY);
+        swLowMemory.setShortFlag(JSAP.NO_SHORTFLAG);
+        swLowMemory.setLongFlag("lowmemory");
+        swLowMemory.setHelp("PDFs will be read partially : only the objects needed by a page are read, when the page is merged. Less memory used - More disk accesses (By default OFF). \n(" + CONFIG_KEY_MERGE_PDF_LOW_MEMORY + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swLowMemory.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_LOW_MEMORY)) {
+            if (((String) config.get(CONFIG_KEY_MERGE_PDF_LOW_MEMORY)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swLowMemory.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swLowMemory);
+
+        // Add the memory map window option
+        int defaultMapWindow = CONFIG_FLAG_MAP_WINDOW_MB;
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_MAP_WINDOW)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_MAP_WINDOW)).isEmpty()) {
+                defaultMapWindow = Integer.parseInt((String) config.get(CONFIG_KEY_MERGE_PDF_MAP_WINDOW));
+            }
+        }
+        FlaggedOption foMapWindow = new FlaggedOption(CONFIG_KEY_MERGE_PDF_MAP_WINDOW);
+        foMapWindow.setShortFlag(JSAP.NO_SHORTFLAG);
+        foMapWindow.setLongFlag("mapwindow");
+        foMapWindow.setUsageName("Map window in MB");
+        foMapWindow.setHelp("In low memory mode, size in MB of the largest PDF read through a memory mapped file. Larger PDFs are read through positioned reads. 0 disables memory mapping. Default is '" + Integer.toString(defaultMapWindow) + "'. \n(" + CONFIG_KEY_MERGE_PDF_MAP_WINDOW + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foMapWindow.setStringParser(JSAP.INTEGER_PARSER);
+        foMapWindow.setRequired(false);
+        foMapWindow.setDefault(Integer.toString(defaultMapWindow));
+        cmdLineInterpreter.registerParameter(foMapWindow);
+
+        // Add the number of threads opening PDFs ahead of the writer option
+        int defaultPrefetchThreads = 0;
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_PREFETCH_THREADS)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_PREFETCH_THREADS)).isEmpty()) {
+                defaultPrefetchThreads = Integer.parseInt((String) config.get(CONFIG_KEY_MERGE_PDF_PREFETCH_THREADS));
+            }
+        }
+        FlaggedOption foPrefetchThreads = new FlaggedOption(CONFIG_KEY_MERGE_PDF_PREFETCH_THREADS);
+        foPrefetchThreads.setShortFlag(JSAP.NO_SHORTFLAG);
+        foPrefetchThreads.setLongFlag("prefetchthreads");
+        foPrefetchThreads.setUsageName("Number of prefetch threads");
+        foPrefetchThreads.setHelp("Number of threads opening and parsing the next PDFs while the current one is being merged. 0 disables prefetching. Default is '" + Integer.toString(defaultPrefetchThreads) + "'. \n(" + CONFIG_KEY_MERGE_PDF_PREFETCH_THREADS + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foPrefetchThreads.setStringParser(JSAP.INTEGER_PARSER);
+        foPrefetchThreads.setRequired(false);
+        foPrefetchThreads.setDefault(Integer.toString(defaultPrefetchThreads));
+        cmdLineInterpreter.registerParameter(foPrefetchThreads);
+
+        // Add the number of PDFs opened ahead of the writer option
+        int defaultPrefetchDepth = CONFIG_FLAG_PREFETCH_DEPTH;
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_PREFETCH_DEPTH)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_PREFETCH_DEPTH)).isEmpty()) {
+                defaultPrefetchDepth = Integer.parseInt((String) config.get(CONFIG_KEY_MERGE_PDF_PREFETCH_DEPTH));
+            }
+        }
+        FlaggedOption foPrefetchDepth = new FlaggedOption(CONFIG_KEY_MERGE_PDF_PREFETCH_DEPTH);
+        foPrefetchDepth.setShortFlag(JSAP.NO_SHORTFLAG);
+        foPrefetchDepth.setLongFlag("prefetchdepth");
+        foPrefetchDepth.setUsageName("Number of prefetched PDFs");
+        foPrefetchDepth.setHelp("Maximum number of PDFs opened ahead of the one being merged. Bounds the memory used by prefetching. Default is '" + Integer.toString(defaultPrefetchDepth) + "'. \n(" + CONFIG_KEY_MERGE_PDF_PREFETCH_DEPTH + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foPrefetchDepth.setStringParser(JSAP.INTEGER_PARSER);
+        foPrefetchDepth.setRequired(false);
+        foPrefetchDepth.setDefault(Integer.toString(defaultPrefetchDepth));
+        cmdLineInterpreter.registerParameter(foPrefetchDepth);
+
+        // Add the memory budget option
+        int defaultMemoryBudget = CONFIG_FLAG_MEMORY_BUDGET_MB;
+        if (config.containsKey(CONFIG_KEY_MERGE_PDF_MEMORY_BUDGET)) {
+            if (!((String) config.get(CONFIG_KEY_MERGE_PDF_MEMORY_BUDGET)).isEmpty()) {
+                defaultMemoryBudget = Integer.parseInt((String) config.get(CONFIG_KEY_MERGE_PDF_MEMORY_BUDGET));
+            }
+        }
+        FlaggedOption foMemoryBudget = new FlaggedOption(CONFIG_KEY_MERGE_PDF_MEMORY_BUDGET);
+        foMemoryBudget.setShortFlag(JSAP.NO_SHORTFLAG);
+        foMemoryBudget.setLongFlag("memorybudget");
+        foMemoryBudget.setUsageName("Memory budget in MB");
+        foMemoryBudget.setHelp("Heap the merge should not exceed, in MB. From three quarters of the budget, PDFs are read partially and prefetching is limited to the next PDF. Once the budget is reached, resources are no longer optimized. 0 disables the adaptation. Default is '" + Integer.toString(defaultMemoryBudget) + "'. \n(" + CONFIG_KEY_MERGE_PDF_MEMORY_BUDGET + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foMemoryBudget.setStringParser(JSAP.INTEGER_PARSER);
+        foMemoryBudget.setRequired(false);
+        foMemoryBudget.setDefault(Integer.toString(defaultMemoryBudget));
+        cmdLineInterpreter.registerParameter(foMemoryBudget);
+
+        // Add the watch folder flag
+        Switch swWatch = new Switch(CONFIG_KEY_INPUT_WATCH);
+        swWatch.setShortFlag(JSAP.NO_SHORTFLAG);
+        swWatch.setLongFlag("watch");
+        swWatch.setHelp("The application keeps running and merges the PDFs arriving in the input directory by batches. Merged PDFs are moved to the done directory (By default OFF). \n(" + CONFIG_KEY_INPUT_WATCH + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swWatch.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_INPUT_WATCH)) {
+            if (((String) config.get(CONFIG_KEY_INPUT_WATCH)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swWatch.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swWatch);
+
+        // Add the watch folder batch window option
+        int defaultWatchWindow = CONFIG_FLAG_WATCH_WINDOW_MS;
+        if (config.containsKey(CONFIG_KEY_INPUT_WATCH_WINDOW)) {
+            if (!((String) config.get(CONFIG_KEY_INPUT_WATCH_WINDOW)).isEmpty()) {
+                defaultWatchWindow = Integer.parseInt((String) config.get(CONFIG_KEY_INPUT_WATCH_WINDOW));
+            }
+        }
+        FlaggedOption foWatchWindow = new FlaggedOption(CONFIG_KEY_INPUT_WATCH_WINDOW);
+        foWatchWindow.setShortFlag(JSAP.NO_SHORTFLAG);
+        foWatchWindow.setLongFlag("watchwindow");
+        foWatchWindow.setUsageName("Batch window in milliseconds");
+        foWatchWindow.setHelp("Time in milliseconds during which arriving PDFs are collected into the same batch, from the first arrival. Default is '" + Integer.toString(defaultWatchWindow) + "'. \n(" + CONFIG_KEY_INPUT_WATCH_WINDOW + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foWatchWindow.setStringParser(JSAP.INTEGER_PARSER);
+        foWatchWindow.setRequired(false);
+        foWatchWindow.setDefault(Integer.toString(defaultWatchWindow));
+        cmdLineInterpreter.registerParameter(foWatchWindow);
+
+        // Add the watch folder stability delay option
+        int defaultWatchStable = CONFIG_FLAG_WATCH_STABLE_MS;
+        if (config.containsKey(CONFIG_KEY_INPUT_WATCH_STABLE)) {
+            if (!((String) config.get(CONFIG_KEY_INPUT_WATCH_STABLE)).isEmpty()) {
+                defaultWatchStable = Integer.parseInt((String) config.get(CONFIG_KEY_INPUT_WATCH_STABLE));
+            }
+        }
+        FlaggedOption foWatchStable = new FlaggedOption(CONFIG_KEY_INPUT_WATCH_STABLE);
+        foWatchStable.setShortFlag(JSAP.NO_SHORTFLAG);
+        foWatchStable.setLongFlag("watchstable");
+        foWatchStable.setUsageName("Stability delay in milliseconds");
+        foWatchStable.setHelp("Time in milliseconds during which the size and the modification time of an arrived PDF must not change before it is merged. PDFs still being written are left to the next batch. Default is '" + Integer.toString(defaultWatchStable) + "'. \n(" + CONFIG_KEY_INPUT_WATCH_STABLE + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foWatchStable.setStringParser(JSAP.INTEGER_PARSER);
+        foWatchStable.setRequired(false);
+        foWatchStable.setDefault(Integer.toString(defaultWatchStable));
+        cmdLineInterpreter.registerParameter(foWatchStable);
+
+        // Add the watch folder done directory option
+        FlaggedOption foWatchDone = new FlaggedOption(CONFIG_KEY_INPUT_WATCH_DONE);
+        foWatchDone.setShortFlag(JSAP.NO_SHORTFLAG);
+        foWatchDone.setLongFlag("watchdone");
+        foWatchDone.setUsageName("Done directory");
+        foWatchDone.setHelp("Directory the PDFs of every batch are moved to once merged, keeping their path relative to the input directory. The PDFs of a batch which could not be merged are moved to its '" + MergeJob.CONFIG_FLAG_WATCH_FAILED_DIRECTORY + "' sub-directory. \n(" + CONFIG_KEY_INPUT_WATCH_DONE + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foWatchDone.setStringParser(JSAP.STRING_PARSER);
+        foWatchDone.setRequired(false);
+        if (config.containsKey(CONFIG_KEY_INPUT_WATCH_DONE)) {
+            if (!((String) config.get(CONFIG_KEY_INPUT_WATCH_DONE)).isEmpty()) {
+                foWatchDone.setDefault((String) config.get(CONFIG_KEY_INPUT_WATCH_DONE));
+            }
+        }
+        cmdLineInterpreter.registerParameter(foWatchDone);
+
+        // Add the merge service port option
+        int defaultServerPort = 0;
+        if (config.containsKey(CONFIG_KEY_SERVER_PORT)) {
+            if (!((String) config.get(CONFIG_KEY_SERVER_PORT)).isEmpty()) {
+                defaultServerPort = Integer.parseInt((String) config.get(CONFIG_KEY_SERVER_PORT));
+            }
+        }
+        FlaggedOption foServerPort = new FlaggedOption(CONFIG_KEY_SERVER_PORT);
+        foServerPort.setShortFlag(JSAP.NO_SHORTFLAG);
+        foServerPort.setLongFlag("serve");
+        foServerPort.setUsageName("Merge service port");
+        foServerPort.setHelp("Port of the HTTP merge service, listening on the loopback address. The PDFs posted to '/merge' are merged and the merged PDF is streamed back instead of merging the input directory. Default is '" + Integer.toString(defaultServerPort) + "' (no service). \n(" + CONFIG_KEY_SERVER_PORT + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foServerPort.setStringParser(JSAP.INTEGER_PARSER);
+        foServerPort.setRequired(false);
+        foServerPort.setDefault(Integer.toString(defaultServerPort));
+        cmdLineInterpreter.registerParameter(foServerPort);
+
+        // Add the number of requests merged concurrently by the merge service option
+        int defaultServerRequests = Runtime.getRuntime().availableProcessors();
+        if (config.containsKey(CONFIG_KEY_SERVER_REQUESTS)) {
+            if (!((String) config.get(CONFIG_KEY_SERVER_REQUESTS)).isEmpty()) {
+                defaultServerRequests = Integer.parseInt((String) config.get(CONFIG_KEY_SERVER_REQUESTS));
+            }
+        }
+        FlaggedOption foServerRequests = new FlaggedOption(CONFIG_KEY_SERVER_REQUESTS);
+        foServerRequests.setShortFlag(JSAP.NO_SHORTFLAG);
+        foServerRequests.setLongFlag("serverequests");
+        foServerRequests.setUsageName("Number of concurrent requests");
+        foServerRequests.setHelp("Number of requests merged concurrently by the merge service. Further requests are rejected with status 503. Default is '" + Integer.toString(defaultServerRequests) + "'. \n(" + CONFIG_KEY_SERVER_REQUESTS + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        foServerRequests.setStringParser(JSAP.INTEGER_PARSER);
+        foServerRequests.setRequired(false);
+        foServerRequests.setDefault(Integer.toString(defaultServerRequests));
+        cmdLineInterpreter.registerParameter(foServerRequests);
+
         // Add the input directory option
         FlaggedOption foDirIn = new FlaggedOption(CONFIG_KEY_INPUT_DIR);
         foDirIn.setShortFlag('i');
@@ -344,6 +904,19 @@ public class MergePDF {
         }
         cmdLineInterpreter.registerParameter(foLogOut);
 
+        // Add the manifest flag
+        Switch swManifest = new Switch(CONFIG_KEY_OUTPUT_LOG_MANIFEST);
+        swManifest.setShortFlag(JSAP.NO_SHORTFLAG);
+        swManifest.setLongFlag("manifest");
+        swManifest.setHelp("A manifest (name.manifest.jsonl) is written next to every merged PDF, giving for every input PDF its pages and bytes within the merged PDF, its content hash and its timings, with a binary index (name.manifest.idx) giving direct access to the entry of any input PDF. Can not be combined with appending, checkpoints or the tree merge (By default OFF). \n(" + CONFIG_KEY_OUTPUT_LOG_MANIFEST + " key in properties file '" + CONFIGURATION_FILE + "' can also be used.)");
+        swManifest.setDefault("false");
+        if (config.containsKey(CONFIG_KEY_OUTPUT_LOG_MANIFEST)) {
+            if (((String) config.get(CONFIG_KEY_OUTPUT_LOG_MANIFEST)).equalsIgnoreCase(CONFIG_FLAG_TRUE)) {
+                swManifest.setDefault("true");
+            }
+        }
+        cmdLineInterpreter.registerParameter(swManifest);
+
         // Add the output PDF file name option
         String defaultOutputPdfName = "";
         if (config.containsKey(CONFIG_KEY_OUTPUT_PDF_NAME)) {
@@ -483,292 +1056,335 @@ public class MergePDF {
 
         // Initialize the process of building output file name according by
         // configuration
-        outputPdfFileNameBasedOnInput = true;
-        outputPdfFileNameBasedOnIDExtract = false;
-        outputPdfFileNameBasedOnIDSplit = false;
+        MergeRequest.Builder requestBuilder = new MergeRequest.Builder(qualifyDirectory(commandLineArguments.getString(CONFIG_KEY_INPUT_DIR)), qualifyDirectory(commandLineArguments.getString(CONFIG_KEY_OUTPUT_DIR) == null || commandLineArguments.getString(CONFIG_KEY_OUTPUT_DIR).isEmpty() ? commandLineArguments.getString(CONFIG_KEY_INPUT_DIR) : commandLineArguments.getString(CONFIG_KEY_OUTPUT_DIR)));
+        requestBuilder.recursiveSearch(commandLineArguments.getBoolean(CONFIG_KEY_INPUT_RECURSIVE_SEARCH));
+        int progressInterval = commandLineArguments.getInt(CONFIG_KEY_DISPLAY_PROGESS_INTERVAL);
+        if (progressInterval <= 0)
+            throw new ConfigurationException("The progress display interval is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_DISPLAY_PROGESS_INTERVAL + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(progressInterval) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.displayProgress(commandLineArguments.getBoolean(CONFIG_KEY_DISPLAY_PROGESS) && !commandLineArguments.getBoolean(CONFIG_KEY_LOG_DEBUG), progressInterval * 1000L);
 
         // If the log file name has been provided
         if (commandLineArguments.contains(CONFIG_KEY_OUTPUT_LOG_NAME)) {
             // Get the log file name
-            outputLogFileName = commandLineArguments.getString(CONFIG_KEY_OUTPUT_LOG_NAME);
+            String outputLogFileName = commandLineArguments.getString(CONFIG_KEY_OUTPUT_LOG_NAME);
             if (outputLogFileName != null && !outputLogFileName.isEmpty()) {
-                // If it does not end with correct extension
-                if (!outputLogFileName.toLowerCase().endsWith(CONFIG_FLAG_LOG_EXTENSION)) {
-                    // Add extension
-                    outputLogFileName = outputLogFileName + CONFIG_FLAG_LOG_EXTENSION;
-                }
+                requestBuilder.outputLogName(outputLogFileName);
             }
         }
+        requestBuilder.manifest(commandLineArguments.getBoolean(CONFIG_KEY_OUTPUT_LOG_MANIFEST));
 
         // If the output file name has been provided
         if (commandLineArguments.contains(CONFIG_KEY_OUTPUT_PDF_NAME)) {
             // Initialize the output filenames (PDF & LOG)
-            outputPdfFileName = commandLineArguments.getString(CONFIG_KEY_OUTPUT_PDF_NAME);
-
-            // Disable name extraction using input file name
-            outputPdfFileNameBasedOnInput = false;
-            outputPdfFileNameBasedOnIDExtract = false;
-            outputPdfFileNameBasedOnIDSplit = false;
+            requestBuilder.outputPdfName(commandLineArguments.getString(CONFIG_KEY_OUTPUT_PDF_NAME));
         }
 
         // If an extract of input file name has been asked in order to build file
         // name
         else if (commandLineArguments.contains(CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_FROM)) {
             // Retrieve the value to use
-            outputPdfFileNameBasedOnIDExtractFrom = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_FROM);
-            outputPdfFileNameBasedOnIDExtractLength = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_LENGTH);
-
-            // Enable name extraction using input file name
-            outputPdfFileNameBasedOnInput = false;
-            outputPdfFileNameBasedOnIDExtract = true;
-            outputPdfFileNameBasedOnIDSplit = false;
+            int outputPdfFileNameBasedOnIDExtractFrom = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_FROM);
+            int outputPdfFileNameBasedOnIDExtractLength = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_LENGTH);
 
             // Validate configuration
             if (outputPdfFileNameBasedOnIDExtractFrom <= 0)
                 throw new ConfigurationException("Name for generated PDF should extracted from input file name but the provided start character is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_FROM + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfFileNameBasedOnIDExtractFrom) + "'.", FrameworkExceptionLevel.FATAL);
             if (outputPdfFileNameBasedOnIDExtractLength <= 0)
                 throw new ConfigurationException("Name for generated PDF should extracted from input file name but the provided length is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_LENGTH + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfFileNameBasedOnIDExtractLength) + "'.", FrameworkExceptionLevel.FATAL);
+
+            // Enable name extraction using input file name
+            requestBuilder.outputPdfIdExtract(outputPdfFileNameBasedOnIDExtractFrom, outputPdfFileNameBasedOnIDExtractLength);
         }
 
         // If a split of input file name has been asked in order to build file
         // name
         else if (commandLineArguments.contains(CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_REGEX)) {
             // Retrieve the value to use
-            outputPdfFileNameBasedOnIDSplitRegex = commandLineArguments.getString(CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_REGEX);
-            outputPdfFileNameBasedOnIDSplitIndex = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_IDX);
-
-            // Enable name extraction using input file name
-            outputPdfFileNameBasedOnInput = false;
-            outputPdfFileNameBasedOnIDExtract = false;
-            outputPdfFileNameBasedOnIDSplit = true;
+            String outputPdfFileNameBasedOnIDSplitRegex = commandLineArguments.getString(CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_REGEX);
+            int outputPdfFileNameBasedOnIDSplitIndex = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_IDX);
 
             // Validate configuration
             if (outputPdfFileNameBasedOnIDSplitRegex == null || outputPdfFileNameBasedOnIDSplitRegex.isEmpty())
                 throw new ConfigurationException("Name for generated PDF should extracted from input file name using a regular expression but no expression provided through command line or property '" + CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_REGEX + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + outputPdfFileNameBasedOnIDSplitRegex + "'.", FrameworkExceptionLevel.FATAL);
             if (outputPdfFileNameBasedOnIDSplitIndex <= 0)
                 throw new ConfigurationException("Name for generated PDF should extracted from input file name using a regular expression but the provided index is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_IDX + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfFileNameBasedOnIDSplitIndex) + "'.", FrameworkExceptionLevel.FATAL);
+
+            // Enable name extraction using input file name
+            requestBuilder.outputPdfIdSplit(outputPdfFileNameBasedOnIDSplitRegex, outputPdfFileNameBasedOnIDSplitIndex);
         }
 
         // Update optimizing flag according to configuration or command line
         // parameters
+        boolean mergePdfOptimizingResourcesEnabled = false;
         if (commandLineArguments.contains(CONFIG_KEY_MERGE_PDF_RESOURCES_OPTIMIZING)) {
             // Set the flag according to configuration
             mergePdfOptimizingResourcesEnabled = commandLineArguments.getBoolean(CONFIG_KEY_MERGE_PDF_RESOURCES_OPTIMIZING);
         }
-    }
+        requestBuilder.optimizingResources(mergePdfOptimizingResourcesEnabled);
+
+        // Update the directory enumeration according to configuration or command
+        // line parameters
+        requestBuilder.streaming(commandLineArguments.getBoolean(CONFIG_KEY_INPUT_STREAMING), commandLineArguments.getBoolean(CONFIG_KEY_INPUT_SORTED));
+
+        // Update the input PDFs and their order according to configuration or
+        // command line parameters
+        String inputList = commandLineArguments.getString(CONFIG_KEY_INPUT_LIST);
+        String inputOrder = commandLineArguments.getString(CONFIG_KEY_INPUT_ORDER);
+        MergeRequest.InputOrder inputOrderValue = null;
+        for (MergeRequest.InputOrder order : MergeRequest.InputOrder.values()) {
+            if (order.name().equalsIgnoreCase(inputOrder)) inputOrderValue = order;
+        }
 
-    /**
-     * Prepare directories for process.
-     * <p>
-     * The preparation of directories consists of checking the input and output
-     * directory existence. The output directory will be created if it is not
-     * found.
-     * </p>
-     *
-     * @throws Exception Something went wrong will preparing directories
-     */
-    private static void prepareDirectories() throws Exception {
-        // Initialize
-        String providedDirectory = null;
-
-        // Prepare the input directory path
-        providedDirectory = commandLineArguments.getString(CONFIG_KEY_INPUT_DIR);
-        providedDirectory = FileSystem.qualifyPath(providedDirectory);
-        if (!FileSystem.isStartingWithRoot(providedDirectory)) {
-            providedDirectory = FileSystem.getApplicationDirectory() + providedDirectory;
-        }
-        inputDirectory = FileSystem.qualifyPath(providedDirectory);
-        LOG.debug("Input directory = '" + inputDirectory + "'");
-
-        // Prepare the output directory path
-        providedDirectory = commandLineArguments.getString(CONFIG_KEY_OUTPUT_DIR);
-        if (providedDirectory != null && !providedDirectory.isEmpty()) {
-            providedDirectory = FileSystem.qualifyPath(providedDirectory);
-            if (!FileSystem.isStartingWithRoot(providedDirectory)) {
-                providedDirectory = FileSystem.getApplicationDirectory() + providedDirectory;
-            }
-        } else {
-            providedDirectory = inputDirectory;
-        }
-        outputDirectory = FileSystem.qualifyPath(providedDirectory);
-        LOG.debug("Output directory = '" + outputDirectory + "'");
-
-        // Check if the input directory exists
-        LOG.debug("Check input directory : '" + inputDirectory + "'");
-        if (!FileSystem.isDirectory(inputDirectory)) {
-            LOG.debug("Input directory : '" + inputDirectory + "' not found or not a directory.");
-            throw new FileNotFoundException("The input directory '" + inputDirectory + "' was not found or is not a directory.");
-        }
-
-        // Check if the output directory exists
-        LOG.debug("Check output directory : '" + outputDirectory + "'");
-        if (!FileSystem.exists(outputDirectory)) {
-            LOG.debug("Output directory : '" + outputDirectory + "' not found.");
-            FileSystem.createDir(outputDirectory);
-            LOG.debug("Output directory : '" + outputDirectory + "' created.");
-        } else if (!FileSystem.isDirectory(outputDirectory)) {
-            LOG.debug("Output directory : '" + outputDirectory + "' already exists and is not a directory.");
-            throw new FileNotFoundException("The output directory '" + outputDirectory + "' was found BUT is NOT a directory.");
-        }
-
-        // Check if we have to duplicate input
-        outputDirectoryIsInputDirectory = (inputDirectory.equalsIgnoreCase(outputDirectory));
-    }
+        // Validate configuration
+        if (inputOrderValue == null)
+            throw new ConfigurationException("The input order is invalid. It must be 'listed', 'name', 'natural', 'mtime' or 'size'. Provided value through command line or property '" + CONFIG_KEY_INPUT_ORDER + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + inputOrder + "'.", FrameworkExceptionLevel.FATAL);
+        if (inputList != null && !inputList.isEmpty() && !new File(inputList).isFile())
+            throw new ConfigurationException("The input list does not exist. Provided value through command line or property '" + CONFIG_KEY_INPUT_LIST + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + inputList + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.input(inputList, inputOrderValue);
+
+        // Update the pages of the input PDFs according to configuration or command
+        // line parameters
+        String inputPages = commandLineArguments.getString(CONFIG_KEY_INPUT_PAGES);
+
+        // Validate configuration
+        if (inputPages != null && !inputPages.trim().isEmpty()) {
+            try {
+                PageSelection.parse(inputPages);
+            } catch (IllegalArgumentException exception) {
+                throw new ConfigurationException("The page selection is invalid. It must list page numbers and page ranges such as '1,3-5,8-'. Provided value through command line or property '" + CONFIG_KEY_INPUT_PAGES + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + inputPages + "'.", FrameworkExceptionLevel.FATAL);
+            }
+        }
+        requestBuilder.inputPages(inputPages);
 
-    /**
-     * Merge provided PDF.
-     * <p>
-     * This method will add provided PDF file to the provided PDF document through
-     * the provided PDF document writer. The number of pages added to the writer
-     * will be returned.
-     * </p>
-     *
-     * @param pdfToMerge      The path to the PDF that should be added to existing
-     *                        document.
-     * @param mergedPdfWriter The DocWriter for merged PDF file
-     * @param mergedDocument  The generic Document for merged PDF.
-     * @return The number of pages added to the writer.
-     * @throws Exception Something went wrong while adding provided PDF to merged
-     *                   PDF file through provided writer.
-     */
-    private static int mergePDF(final String pdfToMerge, PdfWriter mergedPdfWriter, Document mergedDocument) throws Exception {
-        // Create a new reader for current PDF
-        PdfReader reader = new PdfReader(pdfToMerge);
-        PdfImportedPage page;
+        // Update grouping according to configuration or command line parameters
+        int outputPdfGroupingThreads = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_GROUPING_THREADS);
 
-        // Add every page to provided writer
-        int pageIndexInCurrentPdf = 1;
-        while (pageIndexInCurrentPdf <= reader.getNumberOfPages()) {
-            // Get the page from reader
-            page = mergedPdfWriter.getImportedPage(reader, pageIndexInCurrentPdf);
+        // Validate configuration
+        if (outputPdfGroupingThreads <= 0)
+            throw new ConfigurationException("The number of groups merged concurrently is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_GROUPING_THREADS + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfGroupingThreads) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.grouping(commandLineArguments.getBoolean(CONFIG_KEY_OUTPUT_PDF_GROUPING), outputPdfGroupingThreads);
 
-            // Add page to merged document according using PDF copy
-            ((PdfCopy) mergedPdfWriter).addPage(page);
+        // Update rollover and sharding according to configuration or command line
+        // parameters
+        int outputPdfRolloverPages = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_PAGES);
+        int rolloverSize = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_ROLLOVER_SIZE);
+        int outputPdfShards = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_SHARDS);
+
+        // Validate configuration
+        if (outputPdfRolloverPages < 0)
+            throw new ConfigurationException("The rollover page threshold is invalid. It must be >= 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_ROLLOVER_PAGES + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfRolloverPages) + "'.", FrameworkExceptionLevel.FATAL);
+        if (rolloverSize < 0)
+            throw new ConfigurationException("The rollover size threshold is invalid. It must be >= 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_ROLLOVER_SIZE + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(rolloverSize) + "'.", FrameworkExceptionLevel.FATAL);
+        if (outputPdfShards <= 0)
+            throw new ConfigurationException("The number of shards is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_SHARDS + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfShards) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.rollover(outputPdfRolloverPages, rolloverSize * 1024L * 1024L);
+        requestBuilder.shards(outputPdfShards);
+
+        // Update the tree merge according to configuration or command line
+        // parameters
+        int outputPdfTreeFanIn = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_TREE_FANIN);
+        int outputPdfTreeThreads = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_TREE_THREADS);
+        int outputPdfTreeTempLimit = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_TREE_TEMP_LIMIT);
+
+        // Validate configuration
+        if (outputPdfTreeFanIn < 0 || outputPdfTreeFanIn == 1)
+            throw new ConfigurationException("The tree merge fan-in is invalid. It must be >= 2, or 0 to disable the tree merge. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_TREE_FANIN + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfTreeFanIn) + "'.", FrameworkExceptionLevel.FATAL);
+        if (outputPdfTreeThreads <= 0)
+            throw new ConfigurationException("The number of tree merge threads is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_TREE_THREADS + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfTreeThreads) + "'.", FrameworkExceptionLevel.FATAL);
+        if (outputPdfTreeTempLimit < 0)
+            throw new ConfigurationException("The tree merge temporary space limit is invalid. It must be >= 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_TREE_TEMP_LIMIT + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfTreeTempLimit) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.tree(outputPdfTreeFanIn, outputPdfTreeThreads, outputPdfTreeTempLimit * 1024L * 1024L);
+
+        // Update the append mode according to configuration or command line
+        // parameters
+        requestBuilder.append(commandLineArguments.getBoolean(CONFIG_KEY_OUTPUT_PDF_APPEND));
 
-            // Go to next page
-            pageIndexInCurrentPdf++;
+        // Update checkpoints according to configuration or command line parameters
+        int outputPdfCheckpointFiles = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_CHECKPOINT);
+
+        // Validate configuration
+        if (outputPdfCheckpointFiles < 0)
+            throw new ConfigurationException("The number of PDFs per checkpoint is invalid. It must be >= 0. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_CHECKPOINT + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputPdfCheckpointFiles) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.checkpoint(outputPdfCheckpointFiles, commandLineArguments.getBoolean(CONFIG_KEY_OUTPUT_PDF_RESUME));
+
+        // Update the merged PDF writing according to configuration or command line
+        // parameters
+        int outputBuffer = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_BUFFER);
+        String outputSync = commandLineArguments.getString(CONFIG_KEY_OUTPUT_PDF_SYNC);
+
+        // Validate configuration
+        if (outputBuffer <= 0 || outputBuffer > CONFIG_FLAG_OUTPUT_BUFFER_MAX_KB)
+            throw new ConfigurationException("The output buffer size is invalid. It must be between 1 and " + Integer.toString(CONFIG_FLAG_OUTPUT_BUFFER_MAX_KB) + " KB. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_BUFFER + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputBuffer) + "'.", FrameworkExceptionLevel.FATAL);
+        MergeRequest.SyncPolicy outputSyncPolicy = null;
+        for (MergeRequest.SyncPolicy syncPolicy : MergeRequest.SyncPolicy.values()) {
+            if (syncPolicy.name().equalsIgnoreCase(outputSync)) outputSyncPolicy = syncPolicy;
         }
+        if (outputSyncPolicy == null)
+            throw new ConfigurationException("The output synchronization policy is invalid. It must be 'none', 'data' or 'full'. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_SYNC + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + outputSync + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.output(outputBuffer * 1024, outputSyncPolicy);
 
-        // Flush PDF current content
-        mergedPdfWriter.flush();
-        mergedPdfWriter.freeReader(reader);
+        // Update the compact mode according to configuration or command line
+        // parameters
+        int outputCompactLevel = commandLineArguments.getInt(CONFIG_KEY_OUTPUT_PDF_COMPACT_LEVEL);
 
-        // Close the reader
-        reader.close();
-        page = null;
+        // Validate configuration
+        if (outputCompactLevel < 1 || outputCompactLevel > 9)
+            throw new ConfigurationException("The compression level of the compact mode is invalid. It must be between 1 and 9. Provided value through command line or property '" + CONFIG_KEY_OUTPUT_PDF_COMPACT_LEVEL + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(outputCompactLevel) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.compact(commandLineArguments.getBoolean(CONFIG_KEY_OUTPUT_PDF_COMPACT), outputCompactLevel);
 
-        // Return the number of pages imported
-        return (pageIndexInCurrentPdf - 1);
-    }
+        // Update the watch folder mode according to configuration or command line
+        // parameters
+        boolean inputWatchEnabled = commandLineArguments.getBoolean(CONFIG_KEY_INPUT_WATCH);
+        int inputWatchWindow = commandLineArguments.getInt(CONFIG_KEY_INPUT_WATCH_WINDOW);
+        int inputWatchStable = commandLineArguments.getInt(CONFIG_KEY_INPUT_WATCH_STABLE);
+        String inputWatchDoneDirectory = commandLineArguments.getString(CONFIG_KEY_INPUT_WATCH_DONE);
+
+        // Validate configuration
+        if (inputWatchWindow < 0)
+            throw new ConfigurationException("The batch window is invalid. It must be >= 0. Provided value through command line or property '" + CONFIG_KEY_INPUT_WATCH_WINDOW + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(inputWatchWindow) + "'.", FrameworkExceptionLevel.FATAL);
+        if (inputWatchStable < 0)
+            throw new ConfigurationException("The stability delay is invalid. It must be >= 0. Provided value through command line or property '" + CONFIG_KEY_INPUT_WATCH_STABLE + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(inputWatchStable) + "'.", FrameworkExceptionLevel.FATAL);
+        if (inputWatchEnabled && (inputWatchDoneDirectory == null || inputWatchDoneDirectory.isEmpty()))
+            throw new ConfigurationException("Watching the input directory requires a done directory provided through command line or property '" + CONFIG_KEY_INPUT_WATCH_DONE + "' within configuration file '" + CONFIGURATION_FILE + "'.", FrameworkExceptionLevel.FATAL);
+        if (inputWatchEnabled) {
+            requestBuilder.watch(qualifyDirectory(inputWatchDoneDirectory), inputWatchWindow, inputWatchStable);
+        }
 
-    /**
-     * Retrieve the output filename.
-     * <p>
-     * This method will build and return the fully qualified filename that should
-     * be given to the file once it has been processed.
-     * </p>
-     *
-     * @param inputFilePath The fully qualified filename of the input file.
-     * @return The name that should be provided to the file once it has been
-     *         processed.
-     * @throws Exception Something went wrong while building the merged PDF file
-     *           name.
-     */
-    private static String getOutputFilename(final String inputFilePath) throws Exception {
-        // Extract the input filename
-        LOG.info("Building merged PDF file name...");
-        StringBuffer inputfileName = new StringBuffer(FileSystem.getFilename(inputFilePath));
-
-        // If merged PDF file name was not provided through configuration
-        if (outputPdfFileName == null || !outputPdfFileName.isEmpty()) {
-            // If the input file name should be used for merged PDF file
-            if (outputPdfFileNameBasedOnInput) {
-                outputPdfFileName = inputfileName.toString();
-            }
-            // If the an extract of input file name should be used for merged PDF file
-            else if (outputPdfFileNameBasedOnIDExtract) {
-                // Check if provided index is valid
-                if (outputPdfFileNameBasedOnIDExtractFrom < 1 || outputPdfFileNameBasedOnIDExtractFrom > inputfileName.length()) {
-                    throw new ConfigurationException("Merged PDF file name should be build with an extract of input file name that starts at character '" + Integer.toString(outputPdfFileNameBasedOnIDExtractFrom) + "'. This index is outside the limit of PDF file name '" + Integer.toString(inputfileName.length()) + "'.", FrameworkExceptionLevel.FATAL);
-                }
+        // Update the merge service according to configuration or command line
+        // parameters
+        serverPort = commandLineArguments.getInt(CONFIG_KEY_SERVER_PORT);
+        serverRequests = commandLineArguments.getInt(CONFIG_KEY_SERVER_REQUESTS);
+
+        // Validate configuration
+        if (serverPort < 0 || serverPort > 65535)
+            throw new ConfigurationException("The merge service port is invalid. It must be >= 0 and <= 65535. Provided value through command line or property '" + CONFIG_KEY_SERVER_PORT + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(serverPort) + "'.", FrameworkExceptionLevel.FATAL);
+        if (serverRequests < 1)
+            throw new ConfigurationException("The number of concurrent requests is invalid. It must be >= 1. Provided value through command line or property '" + CONFIG_KEY_SERVER_REQUESTS + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(serverRequests) + "'.", FrameworkExceptionLevel.FATAL);
+        if (serverPort > 0 && inputWatchEnabled)
+            throw new ConfigurationException("The merge service can not be combined with watching the input directory. Provided value through command line or property '" + CONFIG_KEY_SERVER_PORT + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(serverPort) + "'.", FrameworkExceptionLevel.FATAL);
+
+        // Update the resource fingerprint index according to configuration or
+        // command line parameters
+        String mergePdfResCacheFile = commandLineArguments.getString(CONFIG_KEY_MERGE_PDF_RES_CACHE);
+        int mergePdfResCacheMaxAge = commandLineArguments.getInt(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_AGE);
+        int mergePdfResCacheMaxEntries = commandLineArguments.getInt(CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_ENTRIES);
+
+        // Validate configuration
+        if (mergePdfResCacheFile != null && !mergePdfResCacheFile.isEmpty() && !mergePdfOptimizingResourcesEnabled)
+            throw new ConfigurationException("A resource fingerprint index has been provided but resources usage is not optimized. Resources optimization must be enabled through command line or property '" + CONFIG_KEY_MERGE_PDF_RESOURCES_OPTIMIZING + "' within configuration file '" + CONFIGURATION_FILE + "' to use the index : '" + mergePdfResCacheFile + "'.", FrameworkExceptionLevel.FATAL);
+        if (mergePdfResCacheMaxAge < 0)
+            throw new ConfigurationException("The maximum age of the resource fingerprints is invalid. It must be >= 0. Provided value through command line or property '" + CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_AGE + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(mergePdfResCacheMaxAge) + "'.", FrameworkExceptionLevel.FATAL);
+        if (mergePdfResCacheMaxEntries <= 0)
+            throw new ConfigurationException("The maximum number of resource fingerprints is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_ENTRIES + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(mergePdfResCacheMaxEntries) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.resCache(mergePdfResCacheFile, mergePdfResCacheMaxAge, mergePdfResCacheMaxEntries);
+
+        // Update the resource table according to configuration or command line
+        // parameters
+        int mergePdfResTable = commandLineArguments.getInt(CONFIG_KEY_MERGE_PDF_RES_TABLE);
 
-                // Extract the desired part of the file name
-                outputPdfFileName = inputfileName.substring(outputPdfFileNameBasedOnIDExtractFrom - 1, outputPdfFileNameBasedOnIDExtractFrom + outputPdfFileNameBasedOnIDExtractLength - 1);
-            }
-            // If the a part of input file name should be used for merged PDF file
-            else if (outputPdfFileNameBasedOnIDSplit) {
-                // Split the input filename
-                String[] splittedFilename = inputfileName.toString().split(outputPdfFileNameBasedOnIDSplitRegex);
+        // Validate configuration
+        if (mergePdfResTable <= 0)
+            throw new ConfigurationException("The size of the resource table is invalid. It must be > 0 MB. Provided value through command line or property '" + CONFIG_KEY_MERGE_PDF_RES_TABLE + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(mergePdfResTable) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.resTable(mergePdfResTable * 1024L * 1024L, commandLineArguments.getBoolean(CONFIG_KEY_MERGE_PDF_RES_TABLE_OFFHEAP));
 
-                // Check if provided index is valid
-                if (outputPdfFileNameBasedOnIDSplitIndex < 1 || outputPdfFileNameBasedOnIDSplitIndex > splittedFilename.length) {
-                    throw new ConfigurationException("Merged PDF file name should be build according to a split based on regular expression '" + outputPdfFileNameBasedOnIDSplitRegex + "' and by extracting part found at index '" + Integer.toString(outputPdfFileNameBasedOnIDSplitIndex) + "'. This index is out of bounds : 1 -> " + Integer.toString(splittedFilename.length) + ".", FrameworkExceptionLevel.FATAL);
-                }
+        // Update the pre-flight scan according to configuration or command line
+        // parameters
+        boolean mergePdfPreflightEnabled = commandLineArguments.getBoolean(CONFIG_KEY_MERGE_PDF_PREFLIGHT);
+        String mergePdfPreflightIndexFile = commandLineArguments.getString(CONFIG_KEY_MERGE_PDF_PREFLIGHT_INDEX);
+        int mergePdfPreflightThreads = commandLineArguments.getInt(CONFIG_KEY_MERGE_PDF_PREFLIGHT_THREADS);
+
+        // Validate configuration
+        if (mergePdfPreflightIndexFile != null && !mergePdfPreflightIndexFile.isEmpty() && !mergePdfPreflightEnabled && outputPdfShards == 1)
+            throw new ConfigurationException("A pre-flight index has been provided but the pre-flight scan is not enabled. The pre-flight scan must be enabled through command line or property '" + CONFIG_KEY_MERGE_PDF_PREFLIGHT + "' within configuration file '" + CONFIGURATION_FILE + "' to use the index : '" + mergePdfPreflightIndexFile + "'.", FrameworkExceptionLevel.FATAL);
+        if (mergePdfPreflightThreads <= 0)
+            throw new ConfigurationException("The number of pre-flight threads is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_MERGE_PDF_PREFLIGHT_THREADS + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(mergePdfPreflightThreads) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.preflight(mergePdfPreflightEnabled, mergePdfPreflightIndexFile, mergePdfPreflightThreads);
+
+        // Update the input reading mode according to configuration or command line
+        // parameters
+        int mapWindow = commandLineArguments.getInt(CONFIG_KEY_MERGE_PDF_MAP_WINDOW);
 
-                // Build the filename using the part found at provided index
-                outputPdfFileName = splittedFilename[outputPdfFileNameBasedOnIDSplitIndex - 1];
-            }
-        }
+        // Validate configuration
+        if (mapWindow < 0 || mapWindow > CONFIG_FLAG_MAP_WINDOW_MAX_MB)
+            throw new ConfigurationException("The memory map window is invalid. It must be between 0 and " + Integer.toString(CONFIG_FLAG_MAP_WINDOW_MAX_MB) + " MB. Provided value through command line or property '" + CONFIG_KEY_MERGE_PDF_MAP_WINDOW + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(mapWindow) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.lowMemory(commandLineArguments.getBoolean(CONFIG_KEY_MERGE_PDF_LOW_MEMORY), mapWindow * 1024L * 1024L);
 
-        // If it does not end with correct extension
-        if (!outputPdfFileName.toLowerCase().endsWith(CONFIG_FLAG_PDF_EXTENSION)) {
-            // Add extension and build log file name
-            outputPdfFileName = outputPdfFileName + CONFIG_FLAG_PDF_EXTENSION;
-        }
+        // Update prefetching according to configuration or command line parameters
+        int mergePdfPrefetchThreads = commandLineArguments.getInt(CONFIG_KEY_MERGE_PDF_PREFETCH_THREADS);
+        int mergePdfPrefetchDepth = commandLineArguments.getInt(CONFIG_KEY_MERGE_PDF_PREFETCH_DEPTH);
 
-        // Build the merged PDF file name
-        StringBuffer outputFilename = new StringBuffer(outputDirectory).append(outputPdfFileName);
+        // Validate configuration
+        if (mergePdfPrefetchThreads < 0)
+            throw new ConfigurationException("The number of prefetch threads is invalid. It must be >= 0. Provided value through command line or property '" + CONFIG_KEY_MERGE_PDF_PREFETCH_THREADS + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(mergePdfPrefetchThreads) + "'.", FrameworkExceptionLevel.FATAL);
+        if (mergePdfPrefetchDepth <= 0)
+            throw new ConfigurationException("The number of prefetched PDFs is invalid. It must be > 0. Provided value through command line or property '" + CONFIG_KEY_MERGE_PDF_PREFETCH_DEPTH + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(mergePdfPrefetchDepth) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.prefetch(mergePdfPrefetchThreads, mergePdfPrefetchDepth);
 
-        // Return the created file name
-        LOG.info("Merged PDF file name '" + outputFilename.toString() + "' built.");
-        return outputFilename.toString();
+        // Update the memory budget according to configuration or command line
+        // parameters
+        int mergePdfMemoryBudget = commandLineArguments.getInt(CONFIG_KEY_MERGE_PDF_MEMORY_BUDGET);
+
+        // Validate configuration
+        if (mergePdfMemoryBudget < 0)
+            throw new ConfigurationException("The memory budget is invalid. It must be >= 0 MB. Provided value through command line or property '" + CONFIG_KEY_MERGE_PDF_MEMORY_BUDGET + "' within configuration file '" + CONFIGURATION_FILE + "' : '" + Integer.toString(mergePdfMemoryBudget) + "'.", FrameworkExceptionLevel.FATAL);
+        requestBuilder.memoryBudget(mergePdfMemoryBudget * 1024L * 1024L);
+
+        // Check the options which can not be combined
+        try {
+            return requestBuilder.build();
+        } catch (IllegalArgumentException exception) {
+            throw new ConfigurationException(exception.getMessage() + " Provided values through command line or within configuration file '" + CONFIGURATION_FILE + "'.", FrameworkExceptionLevel.FATAL);
+        }
     }
 
     /**
-     * Retrieve the log filename.
+     * Qualify a directory provided through configuration.
      * <p>
-     * This method will build and return the fully qualified filename that should
-     * be given to the log file.
+     * A relative directory is resolved against the application directory.
      * </p>
      *
-     * @param mergedPdfFilePath The fully qualified filename of the generated
-     *                          file.
-     * @return The name that should be provided to the log file.
-     * @throws Exception Something went wrong while building the log file name.
+     * @param providedDirectory The directory provided through configuration.
+     * @return The fully qualified directory.
+     * @throws Exception The directory can not be qualified.
      */
-    private static String getLogFilename(final String mergedPdfFilePath) throws Exception {
-        // Initialize
-        LOG.info("Building log file name...");
-        String logFileName = null;
-
-        // If the log file name was not provided through configuration
-        if (outputLogFileName == null || outputLogFileName.isEmpty()) {
-            // Extract the merged filename
-            String mergedPdfName = FileSystem.getFilename(mergedPdfFilePath).toLowerCase();
-
-            // Remove the PDF extension if necessary
-            if (mergedPdfName.endsWith(CONFIG_FLAG_PDF_EXTENSION)) {
-                StringBuffer buffer = new StringBuffer(mergedPdfName);
-                logFileName = buffer.substring(0, mergedPdfName.lastIndexOf(CONFIG_FLAG_PDF_EXTENSION));
-            }
-        }
-        // Name was provided through configuration
-        else {
-            logFileName = outputLogFileName;
+    private static String qualifyDirectory(final String providedDirectory) throws Exception {
+        String qualifiedDirectory = FileSystem.qualifyPath(providedDirectory);
+        if (!FileSystem.isStartingWithRoot(qualifiedDirectory)) {
+            qualifiedDirectory = FileSystem.getApplicationDirectory() + qualifiedDirectory;
         }
+        return FileSystem.qualifyPath(qualifiedDirectory);
+    }
 
-        // If it does not end with correct extension
-        if (!logFileName.toLowerCase().endsWith(CONFIG_FLAG_LOG_EXTENSION)) {
-            // Add extension and build log file name
-            logFileName = logFileName + CONFIG_FLAG_LOG_EXTENSION;
+    /**
+     * Merge the PDFs posted to the merge service until the application is
+     * stopped.
+     *
+     * @param mergeJob The job whose configuration is used by every merge.
+     * @throws Exception The merge service can not be started.
+     * @see MergeServer
+     */
+    private void serveMergeRequests(final MergeJob mergeJob) throws Exception {
+        final MergeServer server = new MergeServer(serverPort, serverRequests, mergeJob);
+        server.start();
+
+        // Expose the metrics of every request merged through JMX
+        mergeJob.getMetrics().register();
+
+        // Stop the service when the application is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        }));
+        try {
+            server.awaitStop();
+        } catch (InterruptedException exception) {
+            server.stop();
+            Thread.currentThread().interrupt();
+        } finally {
+            mergeJob.getMetrics().unregister();
         }
-
-        // Build the log file path
-        StringBuffer logFilepath = new StringBuffer(outputDirectory).append(logFileName);
-
-        // Return the created file name
-        LOG.info("Log file name '" + logFilepath.toString() + "' built.");
-        return logFilepath.toString();
     }
 
     /**
@@ -830,7 +1446,7 @@ public class MergePDF {
      *
      * @param commandLineArgs The command line arguments received.
      */
-    private static void logApplicationParameters(String[] commandLineArgs) {
+    private void logApplicationParameters(String[] commandLineArgs) {
         // Log the properties file values
         if (config != null) {
             if (!config.isEmpty()) {
@@ -853,85 +1469,24 @@ public class MergePDF {
     }
 
     /**
-     * The input directory to search for PDFs.
-     */
-    private static String inputDirectory = null;
-
-    /**
-     * The output directory to store output PDF file.
-     */
-    private static String outputDirectory = null;
-
-    /**
-     * Is the output directory the same one as the input
-     */
-    private static boolean outputDirectoryIsInputDirectory = false;
-
-    /**
-     * The output PDF file name.
-     */
-    private static String outputPdfFileName = null;
-
-    /**
-     * The log file name.
-     */
-    private static String outputLogFileName = null;
-
-    /**
-     * Is the PDF output filename based on first input PDF name ?
-     */
-    private static boolean outputPdfFileNameBasedOnInput = true;
-
-    /**
-     * Is the PDF output filename based on a part of input PDF name once a split
-     * has been done ?
-     */
-    private static boolean outputPdfFileNameBasedOnIDSplit = false;
-
-    /**
-     * The regular expression used to split the PDF input file name in order to
-     * build the output PDF file name.
-     */
-    private static String outputPdfFileNameBasedOnIDSplitRegex = "\\.";
-
-    /**
-     * The index of the field the PDF input file name once it has been splitted in
-     * order to build the output PDF file name.
-     */
-    private static int outputPdfFileNameBasedOnIDSplitIndex = 1;
-
-    /**
-     * Is the PDF output filename based on an extracted part of input PDF name ?
-     */
-    private static boolean outputPdfFileNameBasedOnIDExtract = false;
-
-    /**
-     * The index of the character within the PDF input file name extract should be
-     * made in order to build the output PDF file name.
-     */
-    private static int outputPdfFileNameBasedOnIDExtractFrom = 0;
-
-    /**
-     * The extract length of the PDF input file name should used to build the
-     * output PDF file name.
+     * The port of the merge service, 0 if the service is not started.
      */
-    private static int outputPdfFileNameBasedOnIDExtractLength = 8;
+    private int serverPort = 0;
 
     /**
-     * Flag that indicates if resources have to be optimized while PDF are being
-     * merged.
+     * The number of requests merged concurrently by the merge service.
      */
-    private static boolean mergePdfOptimizingResourcesEnabled = false;
+    private int serverRequests = 1;
 
     /**
      * Command line arguments
      */
-    private static Properties config = null;
+    private Properties config = null;
 
     /**
      * The command line arguments
      */
-    private static JSAPResult commandLineArguments = null;
+    private JSAPResult commandLineArguments = null;
 
     /**
      * The name of configuration files.
@@ -950,26 +1505,80 @@ public class MergePDF {
      */
     private static final String CONFIG_KEY_LOG_DEBUG = "application.log.debug";
     private static final String CONFIG_KEY_DISPLAY_PROGESS = "application.display.progress";
+    private static final String CONFIG_KEY_DISPLAY_PROGESS_INTERVAL = "application.display.progress.interval";
     private static final String CONFIG_KEY_INPUT_DIR = "paths.input.directory";
     private static final String CONFIG_KEY_INPUT_RECURSIVE_SEARCH = "paths.input.recursive_search";
+    private static final String CONFIG_KEY_INPUT_STREAMING = "paths.input.streaming";
+    private static final String CONFIG_KEY_INPUT_SORTED = "paths.input.sorted";
+    private static final String CONFIG_KEY_INPUT_LIST = "paths.input.list";
+    private static final String CONFIG_KEY_INPUT_ORDER = "paths.input.order";
+    private static final String CONFIG_KEY_INPUT_PAGES = "paths.input.pages";
+    private static final String CONFIG_KEY_SERVER_PORT = "server.port";
+    private static final String CONFIG_KEY_SERVER_REQUESTS = "server.requests";
+    private static final String CONFIG_KEY_INPUT_WATCH = "paths.input.watch";
+    private static final String CONFIG_KEY_INPUT_WATCH_WINDOW = "paths.input.watch.window";
+    private static final String CONFIG_KEY_INPUT_WATCH_STABLE = "paths.input.watch.stable";
+    private static final String CONFIG_KEY_INPUT_WATCH_DONE = "paths.input.watch.done";
     private static final String CONFIG_KEY_OUTPUT_DIR = "paths.output.directory";
     private static final String CONFIG_KEY_OUTPUT_LOG_NAME = "output.log.name";
+    private static final String CONFIG_KEY_OUTPUT_LOG_MANIFEST = "output.log.manifest";
     private static final String CONFIG_KEY_OUTPUT_PDF_NAME = "output.pdf.name";
     private static final String CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_REGEX = "output.pdf.id.split.regex";
     private static final String CONFIG_KEY_OUTPUT_PDF_ID_SPLIT_IDX = "output.pdf.id.split.index";
     private static final String CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_FROM = "output.pdf.id.extract.from";
     private static final String CONFIG_KEY_OUTPUT_PDF_ID_EXTRACT_LENGTH = "output.pdf.id.extract.len";
+    private static final String CONFIG_KEY_OUTPUT_PDF_GROUPING = "output.pdf.grouping";
+    private static final String CONFIG_KEY_OUTPUT_PDF_GROUPING_THREADS = "output.pdf.grouping.threads";
+    private static final String CONFIG_KEY_OUTPUT_PDF_ROLLOVER_PAGES = "output.pdf.rollover.pages";
+    private static final String CONFIG_KEY_OUTPUT_PDF_ROLLOVER_SIZE = "output.pdf.rollover.size";
+    private static final String CONFIG_KEY_OUTPUT_PDF_SHARDS = "output.pdf.shards";
+    private static final String CONFIG_KEY_OUTPUT_PDF_TREE_FANIN = "output.pdf.tree.fanin";
+    private static final String CONFIG_KEY_OUTPUT_PDF_TREE_THREADS = "output.pdf.tree.threads";
+    private static final String CONFIG_KEY_OUTPUT_PDF_TREE_TEMP_LIMIT = "output.pdf.tree.templimit";
+    private static final String CONFIG_KEY_OUTPUT_PDF_APPEND = "output.pdf.append";
+    private static final String CONFIG_KEY_OUTPUT_PDF_CHECKPOINT = "output.pdf.checkpoint";
+    private static final String CONFIG_KEY_OUTPUT_PDF_RESUME = "output.pdf.resume";
+    private static final String CONFIG_KEY_OUTPUT_PDF_BUFFER = "output.pdf.buffer";
+    private static final String CONFIG_KEY_OUTPUT_PDF_SYNC = "output.pdf.sync";
+    private static final String CONFIG_KEY_OUTPUT_PDF_COMPACT = "output.pdf.compact";
+    private static final String CONFIG_KEY_OUTPUT_PDF_COMPACT_LEVEL = "output.pdf.compact.level";
     private static final String CONFIG_KEY_MERGE_PDF_RESOURCES_OPTIMIZING = "merge.pdf.res.optimizing";
+    private static final String CONFIG_KEY_MERGE_PDF_RES_CACHE = "merge.pdf.res.cache";
+    private static final String CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_AGE = "merge.pdf.res.cache.maxage";
+    private static final String CONFIG_KEY_MERGE_PDF_RES_CACHE_MAX_ENTRIES = "merge.pdf.res.cache.maxentries";
+    private static final String CONFIG_KEY_MERGE_PDF_RES_TABLE = "merge.pdf.res.table";
+    private static final String CONFIG_KEY_MERGE_PDF_RES_TABLE_OFFHEAP = "merge.pdf.res.table.offheap";
+    private static final String CONFIG_KEY_MERGE_PDF_PREFLIGHT = "merge.pdf.preflight";
+    private static final String CONFIG_KEY_MERGE_PDF_PREFLIGHT_INDEX = "merge.pdf.preflight.index";
+    private static final String CONFIG_KEY_MERGE_PDF_PREFLIGHT_THREADS = "merge.pdf.preflight.threads";
+    private static final String CONFIG_KEY_MERGE_PDF_LOW_MEMORY = "merge.pdf.input.lowmemory";
+    private static final String CONFIG_KEY_MERGE_PDF_MAP_WINDOW = "merge.pdf.input.mapwindow";
+    private static final String CONFIG_KEY_MERGE_PDF_PREFETCH_THREADS = "merge.pdf.prefetch.threads";
+    private static final String CONFIG_KEY_MERGE_PDF_PREFETCH_DEPTH = "merge.pdf.prefetch.depth";
+    private static final String CONFIG_KEY_MERGE_PDF_MEMORY_BUDGET = "merge.pdf.memory.budget";
     private static final String CONFIG_FLAG_TRUE = "T";
     private static final String CONFIG_FLAG_FALSE = "F";
-    private static final String CONFIG_FLAG_PDF_EXTENSION = ".pdf";
-    private static final String CONFIG_FLAG_LOG_EXTENSION = ".log";
+    private static final int CONFIG_FLAG_WATCH_WINDOW_MS = 10000;
+    private static final int CONFIG_FLAG_WATCH_STABLE_MS = 2000;
     private static final String CONFIG_FLAG_OUTPUT_LOG_NAME = "merge.log";
+    private static final int CONFIG_FLAG_PREFETCH_DEPTH = 4;
+    private static final int CONFIG_FLAG_MEMORY_BUDGET_MB = 0;
+    private static final int CONFIG_FLAG_OUTPUT_BUFFER_KB = 1024;
+    private static final int CONFIG_FLAG_OUTPUT_BUFFER_MAX_KB = 1024 * 1024;
+    private static final String CONFIG_FLAG_OUTPUT_SYNC = "none";
+    private static final String CONFIG_FLAG_INPUT_ORDER = "listed";
+    private static final int CONFIG_FLAG_COMPACT_LEVEL = 9;
+    private static final int CONFIG_FLAG_MAP_WINDOW_MB = 1024;
+    private static final int CONFIG_FLAG_MAP_WINDOW_MAX_MB = 2047;
+    private static final int CONFIG_FLAG_RES_CACHE_MAX_AGE_DAYS = 30;
+    private static final int CONFIG_FLAG_RES_CACHE_MAX_ENTRIES = 1000000;
+    private static final int CONFIG_FLAG_RES_TABLE_MB = 32;
+    private static final int CONFIG_FLAG_PROGRESS_INTERVAL_SECONDS = 5;
 
     /**
      * A constant for time formatting
      */
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+    private static final String CONFIG_FLAG_DATE_FORMAT = "dd/MM/yyyy HH:mm:ss";
 
     /**
      * Log4J Logger instance.
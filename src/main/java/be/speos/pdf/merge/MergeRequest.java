@@ -0,0 +1,1449 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.File;
+
+/**
+ * The configuration of a merge job.
+ * <p>
+ * A request is immutable : it can be shared by any number of {@link MergeJob}
+ * instances running concurrently. Requests are created through a
+ * {@link Builder}, which starts from the default configuration of the
+ * application and checks the consistency of the options when the request is
+ * built.
+ * </p>
+ *
+ * <pre>
+ * MergeRequest request = new MergeRequest.Builder("/data/input", "/data/output")
+ *         .outputPdfName("merged.pdf")
+ *         .optimizingResources(true)
+ *         .build();
+ * MergeResult result = executor.submit(new MergeJob(request)).get();
+ * </pre>
+ */
+public final class MergeRequest {
+
+    /**
+     * When the merged PDF files are forced to disk.
+     */
+    public enum SyncPolicy {
+        /**
+         * Never : the operating system writes them when it sees fit. A power
+         * failure can lose a merged PDF already renamed to its final name.
+         */
+        NONE,
+
+        /**
+         * The content of a merged PDF is forced to disk before it is renamed to
+         * its final name.
+         */
+        DATA,
+
+        /**
+         * The content and the metadata of a merged PDF are forced to disk before
+         * it is renamed, and its directory once it has been renamed.
+         */
+        FULL
+    }
+
+    /**
+     * The order the input PDFs are merged in.
+     */
+    public enum InputOrder {
+        /**
+         * The order the PDFs are listed in the input list, or found in the
+         * input directory.
+         */
+        LISTED,
+
+        /**
+         * By path.
+         */
+        NAME,
+
+        /**
+         * By path, the numbers within the names being compared by their value :
+         * 'file_9.pdf' comes before 'file_10.pdf'.
+         */
+        NATURAL,
+
+        /**
+         * By last modification time, oldest first.
+         */
+        MTIME,
+
+        /**
+         * By size, smallest first.
+         */
+        SIZE
+    }
+
+    /**
+     * Create a new request from its builder.
+     *
+     * @param builder The builder holding the configuration.
+     */
+    private MergeRequest(final Builder builder) {
+        this.inputDirectory = builder.inputDirectory;
+        this.outputDirectory = builder.outputDirectory;
+        this.recursiveSearchEnabled = builder.recursiveSearchEnabled;
+        this.streamingEnabled = builder.streamingEnabled;
+        this.sortedEnabled = builder.sortedEnabled;
+        this.inputList = builder.inputList;
+        this.inputOrder = builder.inputOrder;
+        this.inputPages = builder.inputPages;
+        this.watchEnabled = builder.watchEnabled;
+        this.watchWindow = builder.watchWindow;
+        this.watchStable = builder.watchStable;
+        this.watchDoneDirectory = builder.watchDoneDirectory;
+        this.outputPdfFileName = builder.outputPdfFileName;
+        this.outputLogFileName = builder.outputLogFileName;
+        this.outputPdfIdSplitRegex = builder.outputPdfIdSplitRegex;
+        this.outputPdfIdSplitIndex = builder.outputPdfIdSplitIndex;
+        this.outputPdfIdExtractFrom = builder.outputPdfIdExtractFrom;
+        this.outputPdfIdExtractLength = builder.outputPdfIdExtractLength;
+        this.groupingEnabled = builder.groupingEnabled;
+        this.groupingThreads = builder.groupingThreads;
+        this.rolloverPages = builder.rolloverPages;
+        this.rolloverSize = builder.rolloverSize;
+        this.shards = builder.shards;
+        this.treeFanIn = builder.treeFanIn;
+        this.treeThreads = builder.treeThreads;
+        this.treeTempLimit = builder.treeTempLimit;
+        this.appendEnabled = builder.appendEnabled;
+        this.checkpointFiles = builder.checkpointFiles;
+        this.resumeEnabled = builder.resumeEnabled;
+        this.outputBufferSize = builder.outputBufferSize;
+        this.outputSyncPolicy = builder.outputSyncPolicy;
+        this.compactEnabled = builder.compactEnabled;
+        this.compactLevel = builder.compactLevel;
+        this.manifestEnabled = builder.manifestEnabled;
+        this.optimizingResourcesEnabled = builder.optimizingResourcesEnabled;
+        this.resCacheFile = builder.resCacheFile;
+        this.resCacheMaxAge = builder.resCacheMaxAge;
+        this.resCacheMaxEntries = builder.resCacheMaxEntries;
+        this.resTableMemory = builder.resTableMemory;
+        this.resTableOffHeapEnabled = builder.resTableOffHeapEnabled;
+        this.preflightEnabled = builder.preflightEnabled;
+        this.preflightIndexFile = builder.preflightIndexFile;
+        this.preflightThreads = builder.preflightThreads;
+        this.lowMemoryEnabled = builder.lowMemoryEnabled;
+        this.mapWindowSize = builder.mapWindowSize;
+        this.prefetchThreads = builder.prefetchThreads;
+        this.prefetchDepth = builder.prefetchDepth;
+        this.memoryBudget = builder.memoryBudget;
+        this.displayProgressEnabled = builder.displayProgressEnabled;
+        this.displayProgressInterval = builder.displayProgressInterval;
+    }
+
+    /**
+     * Get the input directory to search for PDFs.
+     *
+     * @return The fully qualified input directory, ending with a separator.
+     */
+    public String getInputDirectory() {
+        return inputDirectory;
+    }
+
+    /**
+     * Get the output directory the merged PDFs and LOG files are written to.
+     *
+     * @return The fully qualified output directory, ending with a separator.
+     */
+    public String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Is the output directory the input directory ?
+     *
+     * @return true if the merged PDFs are written into the input directory.
+     */
+    public boolean isOutputDirectoryInputDirectory() {
+        return inputDirectory.equalsIgnoreCase(outputDirectory);
+    }
+
+    /**
+     * Are the sub-directories of the input directory searched for PDFs ?
+     *
+     * @return true if the input directory is searched recursively.
+     */
+    public boolean isRecursiveSearchEnabled() {
+        return recursiveSearchEnabled;
+    }
+
+    /**
+     * Are PDFs merged while the input directory is being read ?
+     *
+     * @return true if the input directory is streamed.
+     */
+    public boolean isStreamingEnabled() {
+        return streamingEnabled;
+    }
+
+    /**
+     * Are the entries of every input directory sorted by name when they are
+     * merged while being read ?
+     *
+     * @return true if the streamed entries are sorted.
+     */
+    public boolean isSortedEnabled() {
+        return sortedEnabled;
+    }
+
+    /**
+     * Get the file listing the PDFs to merge.
+     *
+     * @return The path of the input list, null if the PDFs of the input
+     *         directory are merged.
+     */
+    public String getInputList() {
+        return inputList;
+    }
+
+    /**
+     * Get the order the input PDFs are merged in.
+     *
+     * @return The order.
+     */
+    public InputOrder getInputOrder() {
+        return inputOrder;
+    }
+
+    /**
+     * Get the pages of every input PDF to be merged, unless the input list gives
+     * other pages for a PDF.
+     *
+     * @return The page selection, such as '1' or '2-', null to merge every page.
+     */
+    public String getInputPages() {
+        return inputPages;
+    }
+
+    /**
+     * Is the input directory watched for arriving PDFs ?
+     *
+     * @return true if the job runs until it is interrupted.
+     */
+    public boolean isWatchEnabled() {
+        return watchEnabled;
+    }
+
+    /**
+     * Get the time during which arriving PDFs are collected into the same
+     * batch.
+     *
+     * @return The batch window in milliseconds.
+     */
+    public int getWatchWindow() {
+        return watchWindow;
+    }
+
+    /**
+     * Get the time during which an arrived PDF must not change before it is
+     * merged.
+     *
+     * @return The stability delay in milliseconds.
+     */
+    public int getWatchStable() {
+        return watchStable;
+    }
+
+    /**
+     * Get the directory the PDFs of every batch are moved to once merged.
+     *
+     * @return The fully qualified done directory, null if the input directory is
+     *         not watched.
+     */
+    public String getWatchDoneDirectory() {
+        return watchDoneDirectory;
+    }
+
+    /**
+     * Get the name of the merged PDF.
+     *
+     * @return The name of the merged PDF, null if it is built from the name of
+     *         the first input PDF.
+     */
+    public String getOutputPdfFileName() {
+        return outputPdfFileName;
+    }
+
+    /**
+     * Get the name of the LOG file.
+     *
+     * @return The name of the LOG file, null if it is built from the name of the
+     *         merged PDF.
+     */
+    public String getOutputLogFileName() {
+        return outputLogFileName;
+    }
+
+    /**
+     * Is the merged PDF named after the first input PDF ?
+     *
+     * @return true if neither a name nor an identifier extraction is configured.
+     */
+    public boolean isOutputPdfFileNameBasedOnInput() {
+        return outputPdfFileName == null && !isOutputPdfFileNameBasedOnIdExtract() && !isOutputPdfFileNameBasedOnIdSplit();
+    }
+
+    /**
+     * Is the merged PDF named after a part of the input PDF name once split ?
+     *
+     * @return true if a split of the input PDF name is configured.
+     */
+    public boolean isOutputPdfFileNameBasedOnIdSplit() {
+        return outputPdfFileName == null && outputPdfIdExtractFrom == 0 && outputPdfIdSplitRegex != null;
+    }
+
+    /**
+     * Get the regular expression splitting the input PDF name.
+     *
+     * @return The regular expression.
+     */
+    public String getOutputPdfIdSplitRegex() {
+        return outputPdfIdSplitRegex;
+    }
+
+    /**
+     * Get the index of the part of the split input PDF name naming the merged
+     * PDF.
+     *
+     * @return The index, starting at 1.
+     */
+    public int getOutputPdfIdSplitIndex() {
+        return outputPdfIdSplitIndex;
+    }
+
+    /**
+     * Is the merged PDF named after an extract of the input PDF name ?
+     *
+     * @return true if an extract of the input PDF name is configured.
+     */
+    public boolean isOutputPdfFileNameBasedOnIdExtract() {
+        return outputPdfFileName == null && outputPdfIdExtractFrom > 0;
+    }
+
+    /**
+     * Get the first character of the extract of the input PDF name.
+     *
+     * @return The index of the character, starting at 1.
+     */
+    public int getOutputPdfIdExtractFrom() {
+        return outputPdfIdExtractFrom;
+    }
+
+    /**
+     * Get the length of the extract of the input PDF name.
+     *
+     * @return The number of characters.
+     */
+    public int getOutputPdfIdExtractLength() {
+        return outputPdfIdExtractLength;
+    }
+
+    /**
+     * Is one merged PDF written per group of input PDFs sharing the same
+     * identifier ?
+     *
+     * @return true if the input PDFs are grouped.
+     */
+    public boolean isGroupingEnabled() {
+        return groupingEnabled;
+    }
+
+    /**
+     * Get the number of groups merged concurrently.
+     *
+     * @return The number of groups.
+     */
+    public int getGroupingThreads() {
+        return groupingThreads;
+    }
+
+    /**
+     * Get the number of pages after which the merged PDF rolls over to a new
+     * part.
+     *
+     * @return The number of pages, 0 if disabled.
+     */
+    public int getRolloverPages() {
+        return rolloverPages;
+    }
+
+    /**
+     * Get the size after which the merged PDF rolls over to a new part.
+     *
+     * @return The size in bytes, 0 if disabled.
+     */
+    public long getRolloverSize() {
+        return rolloverSize;
+    }
+
+    /**
+     * Is the merged PDF split into parts when a threshold is reached ?
+     *
+     * @return true if a page or size rollover threshold is configured.
+     */
+    public boolean isRolloverEnabled() {
+        return rolloverPages > 0 || rolloverSize > 0;
+    }
+
+    /**
+     * Get the number of page balanced parts merged concurrently.
+     *
+     * @return The number of parts.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Are the input PDFs merged as a tree of intermediate PDFs ?
+     *
+     * @return true if the tree merge is enabled.
+     */
+    public boolean isTreeEnabled() {
+        return treeFanIn > 0;
+    }
+
+    /**
+     * Get the number of PDFs merged into every intermediate PDF of a tree
+     * merge, and the maximum number of intermediate PDFs merged into the merged
+     * PDF.
+     *
+     * @return The fan-in, 0 if the tree merge is disabled.
+     */
+    public int getTreeFanIn() {
+        return treeFanIn;
+    }
+
+    /**
+     * Get the number of intermediate PDFs of a tree merge written concurrently.
+     *
+     * @return The number of threads.
+     */
+    public int getTreeThreads() {
+        return treeThreads;
+    }
+
+    /**
+     * Get the maximum size of the intermediate PDFs of a tree merge kept on
+     * disk at the same time.
+     *
+     * @return The limit in bytes, 0 if unlimited.
+     */
+    public long getTreeTempLimit() {
+        return treeTempLimit;
+    }
+
+    /**
+     * Are the new PDFs added at the end of an existing merged PDF ?
+     *
+     * @return true if appending is enabled.
+     */
+    public boolean isAppendEnabled() {
+        return appendEnabled;
+    }
+
+    /**
+     * Get the number of input PDFs per committed segment.
+     *
+     * @return The number of PDFs, 0 if checkpoints are disabled.
+     */
+    public int getCheckpointFiles() {
+        return checkpointFiles;
+    }
+
+    /**
+     * Is an interrupted checkpointed merge resumed ?
+     *
+     * @return true if resuming is enabled.
+     */
+    public boolean isResumeEnabled() {
+        return resumeEnabled;
+    }
+
+    /**
+     * Get the size of the buffer the merged PDF files are written through.
+     *
+     * @return The size of the buffer in bytes.
+     */
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+
+    /**
+     * Get when the merged PDF files are forced to disk.
+     *
+     * @return The synchronization policy.
+     */
+    public SyncPolicy getOutputSyncPolicy() {
+        return outputSyncPolicy;
+    }
+
+    /**
+     * Are the merged PDF files written in compact mode, with compressed cross
+     * reference and object streams and their streams deflated again ?
+     *
+     * @return true if the compact mode is enabled.
+     */
+    public boolean isCompactEnabled() {
+        return compactEnabled;
+    }
+
+    /**
+     * Get the compression level of the compact mode.
+     *
+     * @return The compression level, from 1 (fastest) to 9 (smallest).
+     */
+    public int getCompactLevel() {
+        return compactLevel;
+    }
+
+    /**
+     * Is a manifest, with its binary index, written next to every merged PDF
+     * file ?
+     *
+     * @return true if the manifest is enabled.
+     */
+    public boolean isManifestEnabled() {
+        return manifestEnabled;
+    }
+
+    /**
+     * Are resources kept only once within the merged PDF ?
+     *
+     * @return true if resources are optimized.
+     */
+    public boolean isOptimizingResourcesEnabled() {
+        return optimizingResourcesEnabled;
+    }
+
+    /**
+     * Are the page counts of the input PDFs read before they are merged ?
+     *
+     * @return true if the pre-flight scan is enabled.
+     */
+    public boolean isPreflightEnabled() {
+        return preflightEnabled;
+    }
+
+    /**
+     * Get the file the pre-flight index is kept in from one run to the other.
+     *
+     * @return The path of the index, null if not kept.
+     */
+    public String getPreflightIndexFile() {
+        return preflightIndexFile;
+    }
+
+    /**
+     * Get the number of input PDFs scanned concurrently by the pre-flight scan.
+     *
+     * @return The number of threads.
+     */
+    public int getPreflightThreads() {
+        return preflightThreads;
+    }
+
+    /**
+     * Get the file of the resource fingerprint index.
+     *
+     * @return The path of the index, null if not used.
+     */
+    public String getResCacheFile() {
+        return resCacheFile;
+    }
+
+    /**
+     * Get the number of days after which an unused resource fingerprint is
+     * removed.
+     *
+     * @return The number of days, 0 if fingerprints are kept regardless of their
+     *         age.
+     */
+    public int getResCacheMaxAge() {
+        return resCacheMaxAge;
+    }
+
+    /**
+     * Get the maximum number of entries of the resource fingerprint index.
+     *
+     * @return The number of entries.
+     */
+    public int getResCacheMaxEntries() {
+        return resCacheMaxEntries;
+    }
+
+    /**
+     * Get the memory the table of the resources copied into a merged PDF may
+     * use.
+     *
+     * @return The size of the table in bytes.
+     */
+    public long getResTableMemory() {
+        return resTableMemory;
+    }
+
+    /**
+     * Is the table of the resources copied into a merged PDF allocated outside
+     * of the heap ?
+     *
+     * @return true if the table is off-heap.
+     */
+    public boolean isResTableOffHeapEnabled() {
+        return resTableOffHeapEnabled;
+    }
+
+    /**
+     * Are PDFs read partially, only loading the objects needed by the pages
+     * being merged ?
+     *
+     * @return true if the low memory mode is enabled.
+     */
+    public boolean isLowMemoryEnabled() {
+        return lowMemoryEnabled;
+    }
+
+    /**
+     * Get the size of the largest PDF read through a memory mapped file in low
+     * memory mode.
+     *
+     * @return The size in bytes.
+     */
+    public long getMapWindowSize() {
+        return mapWindowSize;
+    }
+
+    /**
+     * Get the number of threads opening PDFs ahead of the writer.
+     *
+     * @return The number of threads, 0 if PDFs are opened by the writer thread.
+     */
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    /**
+     * Get the maximum number of PDFs opened ahead of the writer.
+     *
+     * @return The number of PDFs.
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Get the heap the merge adapts itself not to exceed.
+     *
+     * @return The budget in bytes, 0 if the merge does not adapt to the heap.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Is the progress displayed on screen ?
+     *
+     * @return true if the progress is displayed.
+     */
+    public boolean isDisplayProgressEnabled() {
+        return displayProgressEnabled;
+    }
+
+    /**
+     * Get the interval between two progress displays.
+     *
+     * @return The interval in milliseconds.
+     */
+    public long getDisplayProgressInterval() {
+        return displayProgressInterval;
+    }
+
+    /**
+     * The builder of merge requests.
+     * <p>
+     * Every option starts with the default value of the application. A builder
+     * is not thread-safe, but can build any number of requests.
+     * </p>
+     */
+    public static final class Builder {
+
+        /**
+         * Create a new builder.
+         *
+         * @param inputDirectory  The input directory to search for PDFs.
+         * @param outputDirectory The output directory the merged PDFs and LOG
+         *                        files are written to.
+         */
+        public Builder(final String inputDirectory, final String outputDirectory) {
+            this.inputDirectory = qualifyDirectory(inputDirectory);
+            this.outputDirectory = qualifyDirectory(outputDirectory);
+        }
+
+        /**
+         * Search the sub-directories of the input directory. Default is true.
+         *
+         * @param enabled Should sub-directories be searched ?
+         * @return This builder.
+         */
+        public Builder recursiveSearch(final boolean enabled) {
+            this.recursiveSearchEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Merge PDFs while the input directory is being read. Default is false.
+         *
+         * @param enabled Should the input directory be streamed ?
+         * @param sorted  Should the entries of every directory be sorted by name ?
+         * @return This builder.
+         */
+        public Builder streaming(final boolean enabled, final boolean sorted) {
+            this.streamingEnabled = enabled;
+            this.sortedEnabled = sorted;
+            return this;
+        }
+
+        /**
+         * Choose the input PDFs and their order. Default is every PDF of the
+         * input directory, in the order they are found.
+         *
+         * @param listFile The file listing the PDFs to merge, with their pages,
+         *                 instead of the PDFs of the input directory. Relative
+         *                 paths are read from the input directory. null merges
+         *                 the PDFs of the input directory.
+         * @param order    The order the PDFs are merged in.
+         * @return This builder.
+         */
+        public Builder input(final String listFile, final InputOrder order) {
+            this.inputList = listFile == null || listFile.isEmpty() ? null : listFile;
+            this.inputOrder = order;
+            return this;
+        }
+
+        /**
+         * Merge only some pages of every input PDF. Default is every page.
+         * <p>
+         * The pages given to a PDF by the input list prevail. The PDFs having
+         * selected pages are read partially, so that the other pages are never
+         * read.
+         * </p>
+         *
+         * @param selection The pages to merge, such as '1', '2-' or '1,3-5'. null
+         *                  merges every page.
+         * @return This builder.
+         */
+        public Builder inputPages(final String selection) {
+            this.inputPages = selection == null || selection.trim().isEmpty() ? null : selection.trim();
+            return this;
+        }
+
+        /**
+         * Watch the input directory and merge the arriving PDFs by batches until
+         * the job is interrupted. Default is disabled.
+         *
+         * @param doneDirectory The directory the PDFs of every batch are moved to
+         *                      once merged, null to disable watching.
+         * @param window        The batch window in milliseconds.
+         * @param stable        The stability delay in milliseconds.
+         * @return This builder.
+         */
+        public Builder watch(final String doneDirectory, final int window, final int stable) {
+            this.watchEnabled = doneDirectory != null;
+            this.watchDoneDirectory = doneDirectory == null ? null : qualifyDirectory(doneDirectory);
+            this.watchWindow = window;
+            this.watchStable = stable;
+            return this;
+        }
+
+        /**
+         * Name the merged PDF. Default is the name of the first input PDF.
+         *
+         * @param fileName The name of the merged PDF.
+         * @return This builder.
+         */
+        public Builder outputPdfName(final String fileName) {
+            this.outputPdfFileName = fileName;
+            return this;
+        }
+
+        /**
+         * Name the merged PDF after a part of the input PDF name once split.
+         *
+         * @param regex The regular expression splitting the input PDF name.
+         * @param index The index of the part, starting at 1.
+         * @return This builder.
+         */
+        public Builder outputPdfIdSplit(final String regex, final int index) {
+            this.outputPdfIdSplitRegex = regex;
+            this.outputPdfIdSplitIndex = index;
+            return this;
+        }
+
+        /**
+         * Name the merged PDF after an extract of the input PDF name.
+         *
+         * @param from   The first character of the extract, starting at 1.
+         * @param length The number of characters of the extract.
+         * @return This builder.
+         */
+        public Builder outputPdfIdExtract(final int from, final int length) {
+            this.outputPdfIdExtractFrom = from;
+            this.outputPdfIdExtractLength = length;
+            return this;
+        }
+
+        /**
+         * Name the LOG file. Default is 'merge.log', or the name of the merged
+         * PDF when one LOG file is written per group or per batch.
+         *
+         * @param fileName The name of the LOG file.
+         * @return This builder.
+         */
+        public Builder outputLogName(final String fileName) {
+            this.outputLogFileName = fileName;
+            return this;
+        }
+
+        /**
+         * Write one merged PDF per group of input PDFs sharing the same
+         * identifier. Default is disabled.
+         *
+         * @param enabled Should the input PDFs be grouped ?
+         * @param threads The number of groups merged concurrently.
+         * @return This builder.
+         */
+        public Builder grouping(final boolean enabled, final int threads) {
+            this.groupingEnabled = enabled;
+            this.groupingThreads = threads;
+            return this;
+        }
+
+        /**
+         * Roll the merged PDF over to a new part when a threshold is reached.
+         * Default is disabled.
+         *
+         * @param pages The number of pages per part, 0 if disabled.
+         * @param size  The size in bytes per part, 0 if disabled.
+         * @return This builder.
+         */
+        public Builder rollover(final int pages, final long size) {
+            this.rolloverPages = pages;
+            this.rolloverSize = size;
+            return this;
+        }
+
+        /**
+         * Split the input PDFs into page balanced parts merged concurrently.
+         * Default is 1.
+         *
+         * @param shards The number of parts.
+         * @return This builder.
+         */
+        public Builder shards(final int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Merge the input PDFs as a tree : chunks of input PDFs are merged
+         * concurrently into intermediate PDFs, which are merged the same way
+         * level after level until they can be merged into the merged PDF.
+         * Default is disabled.
+         *
+         * @param fanIn     The number of PDFs merged into every intermediate
+         *                  PDF and into the merged PDF, 0 to disable the tree
+         *                  merge.
+         * @param nbThreads The number of intermediate PDFs written
+         *                  concurrently.
+         * @param tempLimit The maximum size in bytes of the intermediate PDFs
+         *                  kept on disk at the same time, 0 if unlimited.
+         * @return This builder.
+         */
+        public Builder tree(final int fanIn, final int nbThreads, final long tempLimit) {
+            this.treeFanIn = fanIn;
+            this.treeThreads = nbThreads;
+            this.treeTempLimit = tempLimit;
+            return this;
+        }
+
+        /**
+         * Add the new PDFs at the end of an existing merged PDF. Default is
+         * disabled.
+         *
+         * @param enabled Should the new PDFs be appended ?
+         * @return This builder.
+         */
+        public Builder append(final boolean enabled) {
+            this.appendEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Merge through committed segments. Default is disabled.
+         *
+         * @param files  The number of input PDFs per segment, 0 if disabled.
+         * @param resume Should an interrupted merge be resumed ?
+         * @return This builder.
+         */
+        public Builder checkpoint(final int files, final boolean resume) {
+            this.checkpointFiles = files;
+            this.resumeEnabled = resume;
+            return this;
+        }
+
+        /**
+         * Write the merged PDF files through a buffer. Default is a buffer of
+         * 1 MB, without synchronization.
+         *
+         * @param bufferSize The size of the buffer in bytes.
+         * @param syncPolicy When the merged PDF files are forced to disk.
+         * @return This builder.
+         */
+        public Builder output(final int bufferSize, final SyncPolicy syncPolicy) {
+            this.outputBufferSize = bufferSize;
+            this.outputSyncPolicy = syncPolicy;
+            return this;
+        }
+
+        /**
+         * Write the merged PDF files in compact mode : the cross reference and
+         * the objects are written as compressed streams, and the streams not or
+         * poorly compressed are deflated again. Ignored when appending. Default
+         * is disabled, with level 9.
+         *
+         * @param enabled Should the merged PDF files be compacted ?
+         * @param level   The compression level, from 1 (fastest) to 9
+         *                (smallest).
+         * @return This builder.
+         */
+        public Builder compact(final boolean enabled, final int level) {
+            this.compactEnabled = enabled;
+            this.compactLevel = level;
+            return this;
+        }
+
+        /**
+         * Write next to every merged PDF file a manifest describing, for every
+         * input PDF, its pages and bytes within the merged PDF, its content hash
+         * and its timings, with a binary index of the manifest. Default is
+         * disabled.
+         *
+         * @param enabled Should the manifest be written ?
+         * @return This builder.
+         */
+        public Builder manifest(final boolean enabled) {
+            this.manifestEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Keep resources only once within the merged PDF. Default is disabled.
+         *
+         * @param enabled Should resources be optimized ?
+         * @return This builder.
+         */
+        public Builder optimizingResources(final boolean enabled) {
+            this.optimizingResourcesEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Keep the resource fingerprints from one run to the other. Default is
+         * disabled.
+         *
+         * @param file       The file of the index, null if not used.
+         * @param maxAge     The number of days after which an unused fingerprint
+         *                   is removed, 0 to keep fingerprints regardless of their
+         *                   age.
+         * @param maxEntries The maximum number of entries of the index.
+         * @return This builder.
+         */
+        public Builder resCache(final String file, final int maxAge, final int maxEntries) {
+            this.resCacheFile = file == null || file.isEmpty() ? null : file;
+            this.resCacheMaxAge = maxAge;
+            this.resCacheMaxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Size the table of the resources copied into every merged PDF when
+         * resources are optimized. Default is 32 MB on the heap.
+         * <p>
+         * Once the table is full, the resources met least recently are
+         * forgotten and copied again if they are met later.
+         * </p>
+         *
+         * @param memory  The memory the table may use in bytes.
+         * @param offHeap Should the table be allocated outside of the heap ?
+         * @return This builder.
+         */
+        public Builder resTable(final long memory, final boolean offHeap) {
+            this.resTableMemory = memory;
+            this.resTableOffHeapEnabled = offHeap;
+            return this;
+        }
+
+        /**
+         * Read the page count of every input PDF before merging it, from its
+         * page tree root only. Shards always read the page counts. Default is
+         * disabled.
+         *
+         * @param enabled   Should the page counts be read ?
+         * @param indexFile The file the page counts are kept in from one run to
+         *                  the other, null if not kept.
+         * @param nbThreads The number of input PDFs scanned concurrently.
+         * @return This builder.
+         */
+        public Builder preflight(final boolean enabled, final String indexFile, final int nbThreads) {
+            this.preflightEnabled = enabled;
+            this.preflightIndexFile = indexFile == null || indexFile.isEmpty() ? null : indexFile;
+            this.preflightThreads = nbThreads;
+            return this;
+        }
+
+        /**
+         * Read the PDFs partially. Default is disabled.
+         *
+         * @param enabled       Should PDFs be read partially ?
+         * @param mapWindowSize The size in bytes of the largest PDF read through
+         *                      a memory mapped file.
+         * @return This builder.
+         */
+        public Builder lowMemory(final boolean enabled, final long mapWindowSize) {
+            this.lowMemoryEnabled = enabled;
+            this.mapWindowSize = mapWindowSize;
+            return this;
+        }
+
+        /**
+         * Open the PDFs ahead of the writer. Default is disabled.
+         *
+         * @param threads The number of threads opening PDFs, 0 if disabled.
+         * @param depth   The maximum number of PDFs opened ahead of the writer.
+         * @return This builder.
+         */
+        public Builder prefetch(final int threads, final int depth) {
+            this.prefetchThreads = threads;
+            this.prefetchDepth = depth;
+            return this;
+        }
+
+        /**
+         * Adapt the merge to the heap it uses. Default is disabled.
+         * <p>
+         * From three quarters of the budget, the PDFs are read partially and
+         * the read-ahead is limited to the next PDF. Once the budget is
+         * reached, the resources are no longer deduplicated.
+         * </p>
+         *
+         * @param budget The heap the merge should not exceed in bytes, 0 if
+         *               disabled.
+         * @return This builder.
+         */
+        public Builder memoryBudget(final long budget) {
+            this.memoryBudget = budget;
+            return this;
+        }
+
+        /**
+         * Display the progress on screen, with the merge rates and the remaining
+         * time, from a thread of its own. Default is disabled, every 5 seconds.
+         *
+         * @param enabled  Should the progress be displayed ?
+         * @param interval The interval between two displays in milliseconds.
+         * @return This builder.
+         */
+        public Builder displayProgress(final boolean enabled, final long interval) {
+            this.displayProgressEnabled = enabled;
+            this.displayProgressInterval = interval;
+            return this;
+        }
+
+        /**
+         * Build the request.
+         *
+         * @return The request.
+         * @throws IllegalArgumentException An option is out of its range or can
+         *                                  not be combined with another one.
+         */
+        public MergeRequest build() {
+            // Check the ranges
+            check(outputPdfIdSplitRegex == null || (!outputPdfIdSplitRegex.isEmpty() && outputPdfIdSplitIndex > 0), "The split of the input PDF name needs an expression and an index > 0.");
+            check(outputPdfIdExtractFrom == 0 || (outputPdfIdExtractFrom > 0 && outputPdfIdExtractLength > 0), "The extract of the input PDF name needs a start and a length > 0.");
+            check(groupingThreads > 0, "The number of groups merged concurrently must be > 0.");
+            check(rolloverPages >= 0 && rolloverSize >= 0, "The rollover thresholds must be >= 0.");
+            check(shards > 0, "The number of shards must be > 0.");
+            check(treeFanIn == 0 || treeFanIn >= 2, "The fan-in of the tree merge must be >= 2, or 0 to disable it.");
+            check(treeThreads > 0 && treeTempLimit >= 0, "The number of tree merge threads must be > 0 and its temporary space limit >= 0.");
+            check(checkpointFiles >= 0, "The number of PDFs per checkpoint must be >= 0.");
+            check(outputBufferSize > 0 && outputSyncPolicy != null, "The output buffer size must be > 0 and a synchronization policy is needed.");
+            check(compactLevel >= 1 && compactLevel <= 9, "The compression level of the compact mode must be between 1 and 9.");
+            check(watchWindow >= 0 && watchStable >= 0, "The batch window and the stability delay must be >= 0.");
+            check(resCacheMaxAge >= 0 && resCacheMaxEntries > 0, "The maximum age of the resource fingerprints must be >= 0 and their maximum number > 0.");
+            check(displayProgressInterval > 0, "The progress display interval must be > 0.");
+            check(preflightThreads > 0, "The number of pre-flight threads must be > 0.");
+            check(mapWindowSize >= 0, "The memory map window must be >= 0.");
+            check(prefetchThreads >= 0 && prefetchDepth > 0, "The number of prefetch threads must be >= 0 and the number of prefetched PDFs > 0.");
+            check(memoryBudget >= 0, "The memory budget must be >= 0.");
+
+            // Check the combinations
+            MergeRequest request = new MergeRequest(this);
+            check(!groupingEnabled || request.isOutputPdfFileNameBasedOnIdExtract() || request.isOutputPdfFileNameBasedOnIdSplit(), "One merged PDF per group needs an extract or a split of the input PDF name, without merged PDF name.");
+            check(shards == 1 || !(request.isRolloverEnabled() || groupingEnabled), "Shards can not be combined with a rollover threshold or with one merged PDF per group.");
+            check(!appendEnabled || !(groupingEnabled || request.isRolloverEnabled() || shards > 1), "Appending can not be combined with one merged PDF per group, a rollover threshold or shards.");
+            check(checkpointFiles == 0 || !(groupingEnabled || request.isRolloverEnabled() || shards > 1 || appendEnabled), "Checkpoints can not be combined with one merged PDF per group, a rollover threshold, shards or appending.");
+            check(treeFanIn == 0 || !(groupingEnabled || request.isRolloverEnabled() || shards > 1 || appendEnabled || checkpointFiles > 0), "The tree merge can not be combined with one merged PDF per group, a rollover threshold, shards, appending or checkpoints.");
+            check(!resumeEnabled || checkpointFiles > 0, "A merge can only be resumed when checkpoints are enabled.");
+            check(inputList == null || !(streamingEnabled || watchEnabled), "The input list can not be combined with streaming or watching the input directory.");
+            check(inputOrder == InputOrder.LISTED || !streamingEnabled, "The input order can not be combined with streaming the input directory.");
+            if (inputPages != null) PageSelection.parse(inputPages);
+            check(resCacheFile == null || optimizingResourcesEnabled, "The resource fingerprint index needs resources to be optimized.");
+            check(resTableMemory > 0, "The memory of the resource table must be > 0.");
+            check(!preflightEnabled || !(groupingEnabled || appendEnabled), "The pre-flight scan can not be combined with one merged PDF per group or appending.");
+            check(preflightIndexFile == null || preflightEnabled || shards > 1, "The pre-flight index needs the pre-flight scan or shards.");
+            check(!manifestEnabled || !(appendEnabled || checkpointFiles > 0 || treeFanIn > 0), "The manifest can not be combined with appending, checkpoints or the tree merge.");
+
+            // Check the directories
+            boolean inPlace = request.isOutputDirectoryInputDirectory() && request.isOutputPdfFileNameBasedOnInput();
+            check(!appendEnabled || !inPlace, "Appending needs a merged PDF name, or an output directory different from the input directory.");
+            check(checkpointFiles == 0 || !inPlace, "Checkpoints need a merged PDF name, or an output directory different from the input directory.");
+            check(!watchEnabled || !request.isOutputDirectoryInputDirectory(), "Watching the input directory needs an output directory different from the input directory.");
+            check(!watchEnabled || !(watchDoneDirectory.equalsIgnoreCase(inputDirectory) || (recursiveSearchEnabled && watchDoneDirectory.toLowerCase().startsWith(inputDirectory.toLowerCase()))), "The done directory can not be the input directory, nor one of its sub-directories when they are searched.");
+            return request;
+        }
+
+        /**
+         * Check a rule of the configuration.
+         *
+         * @param rule    The rule.
+         * @param message The message of the exception thrown if the rule is broken.
+         * @throws IllegalArgumentException The rule is broken.
+         */
+        private static void check(final boolean rule, final String message) {
+            if (!rule) throw new IllegalArgumentException(message);
+        }
+
+        /**
+         * Qualify a directory path.
+         *
+         * @param directory The directory path.
+         * @return The absolute directory path, ending with a separator.
+         */
+        private static String qualifyDirectory(final String directory) {
+            String qualifiedDirectory = new File(directory).getAbsolutePath();
+            if (!qualifiedDirectory.endsWith(File.separator)) qualifiedDirectory = qualifiedDirectory + File.separator;
+            return qualifiedDirectory;
+        }
+
+        private final String inputDirectory;
+        private final String outputDirectory;
+        private boolean recursiveSearchEnabled = true;
+        private boolean streamingEnabled = false;
+        private boolean sortedEnabled = false;
+        private String inputList = null;
+        private InputOrder inputOrder = InputOrder.LISTED;
+        private String inputPages = null;
+        private boolean watchEnabled = false;
+        private int watchWindow = 10000;
+        private int watchStable = 2000;
+        private String watchDoneDirectory = null;
+        private String outputPdfFileName = null;
+        private String outputLogFileName = null;
+        private String outputPdfIdSplitRegex = null;
+        private int outputPdfIdSplitIndex = 1;
+        private int outputPdfIdExtractFrom = 0;
+        private int outputPdfIdExtractLength = 8;
+        private boolean groupingEnabled = false;
+        private int groupingThreads = Runtime.getRuntime().availableProcessors();
+        private int rolloverPages = 0;
+        private long rolloverSize = 0;
+        private int shards = 1;
+        private int treeFanIn = 0;
+        private int treeThreads = Runtime.getRuntime().availableProcessors();
+        private long treeTempLimit = 0;
+        private boolean appendEnabled = false;
+        private int checkpointFiles = 0;
+        private boolean resumeEnabled = false;
+        private int outputBufferSize = 1024 * 1024;
+        private SyncPolicy outputSyncPolicy = SyncPolicy.NONE;
+        private boolean compactEnabled = false;
+        private int compactLevel = 9;
+        private boolean manifestEnabled = false;
+        private boolean optimizingResourcesEnabled = false;
+        private String resCacheFile = null;
+        private int resCacheMaxAge = 30;
+        private int resCacheMaxEntries = 1000000;
+        private long resTableMemory = 32L * 1024 * 1024;
+        private boolean resTableOffHeapEnabled = false;
+        private boolean preflightEnabled = false;
+        private String preflightIndexFile = null;
+        private int preflightThreads = Runtime.getRuntime().availableProcessors();
+        private boolean lowMemoryEnabled = false;
+        private long mapWindowSize = 1024L * 1024L * 1024L;
+        private int prefetchThreads = 0;
+        private int prefetchDepth = 4;
+        private long memoryBudget = 0;
+        private boolean displayProgressEnabled = false;
+        private long displayProgressInterval = 5000;
+    }
+
+    /**
+     * The input directory to search for PDFs.
+     */
+    private final String inputDirectory;
+
+    /**
+     * The output directory to store output PDF file.
+     */
+    private final String outputDirectory;
+
+    /**
+     * Are the sub-directories of the input directory searched ?
+     */
+    private final boolean recursiveSearchEnabled;
+
+    /**
+     * Are PDFs merged while the input directory is being read ?
+     */
+    private final boolean streamingEnabled;
+
+    /**
+     * Are the streamed entries of every input directory sorted by name ?
+     */
+    private final boolean sortedEnabled;
+
+    /**
+     * The file listing the PDFs to merge, null if the PDFs of the input
+     * directory are merged.
+     */
+    private final String inputList;
+
+    /**
+     * The order the input PDFs are merged in.
+     */
+    private final InputOrder inputOrder;
+
+    /**
+     * The pages of every input PDF to be merged, null to merge every page.
+     */
+    private final String inputPages;
+
+    /**
+     * Is the input directory watched for arriving PDFs ?
+     */
+    private final boolean watchEnabled;
+
+    /**
+     * The batch window in milliseconds.
+     */
+    private final int watchWindow;
+
+    /**
+     * The stability delay in milliseconds.
+     */
+    private final int watchStable;
+
+    /**
+     * The directory the merged PDFs of every batch are moved to.
+     */
+    private final String watchDoneDirectory;
+
+    /**
+     * The output PDF file name, null if built from the input PDF name.
+     */
+    private final String outputPdfFileName;
+
+    /**
+     * The log file name, null if built from the merged PDF name.
+     */
+    private final String outputLogFileName;
+
+    /**
+     * The regular expression splitting the input PDF name, null if not split.
+     */
+    private final String outputPdfIdSplitRegex;
+
+    /**
+     * The index of the part of the split input PDF name.
+     */
+    private final int outputPdfIdSplitIndex;
+
+    /**
+     * The first character of the extract of the input PDF name, 0 if not
+     * extracted.
+     */
+    private final int outputPdfIdExtractFrom;
+
+    /**
+     * The length of the extract of the input PDF name.
+     */
+    private final int outputPdfIdExtractLength;
+
+    /**
+     * Is one merged PDF written per group of input PDFs ?
+     */
+    private final boolean groupingEnabled;
+
+    /**
+     * The number of groups merged concurrently.
+     */
+    private final int groupingThreads;
+
+    /**
+     * The number of pages per part, 0 if disabled.
+     */
+    private final int rolloverPages;
+
+    /**
+     * The size in bytes per part, 0 if disabled.
+     */
+    private final long rolloverSize;
+
+    /**
+     * The number of page balanced parts merged concurrently.
+     */
+    private final int shards;
+
+    /**
+     * The number of PDFs merged into every intermediate PDF of a tree merge, 0
+     * if disabled.
+     */
+    private final int treeFanIn;
+
+    /**
+     * The number of intermediate PDFs of a tree merge written concurrently.
+     */
+    private final int treeThreads;
+
+    /**
+     * The maximum size in bytes of the intermediate PDFs kept on disk, 0 if
+     * unlimited.
+     */
+    private final long treeTempLimit;
+
+    /**
+     * Are the new PDFs added at the end of an existing merged PDF ?
+     */
+    private final boolean appendEnabled;
+
+    /**
+     * The number of input PDFs per committed segment, 0 if disabled.
+     */
+    private final int checkpointFiles;
+
+    /**
+     * Is an interrupted checkpointed merge resumed ?
+     */
+    private final boolean resumeEnabled;
+
+    /**
+     * The size in bytes of the buffer the merged PDF files are written through.
+     */
+    private final int outputBufferSize;
+
+    /**
+     * When the merged PDF files are forced to disk.
+     */
+    private final SyncPolicy outputSyncPolicy;
+
+    /**
+     * Are the merged PDF files written in compact mode ?
+     */
+    private final boolean compactEnabled;
+
+    /**
+     * The compression level of the compact mode.
+     */
+    private final int compactLevel;
+
+    /**
+     * Is a manifest written next to every merged PDF file ?
+     */
+    private final boolean manifestEnabled;
+
+    /**
+     * Are resources kept only once within the merged PDF ?
+     */
+    private final boolean optimizingResourcesEnabled;
+
+    /**
+     * Are the page counts of the input PDFs read before they are merged ?
+     */
+    private final boolean preflightEnabled;
+
+    /**
+     * The file of the pre-flight index, null if not kept.
+     */
+    private final String preflightIndexFile;
+
+    /**
+     * The number of input PDFs scanned concurrently by the pre-flight scan.
+     */
+    private final int preflightThreads;
+
+    /**
+     * The file of the resource fingerprint index, null if not used.
+     */
+    private final String resCacheFile;
+
+    /**
+     * The number of days after which an unused resource fingerprint is removed.
+     */
+    private final int resCacheMaxAge;
+
+    /**
+     * The maximum number of entries of the resource fingerprint index.
+     */
+    private final int resCacheMaxEntries;
+
+    /**
+     * The memory in bytes the table of the resources copied into a merged PDF
+     * may use.
+     */
+    private final long resTableMemory;
+
+    /**
+     * Is the table of the copied resources allocated outside of the heap ?
+     */
+    private final boolean resTableOffHeapEnabled;
+
+    /**
+     * Are PDFs read partially ?
+     */
+    private final boolean lowMemoryEnabled;
+
+    /**
+     * The size in bytes of the largest PDF read through a memory mapped file.
+     */
+    private final long mapWindowSize;
+
+    /**
+     * The number of threads opening PDFs ahead of the writer.
+     */
+    private final int prefetchThreads;
+
+    /**
+     * The maximum number of PDFs opened ahead of the writer.
+     */
+    private final int prefetchDepth;
+
+    /**
+     * The heap the merge should not exceed in bytes, 0 if the merge does not
+     * adapt to the heap.
+     */
+    private final long memoryBudget;
+
+    /**
+     * Is the progress displayed on screen ?
+     */
+    private final boolean displayProgressEnabled;
+
+    /**
+     * The interval between two progress displays in milliseconds.
+     */
+    private final long displayProgressInterval;
+}
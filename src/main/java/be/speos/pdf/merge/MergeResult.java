@@ -0,0 +1,56 @@
+package be.speos.pdf.merge;
+
+/**
+ * The number of PDFs and pages merged.
+ */
+public final class MergeResult {
+
+    /**
+     * Create a new result.
+     *
+     * @param nbPDFsMerged  The number of PDFs merged.
+     * @param nbPagesMerged The number of pages merged.
+     */
+    public MergeResult(final long nbPDFsMerged, final long nbPagesMerged) {
+        this.nbPDFsMerged = nbPDFsMerged;
+        this.nbPagesMerged = nbPagesMerged;
+    }
+
+    /**
+     * Add another result to this one.
+     *
+     * @param other The result to add.
+     * @return The sum of both results.
+     */
+    public MergeResult add(final MergeResult other) {
+        return new MergeResult(nbPDFsMerged + other.nbPDFsMerged, nbPagesMerged + other.nbPagesMerged);
+    }
+
+    /**
+     * Get the number of PDFs merged.
+     *
+     * @return The number of PDFs merged.
+     */
+    public long getNbPDFsMerged() {
+        return nbPDFsMerged;
+    }
+
+    /**
+     * Get the number of pages merged.
+     *
+     * @return The number of pages merged.
+     */
+    public long getNbPagesMerged() {
+        return nbPagesMerged;
+    }
+
+    /**
+     * The number of PDFs merged.
+     */
+    private final long nbPDFsMerged;
+
+    /**
+     * The number of pages merged.
+     */
+    private final long nbPagesMerged;
+}
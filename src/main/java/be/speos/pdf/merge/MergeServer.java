@@ -0,0 +1,396 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Log4J packages
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+// Itext PDF packages
+import com.itextpdf.text.Document;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+
+// JDK HTTP server packages
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP service merging the PDFs posted to it.
+ * <p>
+ * The service listens on the loopback address only and answers to
+ * <code>POST /merge</code> requests whose body is either :
+ * </p>
+ * <ul>
+ * <li>a 'multipart/form-data' body, every part being a PDF to be merged, in
+ * order. Parts are read from the request as they are merged, so only the PDF
+ * being merged is held in memory and nothing is written on disk.</li>
+ * <li>a 'text/plain' body listing the paths of the PDFs to be merged, one per
+ * line, in order. Relative paths are resolved against the input directory and
+ * every PDF must be found within the input directory.</li>
+ * </ul>
+ * <p>
+ * The merged PDF is streamed back as a chunked response while it is written,
+ * with the merging options of the application. Once the response has started,
+ * an error can only be reported by aborting the response : the client then
+ * gets an incomplete chunked body. When the maximum number of requests are
+ * being merged, other requests are rejected with a '503 Service Unavailable'
+ * status instead of being queued.
+ * </p>
+ */
+class MergeServer {
+
+    /**
+     * Create a new service.
+     *
+     * @param port           The port to listen on. 0 picks a free port.
+     * @param maxRequests    The maximum number of requests merged concurrently.
+     * @param job            The merge job giving the input directory the listed
+     *                       PDFs must be found in and the merging options.
+     * @throws IOException The port can not be bound.
+     */
+    MergeServer(final int port, final int maxRequests, final MergeJob job) throws IOException {
+        this.job = job;
+        this.inputDirectory = Paths.get(job.getRequest().getInputDirectory()).toAbsolutePath().normalize();
+        this.permits = new Semaphore(maxRequests);
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext(MERGE_PATH, new MergeHandler());
+    }
+
+    /**
+     * Start listening.
+     */
+    void start() {
+        server.start();
+        LOG.info("Merge service listening on http://" + server.getAddress().getHostString() + ":" + getPort() + MERGE_PATH + ".");
+    }
+
+    /**
+     * Get the port listened on.
+     *
+     * @return The port.
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Wait until the service is stopped.
+     *
+     * @throws InterruptedException The waiting thread has been interrupted.
+     */
+    void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stop listening, leaving the requests being merged a few seconds to end.
+     */
+    synchronized void stop() {
+        if (stopped.getCount() == 0) return;
+        server.stop(STOP_DELAY_SECONDS);
+        executor.shutdown();
+        stopped.countDown();
+        LOG.info("Merge service stopped.");
+    }
+
+    /**
+     * The handler of the merge requests.
+     */
+    private class MergeHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    // Only merge requests are served
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    sendError(exchange, 405, "Only POST requests are accepted.");
+                } else if (!permits.tryAcquire()) {
+                    // Reject the request if the service is saturated
+                    exchange.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+                    sendError(exchange, 503, "Too many merges in progress.");
+                } else {
+                    try {
+                        merge(exchange);
+                    } finally {
+                        permits.release();
+                    }
+                }
+            } catch (Exception exception) {
+                LOG.error("The merge request from '" + exchange.getRemoteAddress() + "' failed.", exception);
+
+                // Closing a started response would end its chunked body : the
+                // connection is aborted by the server instead
+                if (exchange.getResponseCode() > 0) throw new IOException("The merge response is aborted.", exception);
+                sendError(exchange, 500, "The PDFs can not be merged : " + exception.getMessage());
+            }
+            exchange.close();
+        }
+    }
+
+    /**
+     * Merge the PDFs of a request into its response.
+     *
+     * @param exchange The request and its response.
+     * @throws Exception Something went wrong while merging the PDFs.
+     */
+    private void merge(final HttpExchange exchange) throws Exception {
+        // Get the PDFs to be merged according to the content type
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        PdfSource pdfSource;
+        if (contentType != null && contentType.toLowerCase().startsWith(CONTENT_TYPE_MULTIPART)) {
+            int boundaryStart = contentType.toLowerCase().indexOf("boundary=");
+            if (boundaryStart < 0) {
+                sendError(exchange, 400, "The multipart boundary is missing.");
+                return;
+            }
+            pdfSource = new MultipartPdfSource(new MultipartReader(exchange.getRequestBody(), contentType.substring(boundaryStart + 9).split(";")[0].replace("\"", "").trim()));
+        } else if (contentType != null && contentType.toLowerCase().startsWith(CONTENT_TYPE_LIST)) {
+            List<String> pdfs = readPdfList(exchange);
+            if (pdfs == null) return;
+            pdfSource = new ListPdfSource(new PdfReaderPrefetcher(job, pdfs.iterator(), true, 0, 1));
+        } else {
+            sendError(exchange, 415, "The PDFs must be posted as '" + CONTENT_TYPE_MULTIPART + "' or listed as '" + CONTENT_TYPE_LIST + "'.");
+            return;
+        }
+
+        // Open the first PDF before answering, so that a bad request gets an error status
+        PdfReader reader;
+        try {
+            reader = pdfSource.next();
+        } catch (Exception exception) {
+            pdfSource.close();
+            sendError(exchange, 400, "The first PDF can not be read : " + exception.getMessage());
+            return;
+        }
+        if (reader == null) {
+            sendError(exchange, 400, "No PDF to merge.");
+            return;
+        }
+
+        // Stream the merged PDF back while it is written
+        long requestStartTime = System.currentTimeMillis();
+        long nbPDFsMerged = 0;
+        long nbPagesMerged = 0;
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_PDF);
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream responseStream = exchange.getResponseBody();
+        Document mergedPdfDocument = new Document();
+        try {
+            PdfWriter mergedPdfWriter = job.createMergedPdfWriter(mergedPdfDocument, responseStream);
+            mergedPdfDocument.open();
+            while (reader != null) {
+                nbPagesMerged += MergeJob.mergePDF(reader, mergedPdfWriter, mergedPdfDocument, job.getMetrics());
+                nbPDFsMerged++;
+                reader = pdfSource.next();
+            }
+            job.closeMergedPdf("HTTP response to '" + exchange.getRemoteAddress() + "'", mergedPdfDocument, mergedPdfWriter);
+        } finally {
+            pdfSource.close();
+        }
+        responseStream.close();
+        LOG.info(nbPDFsMerged + " PDF file(s) and " + nbPagesMerged + " page(s) merged for '" + exchange.getRemoteAddress() + "' in " + (System.currentTimeMillis() - requestStartTime) + " milliseconds.");
+    }
+
+    /**
+     * Read the list of the PDFs to be merged.
+     * <p>
+     * An error is sent if a listed PDF is not a file of the input directory.
+     * </p>
+     *
+     * @param exchange The request and its response.
+     * @return The paths of the PDFs to be merged, null if an error was sent.
+     * @throws IOException The request can not be read.
+     */
+    private List<String> readPdfList(final HttpExchange exchange) throws IOException {
+        List<String> pdfs = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            Path pdf = inputDirectory.resolve(line.trim()).normalize();
+            if (!pdf.startsWith(inputDirectory) || !Files.isRegularFile(pdf)) {
+                sendError(exchange, 400, "'" + line.trim() + "' is not a file of the input directory.");
+                return null;
+            }
+            pdfs.add(pdf.toString());
+        }
+        return pdfs;
+    }
+
+    /**
+     * Send an error status.
+     *
+     * @param exchange   The request and its response.
+     * @param statusCode The status code.
+     * @param message    The message sent as response body.
+     * @throws IOException The response can not be sent.
+     */
+    private static void sendError(final HttpExchange exchange, final int statusCode, final String message) throws IOException {
+        LOG.warn("Merge request from '" + exchange.getRemoteAddress() + "' answered with status " + statusCode + " : " + message);
+        byte[] body = (message + "\r\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * The PDFs of a request, opened one after the other.
+     */
+    private interface PdfSource {
+
+        /**
+         * Open the next PDF.
+         *
+         * @return The reader of the next PDF, null once every PDF has been opened.
+         * @throws Exception The next PDF can not be read.
+         */
+        PdfReader next() throws Exception;
+
+        /**
+         * Release the PDFs not opened yet.
+         */
+        void close();
+    }
+
+    /**
+     * The PDFs posted as the parts of a multipart body.
+     */
+    private static class MultipartPdfSource implements PdfSource {
+
+        MultipartPdfSource(final MultipartReader multipartReader) {
+            this.multipartReader = multipartReader;
+        }
+
+        @Override
+        public PdfReader next() throws Exception {
+            MultipartReader.Part part = multipartReader.nextPart();
+            if (part == null) return null;
+            LOG.debug("Merging posted PDF '" + part.getFileName() + "' (" + part.getContent().length + " bytes)...");
+            return new PdfReader(part.getContent());
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * The reader of the multipart body.
+         */
+        private final MultipartReader multipartReader;
+    }
+
+    /**
+     * The PDFs listed by path.
+     */
+    private static class ListPdfSource implements PdfSource {
+
+        ListPdfSource(final PdfReaderPrefetcher prefetcher) {
+            this.prefetcher = prefetcher;
+        }
+
+        @Override
+        public PdfReader next() throws Exception {
+            if (!prefetcher.hasNext()) return null;
+            return prefetcher.next().getReader();
+        }
+
+        @Override
+        public void close() {
+            prefetcher.close();
+        }
+
+        /**
+         * The opener of the listed PDFs.
+         */
+        private final PdfReaderPrefetcher prefetcher;
+    }
+
+    /**
+     * The merge job giving the merging options.
+     */
+    private final MergeJob job;
+
+    /**
+     * The directory the listed PDFs must be found in.
+     */
+    private final Path inputDirectory;
+
+    /**
+     * The permits of the requests merged concurrently.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The threads serving the requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Released once the service is stopped.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * The path of the merge requests.
+     */
+    private static final String MERGE_PATH = "/merge";
+
+    /**
+     * The content type of PDFs posted as parts.
+     */
+    private static final String CONTENT_TYPE_MULTIPART = "multipart/form-data";
+
+    /**
+     * The content type of PDFs listed by path.
+     */
+    private static final String CONTENT_TYPE_LIST = "text/plain";
+
+    /**
+     * The content type of the merged PDF.
+     */
+    private static final String CONTENT_TYPE_PDF = "application/pdf";
+
+    /**
+     * The delay in seconds suggested to a rejected client before retrying.
+     */
+    private static final int RETRY_AFTER_SECONDS = 5;
+
+    /**
+     * The delay in seconds left to the requests being merged when the service
+     * is stopped.
+     */
+    private static final int STOP_DELAY_SECONDS = 5;
+
+    /**
+     * The logger.
+     */
+    private static final Log LOG = LogFactory.getLog(MergeServer.class);
+}
@@ -0,0 +1,202 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read the parts of a 'multipart/form-data' request body one after the other.
+ * <p>
+ * Only the part being read is held in memory : the parts are read from the
+ * request stream as they are requested, so the request body is never staged
+ * as a whole, neither in memory nor on disk.
+ * </p>
+ */
+class MultipartReader {
+
+    /**
+     * Create a new reader.
+     *
+     * @param in       The request body.
+     * @param boundary The boundary given by the request content type.
+     */
+    MultipartReader(final InputStream in, final String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+
+        // Compute the fallbacks of the delimiter search (Knuth-Morris-Pratt)
+        this.fallbacks = new int[delimiter.length];
+        for (int index = 1, matched = 0; index < delimiter.length; index++) {
+            while (matched > 0 && delimiter[index] != delimiter[matched]) matched = fallbacks[matched - 1];
+            if (delimiter[index] == delimiter[matched]) matched++;
+            fallbacks[index] = matched;
+        }
+    }
+
+    /**
+     * Read the next part.
+     *
+     * @return The next part, null once every part has been read.
+     * @throws IOException The body can not be read or is not a valid multipart
+     *                     body.
+     */
+    Part nextPart() throws IOException {
+        if (finished) return null;
+
+        // The preamble ends with the first delimiter, which has no leading line break
+        if (!started) {
+            started = true;
+            readUntilDelimiter(null, 2);
+        }
+
+        // The last delimiter is followed by '--'
+        int first = read();
+        int second = read();
+        if (first == '-' && second == '-') {
+            finished = true;
+            return null;
+        }
+
+        // Skip the end of the delimiter line, then read the part headers
+        while (!(first == '\r' && second == '\n')) {
+            first = second;
+            second = read();
+        }
+        String fileName = null;
+        String header;
+        while (!(header = readLine()).isEmpty()) {
+            int fileNameStart = header.toLowerCase().indexOf("filename=\"");
+            if (header.toLowerCase().startsWith("content-disposition:") && fileNameStart >= 0) {
+                fileName = header.substring(fileNameStart + 10, header.indexOf('"', fileNameStart + 10));
+            }
+        }
+
+        // Read the part content
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        readUntilDelimiter(content, 0);
+        return new Part(fileName, content.toByteArray());
+    }
+
+    /**
+     * Read the body until the next delimiter.
+     *
+     * @param content The stream the bytes before the delimiter are written to,
+     *                null to drop them.
+     * @param start   The number of leading bytes of the delimiter already
+     *                matched.
+     * @throws IOException The body ends before the delimiter.
+     */
+    private void readUntilDelimiter(final ByteArrayOutputStream content, final int start) throws IOException {
+        int matched = start;
+        while (matched < delimiter.length) {
+            int b = read();
+            while (matched > 0 && b != (delimiter[matched] & 0xff)) {
+                // The matched bytes not matching anymore belong to the content
+                int fallback = fallbacks[matched - 1];
+                if (content != null) content.write(delimiter, 0, matched - fallback);
+                matched = fallback;
+            }
+            if (b == (delimiter[matched] & 0xff)) {
+                matched++;
+            } else if (content != null) {
+                content.write(b);
+            }
+        }
+    }
+
+    /**
+     * Read a header line.
+     *
+     * @return The line without its line break.
+     * @throws IOException The body ends before the line.
+     */
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = read()) != '\n') {
+            if (b != '\r') line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a byte of the body.
+     *
+     * @return The byte.
+     * @throws IOException The body ends.
+     */
+    private int read() throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException("The multipart body ends before its last boundary.");
+        return b;
+    }
+
+    /**
+     * A part of the body.
+     */
+    static class Part {
+
+        Part(final String fileName, final byte[] content) {
+            this.fileName = fileName;
+            this.content = content;
+        }
+
+        /**
+         * Get the file name given by the part.
+         *
+         * @return The file name, null if the part does not give one.
+         */
+        String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Get the content of the part.
+         *
+         * @return The content.
+         */
+        byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * The file name given by the part.
+         */
+        private final String fileName;
+
+        /**
+         * The content of the part.
+         */
+        private final byte[] content;
+    }
+
+    /**
+     * The request body.
+     */
+    private final InputStream in;
+
+    /**
+     * The delimiter preceding every part, made of a line break, two dashes and
+     * the boundary.
+     */
+    private final byte[] delimiter;
+
+    /**
+     * The length of the longest delimiter prefix that is also a suffix of the
+     * delimiter prefix of every length.
+     */
+    private final int[] fallbacks;
+
+    /**
+     * Has the preamble been read ?
+     */
+    private boolean started = false;
+
+    /**
+     * Has the last delimiter been read ?
+     */
+    private boolean finished = false;
+}
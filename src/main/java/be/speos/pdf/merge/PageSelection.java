@@ -0,0 +1,116 @@
+package be.speos.pdf.merge;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The pages of a PDF to be merged.
+ * <p>
+ * A selection is written as a comma separated list of page numbers and page
+ * ranges, pages being counted from 1 : '1' selects the first page, '2-5' the
+ * pages 2 to 5, '3-' the pages from 3 to the last one. The pages are merged in
+ * the order of the list. Pages beyond the last page of a PDF are ignored.
+ * </p>
+ */
+final class PageSelection {
+
+    /**
+     * Parse a selection.
+     *
+     * @param selection The selection, such as '1,3-5,8-'.
+     * @return The parsed selection.
+     * @throws IllegalArgumentException The selection is not valid.
+     */
+    static PageSelection parse(final String selection) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        for (String range : selection.split(",")) {
+            String trimmedRange = range.trim();
+            int separatorIndex = trimmedRange.indexOf('-');
+            try {
+                int firstPage;
+                int lastPage;
+                if (separatorIndex < 0) {
+                    firstPage = Integer.parseInt(trimmedRange);
+                    lastPage = firstPage;
+                } else {
+                    firstPage = Integer.parseInt(trimmedRange.substring(0, separatorIndex).trim());
+                    String lastPageNumber = trimmedRange.substring(separatorIndex + 1).trim();
+                    lastPage = lastPageNumber.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(lastPageNumber);
+                }
+                if (firstPage < 1 || lastPage < firstPage) throw new IllegalArgumentException("The page range '" + trimmedRange + "' of the page selection '" + selection + "' is not valid.");
+                ranges.add(new int[] { firstPage, lastPage });
+            } catch (NumberFormatException exception) {
+                throw new IllegalArgumentException("The page range '" + trimmedRange + "' of the page selection '" + selection + "' is not valid.");
+            }
+        }
+        return new PageSelection(selection.trim(), ranges);
+    }
+
+    /**
+     * Create a new selection.
+     *
+     * @param selection The selection as written.
+     * @param ranges    The first and last pages of every range.
+     */
+    private PageSelection(final String selection, final List<int[]> ranges) {
+        this.selection = selection;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Get the selected pages of a PDF.
+     *
+     * @param nbPages The number of pages of the PDF.
+     * @return The numbers of the selected pages, in merge order.
+     */
+    int[] getPages(final int nbPages) {
+        int[] pages = new int[getNbPages(nbPages)];
+        int pageIndex = 0;
+        for (int[] range : ranges) {
+            for (int page = range[0]; page <= Math.min(range[1], nbPages); page++) {
+                pages[pageIndex++] = page;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Count the selected pages of a PDF.
+     *
+     * @param nbPages The number of pages of the PDF.
+     * @return The number of selected pages.
+     */
+    int getNbPages(final int nbPages) {
+        int nbSelectedPages = 0;
+        for (int[] range : ranges) {
+            if (range[0] <= nbPages) nbSelectedPages += Math.min(range[1], nbPages) - range[0] + 1;
+        }
+        return nbSelectedPages;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        return object instanceof PageSelection && ((PageSelection) object).selection.equals(selection);
+    }
+
+    @Override
+    public int hashCode() {
+        return selection.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return selection;
+    }
+
+    /**
+     * The selection as written.
+     */
+    private final String selection;
+
+    /**
+     * The first and last pages of every range, in merge order.
+     */
+    private final List<int[]> ranges;
+}
@@ -0,0 +1,225 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// J2SE Utilities packages
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Enumerate the files found in a directory while the directory is being read.
+ * <p>
+ * This class will return the paths of the files having the provided extension
+ * as soon as they are read from the directory, so that merging can start
+ * before the whole directory tree has been scanned. Sub-directories are
+ * entered when they are met. The entries of a directory are returned in the
+ * order the file system provides them, or sorted by name when a reproducible
+ * order is asked : only one directory at a time is then held in memory.
+ * </p>
+ */
+class PdfFileEnumerator implements Iterator<String> {
+
+    /**
+     * Create a new enumerator.
+     *
+     * @param directory The directory to scan.
+     * @param extension The extension of the files to return, not case sensitive.
+     * @param recursive Should sub-directories be scanned ?
+     * @param sorted    Should the entries of every directory be sorted by name ?
+     * @throws IOException The directory can not be read.
+     */
+    PdfFileEnumerator(final String directory, final String extension, final boolean recursive, final boolean sorted) throws IOException {
+        this.extension = extension.toLowerCase();
+        this.recursive = recursive;
+        this.sorted = sorted;
+        enterDirectory(Paths.get(directory));
+    }
+
+    /**
+     * Exclude a file from the enumeration.
+     * <p>
+     * The files written by the merge into a directory that is still being
+     * scanned must not be merged.
+     * </p>
+     *
+     * @param file The path of the file to skip if it is found.
+     */
+    void exclude(final String file) {
+        excludedFiles.add(Paths.get(file).toAbsolutePath().normalize());
+    }
+
+    /**
+     * Exclude the files matching a pattern from the enumeration.
+     * <p>
+     * The parts of a merged PDF are only created while the merge goes on, so
+     * their names can not all be known in advance.
+     * </p>
+     *
+     * @param filePattern The pattern matched against the normalized absolute
+     *                    path of every file found.
+     */
+    void exclude(final Pattern filePattern) {
+        excludedPatterns.add(filePattern);
+    }
+
+    public boolean hasNext() {
+        try {
+            return findNext();
+        } catch (IOException exception) {
+            close();
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        String file = nextFile.toString();
+        nextFile = null;
+        return file;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Release the directories still opened.
+     */
+    void close() {
+        for (DirectoryStream<Path> directoryStream : openedDirectories) {
+            try {
+                directoryStream.close();
+            } catch (IOException exception) {
+                // Nothing more can be read from this directory anyway
+            }
+        }
+        openedDirectories.clear();
+        directories.clear();
+    }
+
+    /**
+     * Read the directories until the next matching file is found.
+     *
+     * @return true if a file has been found.
+     * @throws IOException A directory can not be read.
+     */
+    private boolean findNext() throws IOException {
+        while (nextFile == null && !directories.isEmpty()) {
+            Iterator<Path> entries = directories.peek();
+
+            // The current directory is done : go back to its parent
+            if (!entries.hasNext()) {
+                directories.pop();
+                if (!sorted) openedDirectories.pop().close();
+                continue;
+            }
+
+            // Enter a sub-directory or keep a matching file
+            Path entry = entries.next();
+            if (Files.isDirectory(entry)) {
+                if (recursive) enterDirectory(entry);
+            } else if (entry.getFileName().toString().toLowerCase().endsWith(extension) && !isExcluded(entry.toAbsolutePath().normalize())) {
+                nextFile = entry;
+            }
+        }
+        return nextFile != null;
+    }
+
+    /**
+     * Is a file excluded from the enumeration ?
+     *
+     * @param file The normalized absolute path of the file.
+     * @return true if the file must not be returned.
+     */
+    private boolean isExcluded(final Path file) {
+        if (excludedFiles.contains(file)) return true;
+        for (Pattern excludedPattern : excludedPatterns) {
+            if (excludedPattern.matcher(file.toString()).matches()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Start reading a directory.
+     *
+     * @param directory The directory to read.
+     * @throws IOException The directory can not be read.
+     */
+    private void enterDirectory(final Path directory) throws IOException {
+        DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory);
+
+        // Return the entries while they are read
+        if (!sorted) {
+            openedDirectories.push(directoryStream);
+            directories.push(directoryStream.iterator());
+            return;
+        }
+
+        // Read the whole directory to sort it
+        List<Path> entries = new ArrayList<Path>();
+        try {
+            for (Path entry : directoryStream) {
+                entries.add(entry);
+            }
+        } finally {
+            directoryStream.close();
+        }
+        Collections.sort(entries);
+        directories.push(entries.iterator());
+    }
+
+    /**
+     * The extension of the files to return, in lower case.
+     */
+    private final String extension;
+
+    /**
+     * Are sub-directories scanned ?
+     */
+    private final boolean recursive;
+
+    /**
+     * Are the entries of every directory sorted by name ?
+     */
+    private final boolean sorted;
+
+    /**
+     * The entries still to be read of every directory being scanned, the
+     * deepest first.
+     */
+    private final ArrayDeque<Iterator<Path>> directories = new ArrayDeque<Iterator<Path>>();
+
+    /**
+     * The directories being read, the deepest first, when entries are not
+     * sorted.
+     */
+    private final ArrayDeque<DirectoryStream<Path>> openedDirectories = new ArrayDeque<DirectoryStream<Path>>();
+
+    /**
+     * The files which must not be returned.
+     */
+    private final Set<Path> excludedFiles = new HashSet<Path>();
+
+    /**
+     * The patterns of the files which must not be returned.
+     */
+    private final List<Pattern> excludedPatterns = new ArrayList<Pattern>();
+
+    /**
+     * The next file to return, null if it has not been found yet.
+     */
+    private Path nextFile = null;
+}
@@ -0,0 +1,288 @@
+package be.speos.pdf.merge;
+
+// J2SE Utilities packages
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Itext PDF packages
+import com.itextpdf.text.pdf.PdfReader;
+
+/**
+ * Open and parse the PDFs to be merged ahead of the merged PDF writer.
+ * <p>
+ * This class will hand out a {@link PdfReader} for every PDF path provided by
+ * the input iterator, in the same order. When worker threads are configured,
+ * the next PDFs are opened and parsed concurrently while the caller is still
+ * copying the pages of the current one. The number of PDFs opened ahead of the
+ * caller is bounded by the prefetch depth, so prefetched readers can never
+ * exhaust the heap. Without worker threads, every PDF is opened on the caller
+ * thread when it is requested.
+ * </p>
+ * <p>
+ * The workers also prepare every PDF they open for the merged PDF writer, such
+ * as deflating its streams in compact mode, so that this CPU intensive work is
+ * spread over the workers instead of being done by the caller.
+ * </p>
+ */
+class PdfReaderPrefetcher {
+
+    /**
+     * Create a new prefetcher.
+     *
+     * @param job         The merge job opening the PDFs.
+     * @param pdfsToMerge The paths of the PDFs to be opened, in merge order.
+     * @param inputPdfs   Are the PDFs input PDFs ? false for the segments of a
+     *                    checkpointed merge and the intermediate PDFs of a tree
+     *                    merge, already compacted.
+     * @param nbThreads   The number of worker threads parsing PDFs ahead of the
+     *                    caller. 0 disables prefetching.
+     * @param depth       The maximum number of PDFs opened ahead of the caller.
+     */
+    PdfReaderPrefetcher(final MergeJob job, final Iterator<String> pdfsToMerge, final boolean inputPdfs, final int nbThreads, final int depth) {
+        this.job = job;
+        this.pdfsToMerge = pdfsToMerge;
+        this.inputPdfs = inputPdfs;
+        this.depth = Math.max(1, depth);
+        if (nbThreads > 0) {
+            this.executor = Executors.newFixedThreadPool(nbThreads, new PrefetchThreadFactory());
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Is there another PDF to be merged ?
+     *
+     * @return true if {@link #next()} will return another PDF.
+     */
+    boolean hasNext() {
+        return !window.isEmpty() || pdfsToMerge.hasNext();
+    }
+
+    /**
+     * Get the next PDF to be merged.
+     * <p>
+     * The returned reader belongs to the caller, which is responsible for
+     * closing it. This method blocks until the next PDF has been parsed and
+     * schedules the following ones up to the prefetch depth.
+     * </p>
+     *
+     * @return The next PDF path and its opened reader.
+     * @throws Exception Something went wrong while opening the next PDF.
+     */
+    PrefetchedPdf next() throws Exception {
+        // Without worker, open the PDF on the caller thread
+        if (executor == null) {
+            if (!pdfsToMerge.hasNext()) throw new NoSuchElementException();
+            String pdfPath = pdfsToMerge.next();
+            return open(pdfPath);
+        }
+
+        // Fill the window and wait for its head
+        fillWindow();
+        if (window.isEmpty()) throw new NoSuchElementException();
+        Future<PrefetchedPdf> head = window.poll();
+        PrefetchedPdf prefetchedPdf;
+        try {
+            prefetchedPdf = head.get();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof Exception) throw (Exception) exception.getCause();
+            throw exception;
+        }
+        synchronized (openedReaders) {
+            openedReaders.remove(prefetchedPdf.getReader());
+        }
+
+        // Keep the workers busy while the caller copies the pages
+        fillWindow();
+        return prefetchedPdf;
+    }
+
+    /**
+     * Lower the maximum number of PDFs opened ahead of the caller.
+     * <p>
+     * The PDFs already opened ahead are still handed out.
+     * </p>
+     *
+     * @param maxDepth The maximum number of PDFs opened ahead of the caller.
+     */
+    void throttle(final int maxDepth) {
+        depth = Math.max(1, Math.min(depth, maxDepth));
+    }
+
+    /**
+     * Stop the workers and release every reader which was not handed out.
+     * <p>
+     * A PDF being parsed can not be interrupted : its task is cancelled but
+     * keeps running and its result can no longer be read from its future. The
+     * workers are therefore waited for, and every reader opened by a worker
+     * and not handed out is released, its streams prepared ahead being
+     * dropped, whether its task was cancelled or not. A worker still running
+     * once the caller is interrupted releases its reader itself.
+     * </p>
+     */
+    void close() {
+        if (executor == null) return;
+        for (Future<PrefetchedPdf> pending : window) {
+            pending.cancel(false);
+        }
+        window.clear();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (openedReaders) {
+            closed = true;
+            for (PdfReader reader : openedReaders) {
+                job.releasePdfReader(reader);
+            }
+            openedReaders.clear();
+        }
+    }
+
+    /**
+     * Schedule the opening of the next PDFs until the window is full.
+     */
+    private void fillWindow() {
+        while (window.size() < depth && pdfsToMerge.hasNext()) {
+            final String pdfPath = pdfsToMerge.next();
+            window.add(executor.submit(new Callable<PrefetchedPdf>() {
+                public PrefetchedPdf call() throws Exception {
+                    PrefetchedPdf prefetchedPdf = open(pdfPath);
+                    try {
+                        job.preparePdfReader(pdfPath, prefetchedPdf.getReader(), inputPdfs);
+                    } catch (Exception exception) {
+                        job.releasePdfReader(prefetchedPdf.getReader());
+                        throw exception;
+                    }
+
+                    // Keep track of the reader until it is handed out
+                    synchronized (openedReaders) {
+                        if (closed) {
+                            job.releasePdfReader(prefetchedPdf.getReader());
+                        } else {
+                            openedReaders.add(prefetchedPdf.getReader());
+                        }
+                    }
+                    return prefetchedPdf;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Open a PDF.
+     *
+     * @param pdfPath The path of the PDF.
+     * @return The PDF path, its opened reader and the time spent opening it.
+     * @throws Exception Something went wrong while opening the PDF.
+     */
+    private PrefetchedPdf open(final String pdfPath) throws Exception {
+        long openStartTime = System.nanoTime();
+        PdfReader reader = job.openPdfReader(pdfPath);
+        return new PrefetchedPdf(pdfPath, reader, System.nanoTime() - openStartTime);
+    }
+
+    /**
+     * A PDF path and its opened reader.
+     */
+    static class PrefetchedPdf {
+
+        PrefetchedPdf(final String path, final PdfReader reader, final long openTime) {
+            this.path = path;
+            this.reader = reader;
+            this.openTime = openTime;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        PdfReader getReader() {
+            return reader;
+        }
+
+        /**
+         * Get the time spent opening and parsing the PDF.
+         *
+         * @return The time in nanoseconds.
+         */
+        long getOpenTime() {
+            return openTime;
+        }
+
+        private final String path;
+        private final PdfReader reader;
+        private final long openTime;
+    }
+
+    /**
+     * Create the daemon worker threads so a failed merge can not keep the JVM
+     * alive.
+     */
+    private static class PrefetchThreadFactory implements ThreadFactory {
+
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "pdf-prefetch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+    }
+
+    /**
+     * The merge job opening the PDFs.
+     */
+    private final MergeJob job;
+
+    /**
+     * The paths of the PDFs still to be scheduled.
+     */
+    private final Iterator<String> pdfsToMerge;
+
+    /**
+     * Are the PDFs input PDFs ?
+     */
+    private final boolean inputPdfs;
+
+    /**
+     * The maximum number of PDFs opened ahead of the caller.
+     */
+    private int depth;
+
+    /**
+     * The worker threads, null if prefetching is disabled.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The PDFs being opened ahead of the caller, in merge order.
+     */
+    private final ArrayDeque<Future<PrefetchedPdf>> window = new ArrayDeque<Future<PrefetchedPdf>>();
+
+    /**
+     * The readers opened by the workers and not handed out yet, guarding
+     * {@link #closed}.
+     */
+    private final Set<PdfReader> openedReaders = new HashSet<PdfReader>();
+
+    /**
+     * Has the prefetcher been closed ? The readers opened afterwards are closed
+     * by their worker.
+     */
+    private boolean closed = false;
+}
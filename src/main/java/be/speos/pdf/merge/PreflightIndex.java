@@ -0,0 +1,286 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Log4J packages
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+// Itext PDF packages
+import com.itextpdf.text.pdf.PdfReader;
+
+/**
+ * An index of the page counts of the input PDFs, built before they are merged.
+ * <p>
+ * The pre-flight scan opens every input PDF for partial reading : only its
+ * trailer, its cross-reference table and the /Count of its page tree root are
+ * read, its pages are not parsed. The PDFs are scanned concurrently, and every
+ * PDF gets an entry holding its size, its last modification time, its number
+ * of pages and whether it can be read. The merge plans its work from the
+ * entries, such as balancing the shards, without parsing the PDFs again.
+ * </p>
+ * <p>
+ * The index can be kept in a file from one run to the other : the entry of an
+ * input PDF whose size and last modification time are unchanged is then taken
+ * from the file instead of opening the PDF again.
+ * </p>
+ */
+class PreflightIndex {
+
+    /**
+     * Load the index from a file.
+     * <p>
+     * An index file which does not exist yet is created when the index is
+     * saved. Unreadable lines are ignored.
+     * </p>
+     *
+     * @param file The index file, null to keep the index in memory only.
+     * @return The loaded index.
+     * @throws IOException The index file can not be read.
+     */
+    static PreflightIndex load(final File file) throws IOException {
+        PreflightIndex index = new PreflightIndex(file);
+        if (file == null || !file.exists()) return index;
+
+        // Read every entry
+        int nbIgnoredLines = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(FIELD_SEPARATOR, 5);
+                try {
+                    if (fields.length == 5) {
+                        index.entries.put(fields[4], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2]), fields[3].equals(FLAG_VALID)));
+                    } else {
+                        nbIgnoredLines++;
+                    }
+                } catch (NumberFormatException exception) {
+                    nbIgnoredLines++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (nbIgnoredLines > 0) LOG.warn(nbIgnoredLines + " unreadable line(s) ignored in pre-flight index '" + file.getPath() + "'.");
+        return index;
+    }
+
+    /**
+     * Create a new empty index.
+     *
+     * @param file The index file, null to keep the index in memory only.
+     */
+    private PreflightIndex(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Scan provided PDFs.
+     * <p>
+     * The PDFs already in the index and unchanged since are not opened again. A
+     * PDF which can not be read gets an invalid entry.
+     * </p>
+     *
+     * @param pdfs          The paths of the PDFs.
+     * @param nbThreads     The number of PDFs read concurrently.
+     * @param mapWindowSize The size in bytes of the largest PDF which is
+     *                      memory mapped. 0 disables memory mapping.
+     * @throws Exception The scan was interrupted.
+     */
+    void scan(final List<String> pdfs, final int nbThreads, final long mapWindowSize) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        List<Future<?>> scannedPdfs = new ArrayList<Future<?>>();
+        try {
+            for (final String pdf : pdfs) {
+                final File pdfFile = new File(pdf);
+                final long size = pdfFile.length();
+                final long lastModified = pdfFile.lastModified();
+                Entry entry = entries.get(pdf);
+                if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                    nbEntriesReused++;
+                    continue;
+                }
+                entries.remove(pdf);
+                scannedPdfs.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        entries.put(pdf, new Entry(size, lastModified, countPages(pdf, mapWindowSize), true));
+                        return null;
+                    }
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Wait for every PDF, the unreadable ones being recorded invalid
+        for (int pdfIndex = 0; pdfIndex < scannedPdfs.size(); pdfIndex++) {
+            try {
+                scannedPdfs.get(pdfIndex).get();
+            } catch (ExecutionException exception) {
+                // Recorded below
+            }
+        }
+        for (String pdf : pdfs) {
+            if (!entries.containsKey(pdf)) {
+                File pdfFile = new File(pdf);
+                entries.put(pdf, new Entry(pdfFile.length(), pdfFile.lastModified(), 0, false));
+            }
+        }
+    }
+
+    /**
+     * Get the entry of a PDF.
+     *
+     * @param pdf The path of the PDF.
+     * @return The entry, null if the PDF was not scanned.
+     */
+    Entry getEntry(final String pdf) {
+        return entries.get(pdf);
+    }
+
+    /**
+     * Get the number of entries taken from the index file by the scans instead
+     * of opening their PDF.
+     *
+     * @return The number of entries reused.
+     */
+    int getNbEntriesReused() {
+        return nbEntriesReused;
+    }
+
+    /**
+     * Write the index to its file.
+     * <p>
+     * The entries of the PDFs which do not exist anymore are dropped. The index
+     * is first written into a temporary file which then replaces the index
+     * file, so that an interrupted save does not lose the index.
+     * </p>
+     *
+     * @throws IOException The index file can not be written.
+     */
+    void save() throws IOException {
+        if (file == null) return;
+        File tempFile = new File(file.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+        try {
+            for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry<String, Entry> pdfEntry = iterator.next();
+                if (!new File(pdfEntry.getKey()).isFile()) {
+                    iterator.remove();
+                    continue;
+                }
+                Entry entry = pdfEntry.getValue();
+                writer.write(entry.size + FIELD_SEPARATOR + entry.lastModified + FIELD_SEPARATOR + entry.nbPages + FIELD_SEPARATOR + (entry.valid ? FLAG_VALID : FLAG_INVALID) + FIELD_SEPARATOR + pdfEntry.getKey() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Count the pages of a PDF from its page tree root.
+     *
+     * @param pdf           The path of the PDF.
+     * @param mapWindowSize The size in bytes of the largest PDF which is memory
+     *                      mapped.
+     * @return The number of pages.
+     * @throws IOException The PDF can not be read.
+     */
+    private static int countPages(final String pdf, final long mapWindowSize) throws IOException {
+        PdfReader reader = MergeJob.openPartialPdfReader(pdf, mapWindowSize);
+        try {
+            return reader.getNumberOfPages();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The pre-flight description of a PDF.
+     */
+    static class Entry {
+
+        Entry(final long size, final long lastModified, final int nbPages, final boolean valid) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.nbPages = nbPages;
+            this.valid = valid;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        int getNbPages() {
+            return nbPages;
+        }
+
+        /**
+         * Can the PDF be read ?
+         *
+         * @return true if its page tree could be read.
+         */
+        boolean isValid() {
+            return valid;
+        }
+
+        private final long size;
+        private final long lastModified;
+        private final int nbPages;
+        private final boolean valid;
+    }
+
+    /**
+     * The index file, null if the index is kept in memory only.
+     */
+    private final File file;
+
+    /**
+     * The entries, by PDF path.
+     */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The number of entries reused by the scans.
+     */
+    private int nbEntriesReused = 0;
+
+    /**
+     * Separates the fields of a line of the index file.
+     */
+    private static final String FIELD_SEPARATOR = "\t";
+
+    private static final String FLAG_VALID = "T";
+    private static final String FLAG_INVALID = "F";
+
+    /**
+     * The logger.
+     */
+    private static final Log LOG = LogFactory.getLog(PreflightIndex.class);
+}
@@ -0,0 +1,203 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.PrintStream;
+
+// J2SE Utilities packages
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Display the progress of a merge on screen from a thread of its own.
+ * <p>
+ * The reporter samples the counters of the merge metrics at a fixed interval
+ * and prints one line per sample : the PDFs and pages merged so far, the number
+ * of PDFs, pages and MB read per second over the last interval, and, when the
+ * totals are known from the pre-flight scan, the completion and the estimated
+ * remaining time at the average rate since the merge started. A merge which did
+ * not progress during the last interval is reported as stalled, with the time
+ * since its last progress.
+ * </p>
+ * <p>
+ * The merge threads only update the metrics counters : they never wait for the
+ * screen.
+ * </p>
+ */
+class ProgressReporter {
+
+    /**
+     * Create a new reporter.
+     *
+     * @param metrics  The metrics of the merge.
+     * @param nbPdfs   The number of PDFs to merge, -1 if unknown.
+     * @param nbPages  The number of pages to merge, -1 if unknown.
+     * @param interval The interval between two samples in milliseconds.
+     * @param out      The stream the progress is printed on.
+     */
+    ProgressReporter(final MergeMetrics metrics, final long nbPdfs, final long nbPages, final long interval, final PrintStream out) {
+        this.metrics = metrics;
+        this.nbPdfs = nbPdfs;
+        this.nbPages = nbPages;
+        this.interval = interval;
+        this.out = out;
+    }
+
+    /**
+     * Start sampling.
+     */
+    void start() {
+        startTime = System.nanoTime();
+        lastSampleTime = startTime;
+        lastProgressTime = startTime;
+        startPages = metrics.getNbPagesMerged();
+        lastPdfs = metrics.getNbPDFsMerged();
+        lastPages = startPages;
+        lastBytes = metrics.getBytesRead();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling and print the final progress.
+     */
+    void stop() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(interval, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        report();
+    }
+
+    /**
+     * Sample the counters and print the progress.
+     */
+    private synchronized void report() {
+        // Sample the counters
+        long sampleTime = System.nanoTime();
+        long pdfsMerged = metrics.getNbPDFsMerged();
+        long pagesMerged = metrics.getNbPagesMerged();
+        long bytesRead = metrics.getBytesRead();
+        double seconds = Math.max(1, sampleTime - lastSampleTime) / 1e9;
+        if (pagesMerged != lastPages || pdfsMerged != lastPdfs) lastProgressTime = sampleTime;
+
+        // Describe the progress
+        StringBuilder line = new StringBuilder("Progress : ");
+        line.append(pdfsMerged);
+        if (nbPdfs >= 0) line.append("/").append(nbPdfs);
+        line.append(" PDF(s), ").append(pagesMerged);
+        if (nbPages >= 0) line.append("/").append(nbPages);
+        line.append(" page(s)");
+        if (nbPages > 0) line.append(String.format(Locale.ROOT, " (%.1f %%)", Math.min(100.0, pagesMerged * 100.0 / nbPages)));
+        line.append(String.format(Locale.ROOT, ", %.1f files/s, %.1f pages/s, %.1f MB/s", (pdfsMerged - lastPdfs) / seconds, (pagesMerged - lastPages) / seconds, (bytesRead - lastBytes) / seconds / (1024 * 1024)));
+        if (nbPages >= 0) line.append(", ETA ").append(getRemainingTime(sampleTime, pagesMerged));
+        if (sampleTime - lastProgressTime >= interval * 1000000L) line.append(", stalled for ").append(formatTime(sampleTime - lastProgressTime));
+        out.println(line);
+
+        lastSampleTime = sampleTime;
+        lastPdfs = pdfsMerged;
+        lastPages = pagesMerged;
+        lastBytes = bytesRead;
+    }
+
+    /**
+     * Estimate the time remaining at the average rate since the start.
+     *
+     * @param sampleTime  The time of the sample in nanoseconds.
+     * @param pagesMerged The number of pages merged so far.
+     * @return The remaining time, or '?' while no page has been merged.
+     */
+    private String getRemainingTime(final long sampleTime, final long pagesMerged) {
+        long pagesDone = pagesMerged - startPages;
+        if (pagesMerged >= nbPages) return formatTime(0);
+        if (pagesDone <= 0) return "?";
+        return formatTime((long) ((sampleTime - startTime) / (double) pagesDone * (nbPages - pagesMerged)));
+    }
+
+    /**
+     * Format a duration.
+     *
+     * @param nanoseconds The duration in nanoseconds.
+     * @return The duration as hours, minutes and seconds.
+     */
+    private static String formatTime(final long nanoseconds) {
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(nanoseconds);
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    /**
+     * Name the sampling thread, which does not keep the JVM alive.
+     */
+    private static class ProgressThreadFactory implements ThreadFactory {
+
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "pdf-progress");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * The metrics of the merge.
+     */
+    private final MergeMetrics metrics;
+
+    /**
+     * The number of PDFs to merge, -1 if unknown.
+     */
+    private final long nbPdfs;
+
+    /**
+     * The number of pages to merge, -1 if unknown.
+     */
+    private final long nbPages;
+
+    /**
+     * The interval between two samples in milliseconds.
+     */
+    private final long interval;
+
+    /**
+     * The stream the progress is printed on.
+     */
+    private final PrintStream out;
+
+    /**
+     * The thread sampling the counters.
+     */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ProgressThreadFactory());
+
+    /**
+     * When the sampling started, in nanoseconds.
+     */
+    private long startTime;
+
+    /**
+     * The number of pages merged when the sampling started.
+     */
+    private long startPages;
+
+    /**
+     * When the counters were last sampled, in nanoseconds.
+     */
+    private long lastSampleTime;
+
+    /**
+     * When the merge last progressed, in nanoseconds.
+     */
+    private long lastProgressTime;
+
+    /**
+     * The counters at the last sample.
+     */
+    private long lastPdfs;
+    private long lastPages;
+    private long lastBytes;
+}
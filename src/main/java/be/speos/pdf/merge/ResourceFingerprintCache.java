@@ -0,0 +1,440 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// J2SE Utilities packages
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Log4J packages
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An index of the resource streams fingerprints kept on disk from one run to
+ * the other.
+ * <p>
+ * The index holds two kinds of entries. A digest entry describes a resource
+ * stream content already met : its length, when it was last used and how many
+ * times it was used. A source entry maps a stream object of an input PDF to the
+ * digest of its content. An input PDF is identified by its path, its length and
+ * its last modification time : as long as it is unchanged, the digests of its
+ * streams are taken from the index instead of being computed again from the
+ * stream bytes.
+ * </p>
+ * <p>
+ * Entries not used for a given age are evicted when the index is saved, as well
+ * as the least recently used ones when there are more than the allowed number
+ * of entries. The index is safe for use by several merges at once.
+ * </p>
+ */
+class ResourceFingerprintCache {
+
+    /**
+     * Load the index from a file.
+     * <p>
+     * An index file which does not exist yet is created empty when the index is
+     * saved. Unreadable lines are ignored.
+     * </p>
+     *
+     * @param file       The index file.
+     * @param maxAge     The age in milliseconds after which an unused entry is
+     *                   evicted, 0 to keep entries regardless of their age.
+     * @param maxEntries The maximum number of entries kept.
+     * @return The loaded index.
+     * @throws IOException The index file can not be read.
+     */
+    static ResourceFingerprintCache load(final File file, final long maxAge, final int maxEntries) throws IOException {
+        ResourceFingerprintCache cache = new ResourceFingerprintCache(file, maxAge, maxEntries);
+        if (!file.exists()) {
+            LOG.info("Resource fingerprint index '" + file.getPath() + "' not found, it will be created.");
+            return cache;
+        }
+
+        // Read every entry
+        int nbIgnoredLines = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(FIELD_SEPARATOR, line.startsWith(RECORD_SOURCE + FIELD_SEPARATOR) ? 4 : 5);
+                try {
+                    if (fields.length == 5 && fields[0].equals(RECORD_DIGEST)) {
+                        cache.digests.put(fields[1], new DigestEntry(Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]), true));
+                    } else if (fields.length == 4 && fields[0].equals(RECORD_SOURCE)) {
+                        cache.sources.put(fields[3], new SourceEntry(fields[1], Long.parseLong(fields[2])));
+                        int pdfKeyEnd = fields[3].lastIndexOf(SOURCE_KEY_SEPARATOR);
+                        if (pdfKeyEnd > 0) cache.pdfs.add(fields[3].substring(0, pdfKeyEnd));
+                    } else {
+                        nbIgnoredLines++;
+                    }
+                } catch (NumberFormatException exception) {
+                    nbIgnoredLines++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (nbIgnoredLines > 0) LOG.warn(nbIgnoredLines + " unreadable line(s) ignored in resource fingerprint index '" + file.getPath() + "'.");
+        LOG.info("Resource fingerprint index '" + file.getPath() + "' loaded : " + cache.digests.size() + " digest(s), " + cache.sources.size() + " source stream(s).");
+        return cache;
+    }
+
+    /**
+     * Create a new empty index.
+     *
+     * @param file       The index file.
+     * @param maxAge     The age in milliseconds after which an unused entry is
+     *                   evicted, 0 to keep entries regardless of their age.
+     * @param maxEntries The maximum number of entries kept.
+     */
+    private ResourceFingerprintCache(final File file, final long maxAge, final int maxEntries) {
+        this.file = file;
+        this.maxAge = maxAge;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Build the key identifying a stream object of an input PDF.
+     *
+     * @param pdfFile          The input PDF.
+     * @param objectNumber     The number of the stream object.
+     * @param objectGeneration The generation of the stream object.
+     * @return The key of the stream object, only valid while the input PDF is
+     *         unchanged.
+     */
+    static String getSourceKey(final File pdfFile, final int objectNumber, final int objectGeneration) {
+        return new StringBuilder(getPdfKey(pdfFile)).append(SOURCE_KEY_SEPARATOR).append(objectNumber).append(' ').append(objectGeneration).toString();
+    }
+
+    /**
+     * Build the key identifying an input PDF.
+     *
+     * @param pdfFile The input PDF.
+     * @return The key of the PDF, only valid while it is unchanged.
+     */
+    private static String getPdfKey(final File pdfFile) {
+        return new StringBuilder().append(pdfFile.length()).append(':').append(pdfFile.lastModified()).append(':').append(pdfFile.getAbsolutePath()).toString();
+    }
+
+    /**
+     * Were the streams of an input PDF met by a previous run, while it was
+     * unchanged ?
+     *
+     * @param pdfFile The input PDF.
+     * @return true if the digests of its streams are in the index.
+     */
+    boolean isPdfKnown(final File pdfFile) {
+        return pdfs.contains(getPdfKey(pdfFile));
+    }
+
+    /**
+     * Retrieve the digest of a stream object already met.
+     *
+     * @param sourceKey The key of the stream object.
+     * @return The digest of the stream content, null if the stream is unknown.
+     */
+    String getDigest(final String sourceKey) {
+        nbLookups.incrementAndGet();
+        SourceEntry source = sources.get(sourceKey);
+        if (source == null) return null;
+        source.lastUsed = now;
+        nbDigestsReused.incrementAndGet();
+        return source.digest;
+    }
+
+    /**
+     * Record the digest of a stream object.
+     *
+     * @param sourceKey The key of the stream object, null if it can not be
+     *                  identified.
+     * @param digest    The digest of the stream content.
+     * @param length    The length of the raw stream content.
+     */
+    void putDigest(final String sourceKey, final String digest, final long length) {
+        if (sourceKey != null) sources.put(sourceKey, new SourceEntry(digest, now));
+        useDigest(digest, length);
+    }
+
+    /**
+     * Record the use of a stream content.
+     *
+     * @param digest The digest of the stream content.
+     * @param length The length of the raw stream content.
+     */
+    void useDigest(final String digest, final long length) {
+        DigestEntry entry = digests.get(digest);
+        if (entry == null) {
+            DigestEntry newEntry = new DigestEntry(length, now, 0, false);
+            entry = digests.putIfAbsent(digest, newEntry);
+            if (entry == null) entry = newEntry;
+        }
+        synchronized (entry) {
+            entry.lastUsed = now;
+            entry.nbUses++;
+        }
+        if (entry.previousRun) nbDigestsKnown.incrementAndGet();
+    }
+
+    /**
+     * Evict the outdated entries and write the index to its file.
+     * <p>
+     * The index is first written into a temporary file which then replaces the
+     * index file, so that an interrupted save does not lose the index.
+     * </p>
+     *
+     * @throws IOException The index file can not be written.
+     */
+    void save() throws IOException {
+        // Evict the entries not used for too long
+        int nbEvicted = 0;
+        if (maxAge > 0) {
+            long oldest = now - maxAge;
+            nbEvicted += evictBefore(digests, oldest);
+            nbEvicted += evictBefore(sources, oldest);
+        }
+
+        // Evict the least recently used entries when there are too many
+        nbEvicted += evictOldest(digests.size() + sources.size() - maxEntries);
+
+        // Write every entry
+        File tempFile = new File(file.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+        try {
+            for (Map.Entry<String, DigestEntry> digest : digests.entrySet()) {
+                DigestEntry entry = digest.getValue();
+                writer.write(RECORD_DIGEST + FIELD_SEPARATOR + digest.getKey() + FIELD_SEPARATOR + entry.length + FIELD_SEPARATOR + entry.lastUsed + FIELD_SEPARATOR + entry.nbUses + "\n");
+            }
+            for (Map.Entry<String, SourceEntry> source : sources.entrySet()) {
+                SourceEntry entry = source.getValue();
+                writer.write(RECORD_SOURCE + FIELD_SEPARATOR + entry.digest + FIELD_SEPARATOR + entry.lastUsed + FIELD_SEPARATOR + source.getKey() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LOG.info("Resource fingerprint index '" + file.getPath() + "' saved : " + digests.size() + " digest(s), " + sources.size() + " source stream(s), " + nbEvicted + " entry(ies) evicted.");
+    }
+
+    /**
+     * Describe the use of the index since it was loaded.
+     *
+     * @return The hit rates of the index.
+     */
+    String getStatistics() {
+        long lookups = nbLookups.get();
+        return lookups + " resource stream(s) looked up, " + getRate(nbDigestsReused.get(), lookups) + " digest(s) reused without hashing, " + getRate(nbDigestsKnown.get(), lookups) + " content(s) already met in a previous run";
+    }
+
+    /**
+     * Format a count and its rate.
+     *
+     * @param count The count.
+     * @param total The total the count is part of.
+     * @return The count followed by its percentage of the total.
+     */
+    static String getRate(final long count, final long total) {
+        return count + " (" + (total == 0 ? 0 : count * 100 / total) + "%)";
+    }
+
+    /**
+     * Remove the entries last used before a time.
+     *
+     * @param entries The entries.
+     * @param oldest  The time of the oldest use kept.
+     * @return The number of removed entries.
+     */
+    private static int evictBefore(final Map<String, ? extends Entry> entries, final long oldest) {
+        int nbEvicted = 0;
+        for (Iterator<? extends Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().lastUsed < oldest) {
+                iterator.remove();
+                nbEvicted++;
+            }
+        }
+        return nbEvicted;
+    }
+
+    /**
+     * Remove the least recently used entries.
+     *
+     * @param nbToEvict The number of entries to remove.
+     * @return The number of removed entries.
+     */
+    private int evictOldest(final int nbToEvict) {
+        if (nbToEvict <= 0) return 0;
+
+        // Sort every entry by last use
+        List<Map.Entry<String, ? extends Entry>> sortedEntries = new ArrayList<Map.Entry<String, ? extends Entry>>(digests.size() + sources.size());
+        sortedEntries.addAll(digests.entrySet());
+        sortedEntries.addAll(sources.entrySet());
+        Collections.sort(sortedEntries, new Comparator<Map.Entry<String, ? extends Entry>>() {
+            public int compare(final Map.Entry<String, ? extends Entry> first, final Map.Entry<String, ? extends Entry> second) {
+                return Long.compare(first.getValue().lastUsed, second.getValue().lastUsed);
+            }
+        });
+
+        // Remove the oldest ones
+        for (int entryIndex = 0; entryIndex < nbToEvict; entryIndex++) {
+            Map.Entry<String, ? extends Entry> entry = sortedEntries.get(entryIndex);
+            if (entry.getValue() instanceof DigestEntry) {
+                digests.remove(entry.getKey());
+            } else {
+                sources.remove(entry.getKey());
+            }
+        }
+        return nbToEvict;
+    }
+
+    /**
+     * An entry of the index.
+     */
+    private static class Entry {
+
+        /**
+         * When the entry was last used, in milliseconds.
+         */
+        long lastUsed;
+    }
+
+    /**
+     * The description of a stream content.
+     */
+    private static class DigestEntry extends Entry {
+
+        DigestEntry(final long length, final long lastUsed, final long nbUses, final boolean previousRun) {
+            this.length = length;
+            this.lastUsed = lastUsed;
+            this.nbUses = nbUses;
+            this.previousRun = previousRun;
+        }
+
+        /**
+         * The length of the raw stream content.
+         */
+        final long length;
+
+        /**
+         * The number of times the content was used.
+         */
+        long nbUses;
+
+        /**
+         * Was the content met in a previous run ?
+         */
+        final boolean previousRun;
+    }
+
+    /**
+     * The digest of a stream object of an input PDF.
+     */
+    private static class SourceEntry extends Entry {
+
+        SourceEntry(final String digest, final long lastUsed) {
+            this.digest = digest;
+            this.lastUsed = lastUsed;
+        }
+
+        /**
+         * The digest of the stream content.
+         */
+        final String digest;
+    }
+
+    /**
+     * The index file.
+     */
+    private final File file;
+
+    /**
+     * The age in milliseconds after which an unused entry is evicted, 0 if
+     * entries are kept regardless of their age.
+     */
+    private final long maxAge;
+
+    /**
+     * The maximum number of entries kept.
+     */
+    private final int maxEntries;
+
+    /**
+     * The time of the current run, used as the last use of every entry used.
+     */
+    private final long now = System.currentTimeMillis();
+
+    /**
+     * The stream contents met, by digest.
+     */
+    private final ConcurrentHashMap<String, DigestEntry> digests = new ConcurrentHashMap<String, DigestEntry>();
+
+    /**
+     * The digests of the stream objects of input PDFs, by source key.
+     */
+    private final ConcurrentHashMap<String, SourceEntry> sources = new ConcurrentHashMap<String, SourceEntry>();
+
+    /**
+     * The keys of the input PDFs having source entries when the index was
+     * loaded.
+     */
+    private final Set<String> pdfs = new HashSet<String>();
+
+    /**
+     * The number of stream objects looked up.
+     */
+    private final AtomicLong nbLookups = new AtomicLong();
+
+    /**
+     * The number of digests taken from the index instead of being computed.
+     */
+    private final AtomicLong nbDigestsReused = new AtomicLong();
+
+    /**
+     * The number of stream contents already met in a previous run.
+     */
+    private final AtomicLong nbDigestsKnown = new AtomicLong();
+
+    /**
+     * Separates the fields of a line of the index file.
+     */
+    private static final String FIELD_SEPARATOR = "\t";
+
+    /**
+     * Starts the line of a digest entry.
+     */
+    private static final String RECORD_DIGEST = "D";
+
+    /**
+     * Starts the line of a source entry.
+     */
+    private static final String RECORD_SOURCE = "S";
+
+    /**
+     * Separates the key of an input PDF from the stream object in a source key.
+     */
+    private static final char SOURCE_KEY_SEPARATOR = '#';
+
+    /**
+     * The logger.
+     */
+    private static final Log LOG = LogFactory.getLog(ResourceFingerprintCache.class);
+}
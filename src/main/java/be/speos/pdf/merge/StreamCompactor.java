@@ -0,0 +1,265 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+// J2SE Utilities packages
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+// Itext PDF packages
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.BadPdfFormatException;
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStream;
+
+/**
+ * Deflate again the streams of the merged PDFs at a higher compression level.
+ * <p>
+ * Producers often write their streams uncompressed or with a fast compression
+ * level. When the merged PDF is written in compact mode, every stream which is
+ * not compressed, or only compressed with a plain Flate filter, is deflated at
+ * the configured level while it is copied. The new content is kept only when it
+ * is smaller than the original one. Streams compressed with other filters, such
+ * as images, are copied as they are.
+ * </p>
+ * <p>
+ * Deflating is the most CPU intensive part of writing a compact merged PDF, so
+ * the prefetch workers deflate the streams of a PDF once it is opened, ahead
+ * of the merged PDF writer : the writer then only appends the ready-made
+ * content of the streams it copies, and the compaction scales with the number
+ * of prefetch threads. The streams of a PDF which was not compacted ahead are
+ * deflated by the writer when they are copied.
+ * </p>
+ * <p>
+ * A compactor is shared by the writers and the prefetch workers of a merge :
+ * the size reduction and the CPU time spent are recorded into the metrics of
+ * the merge.
+ * </p>
+ */
+class StreamCompactor {
+
+    /**
+     * Create a new compactor.
+     *
+     * @param level   The compression level, from 1 (fastest) to 9 (smallest).
+     * @param metrics The metrics the size reduction and CPU time are recorded
+     *                into.
+     */
+    StreamCompactor(final int level, final MergeMetrics metrics) {
+        this.level = level;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Deflate every stream of a PDF ahead of the merged PDF writer.
+     * <p>
+     * The deflated contents are kept until the writer frees the reader, which
+     * must not be used by another thread meanwhile.
+     * </p>
+     *
+     * @param reader The reader of an input PDF.
+     * @throws IOException A stream can not be read.
+     */
+    void precompact(final PdfReader reader) throws IOException {
+        Map<Integer, CompactStream> compactStreams = new HashMap<Integer, CompactStream>();
+        for (int index = 1; index < reader.getXrefSize(); index++) {
+            PdfObject object = reader.getPdfObjectRelease(index);
+            if (object == null || !object.isStream()) continue;
+            PRStream stream = (PRStream) object;
+            CompactStream compactStream = deflate(stream);
+            if (compactStream != null) compactStreams.put(stream.getOffset(), compactStream);
+        }
+        precompactedStreams.put(reader, compactStreams);
+    }
+
+    /**
+     * Drop the streams of a PDF deflated ahead.
+     *
+     * @param reader The reader of an input PDF.
+     */
+    void release(final PdfReader reader) {
+        precompactedStreams.remove(reader);
+    }
+
+    /**
+     * Copy a stream, deflated again if it gets smaller.
+     *
+     * @param stream The copy of a stream of an input PDF, made by a writer.
+     * @param source The stream of the input PDF.
+     * @return The copy.
+     * @throws IOException The stream can not be read.
+     */
+    PdfStream compact(final PdfStream stream, final PRStream source) throws IOException {
+        // Take the stream deflated ahead, or deflate it now
+        CompactStream compactStream = null;
+        Map<Integer, CompactStream> compactStreams = source.getReader() == null ? null : precompactedStreams.get(source.getReader());
+        if (compactStreams != null) compactStream = compactStreams.get(source.getOffset());
+        if (compactStream == null) compactStream = deflate(source);
+        if (compactStream == null) return stream;
+
+        // Replace the content of the copy
+        metrics.recordCompaction(compactStream.originalSize, compactStream.content == null ? compactStream.originalSize : compactStream.content.length);
+        if (compactStream.content != null && stream instanceof PRStream) {
+            ((PRStream) stream).setData(compactStream.content, false);
+            stream.put(PdfName.FILTER, PdfName.FLATEDECODE);
+            stream.remove(PdfName.DECODEPARMS);
+        }
+        return stream;
+    }
+
+    /**
+     * Deflate a stream at the compression level.
+     *
+     * @param stream The stream of an input PDF.
+     * @return The deflated stream, null if the stream can not be deflated
+     *         again.
+     * @throws IOException The stream can not be read.
+     */
+    private CompactStream deflate(final PRStream stream) throws IOException {
+        if (!isCompactable(stream)) return null;
+        long startTime = System.nanoTime();
+        long cpuStartTime = getCpuTime();
+
+        // Get the content, inflated if it is compressed
+        byte[] rawContent = PdfReader.getStreamBytesRaw(stream);
+        byte[] content = rawContent;
+        if (stream.get(PdfName.FILTER) != null) {
+            content = PdfReader.FlateDecode(rawContent);
+            if (content == null) return new CompactStream(rawContent.length, null);
+        }
+
+        // Deflate it again
+        ByteArrayOutputStream compactContent = new ByteArrayOutputStream(Math.max(64, rawContent.length / 2));
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished() && compactContent.size() < rawContent.length) {
+                compactContent.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        // Keep the smallest content
+        boolean smaller = compactContent.size() < rawContent.length;
+        metrics.recordCompactionCpuTime(getCpuTime() - cpuStartTime);
+        metrics.record(MergeMetrics.Phase.COMPACT, startTime);
+        return new CompactStream(rawContent.length, smaller ? compactContent.toByteArray() : null);
+    }
+
+    /**
+     * Can a stream be deflated again ?
+     *
+     * @param stream The stream.
+     * @return true if the stream is not compressed or only compressed with a
+     *         plain Flate filter, and is not a structure or metadata stream.
+     */
+    private static boolean isCompactable(final PRStream stream) {
+        PdfObject type = PdfReader.getPdfObjectRelease(stream.get(PdfName.TYPE));
+        if (PdfName.XREF.equals(type) || PdfName.OBJSTM.equals(type) || PdfName.METADATA.equals(type)) return false;
+        if (stream.get(PdfName.DECODEPARMS) != null) return false;
+        PdfObject filter = PdfReader.getPdfObjectRelease(stream.get(PdfName.FILTER));
+        if (filter != null && filter.isArray()) {
+            PdfArray filters = (PdfArray) filter;
+            if (filters.size() > 1) return false;
+            filter = filters.isEmpty() ? null : PdfReader.getPdfObjectRelease(filters.getPdfObject(0));
+        }
+        return filter == null || PdfName.FLATEDECODE.equals(filter);
+    }
+
+    /**
+     * Get the CPU time of the current thread.
+     *
+     * @return The CPU time in nanoseconds, or the elapsed time if the CPU time is
+     *         not measured by the JVM.
+     */
+    private static long getCpuTime() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * A PDF copier writing its streams in compact mode.
+     */
+    static class CompactingPdfCopy extends PdfCopy {
+
+        CompactingPdfCopy(final Document document, final OutputStream os, final StreamCompactor compactor) throws DocumentException {
+            super(document, os);
+            this.compactor = compactor;
+        }
+
+        @Override
+        protected PdfStream copyStream(final PRStream in) throws IOException, BadPdfFormatException {
+            return compactor.compact(super.copyStream(in), in);
+        }
+
+        @Override
+        public void freeReader(final PdfReader reader) throws IOException {
+            super.freeReader(reader);
+            compactor.release(reader);
+        }
+
+        private final StreamCompactor compactor;
+    }
+
+    /**
+     * A stream deflated at the compression level.
+     */
+    private static class CompactStream {
+
+        CompactStream(final int originalSize, final byte[] content) {
+            this.originalSize = originalSize;
+            this.content = content;
+        }
+
+        /**
+         * The size of the stream in the input PDF.
+         */
+        private final int originalSize;
+
+        /**
+         * The deflated content, null if it is not smaller.
+         */
+        private final byte[] content;
+    }
+
+    /**
+     * The compression level.
+     */
+    private final int level;
+
+    /**
+     * The metrics of the merge.
+     */
+    private final MergeMetrics metrics;
+
+    /**
+     * The streams deflated ahead of the writer, by reader and by offset of the
+     * stream within its PDF.
+     */
+    private final Map<PdfReader, Map<Integer, CompactStream>> precompactedStreams = new ConcurrentHashMap<PdfReader, Map<Integer, CompactStream>>();
+
+    /**
+     * The JVM thread system, measuring the CPU time of the current thread.
+     */
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The size of the buffer the deflated content is gathered through.
+     */
+    private static final int BUFFER_SIZE = 8192;
+}
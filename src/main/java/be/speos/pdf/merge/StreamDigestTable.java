@@ -0,0 +1,196 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A table of the streams copied into a merged PDF, by 128-bit digest, holding
+ * a bounded number of streams.
+ * <p>
+ * The table is made of buckets of a few slots. A digest always goes to the same
+ * bucket and, once its bucket is full, replaces the least recently used stream
+ * of the bucket found by a clock hand : every slot has a reference bit, set
+ * when its stream is found again and cleared when the hand passes over it, and
+ * the hand replaces the first stream whose bit is clear. A stream which has
+ * been replaced is only copied again when it is met next, so that the table
+ * bounds the memory of the deduplication without losing the streams met often.
+ * </p>
+ * <p>
+ * Every slot takes 3 longs, the two halves of the digest and the object number
+ * of the copied stream with its reference bit, either in a long array or
+ * outside of the heap in a direct buffer. The table is not thread safe.
+ * </p>
+ */
+final class StreamDigestTable {
+
+    /**
+     * Create a new table.
+     *
+     * @param memory  The memory the table may use in bytes.
+     * @param offHeap Should the table be allocated outside of the heap ?
+     */
+    StreamDigestTable(final long memory, final boolean offHeap) {
+        long nbBuckets = Math.min(MAX_BUCKETS, Long.highestOneBit(Math.max(1, memory / (SLOT_SIZE * Long.BYTES * NB_WAYS))));
+        this.bucketMask = (int) nbBuckets - 1;
+        int nbLongs = (int) nbBuckets * NB_WAYS * SLOT_SIZE;
+        this.slots = offHeap ? ByteBuffer.allocateDirect(nbLongs * Long.BYTES).asLongBuffer() : LongBuffer.wrap(new long[nbLongs]);
+        this.hands = new byte[(int) nbBuckets];
+    }
+
+    /**
+     * Find a stream already copied.
+     *
+     * @param high The first half of the digest of the stream.
+     * @param low  The second half of the digest of the stream.
+     * @return The object number of the copied stream, 0 if not found.
+     */
+    int get(final long high, final long low) {
+        int bucket = getBucket(high, low);
+        for (int way = 0; way < NB_WAYS; way++) {
+            int slot = (bucket * NB_WAYS + way) * SLOT_SIZE;
+            long value = slots.get(slot + 2);
+            if (value == 0) return 0;
+            if (slots.get(slot) == high && slots.get(slot + 1) == low) {
+                slots.put(slot + 2, value | REFERENCED);
+                return (int) value;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Add a copied stream, replacing the least recently used stream of its
+     * bucket when it is full.
+     *
+     * @param high         The first half of the digest of the stream.
+     * @param low          The second half of the digest of the stream.
+     * @param objectNumber The object number of the copied stream.
+     */
+    void put(final long high, final long low, final int objectNumber) {
+        int bucket = getBucket(high, low);
+
+        // Take a free slot
+        for (int way = 0; way < NB_WAYS; way++) {
+            int slot = (bucket * NB_WAYS + way) * SLOT_SIZE;
+            if (slots.get(slot + 2) == 0) {
+                write(slot, high, low, objectNumber);
+                nbStreams++;
+                return;
+            }
+        }
+
+        // Or the first slot not referenced since the hand last passed
+        int hand = hands[bucket];
+        while (true) {
+            int slot = (bucket * NB_WAYS + hand) * SLOT_SIZE;
+            long value = slots.get(slot + 2);
+            hand = (hand + 1) % NB_WAYS;
+            if ((value & REFERENCED) == 0) {
+                write(slot, high, low, objectNumber);
+                hands[bucket] = (byte) hand;
+                nbEvictions++;
+                return;
+            }
+            slots.put(slot + 2, value & ~REFERENCED);
+        }
+    }
+
+    /**
+     * Get the maximum number of streams held.
+     *
+     * @return The number of slots.
+     */
+    int getCapacity() {
+        return (bucketMask + 1) * NB_WAYS;
+    }
+
+    /**
+     * Get the number of streams held.
+     *
+     * @return The number of streams.
+     */
+    int getNbStreams() {
+        return nbStreams;
+    }
+
+    /**
+     * Get the number of streams replaced by other streams.
+     *
+     * @return The number of evictions.
+     */
+    long getNbEvictions() {
+        return nbEvictions;
+    }
+
+    /**
+     * Write a slot.
+     *
+     * @param slot         The index of the first long of the slot.
+     * @param high         The first half of the digest.
+     * @param low          The second half of the digest.
+     * @param objectNumber The object number of the stream.
+     */
+    private void write(final int slot, final long high, final long low, final int objectNumber) {
+        slots.put(slot, high);
+        slots.put(slot + 1, low);
+        slots.put(slot + 2, objectNumber & 0xffffffffL);
+    }
+
+    /**
+     * Find the bucket of a digest.
+     *
+     * @param high The first half of the digest.
+     * @param low  The second half of the digest.
+     * @return The index of the bucket.
+     */
+    private int getBucket(final long high, final long low) {
+        long mixed = (high ^ low) * 0x9e3779b97f4a7c15L;
+        return (int) (mixed >>> 32) & bucketMask;
+    }
+
+    /**
+     * The slots of every bucket, 3 longs per slot.
+     */
+    private final LongBuffer slots;
+
+    /**
+     * The position of the clock hand of every bucket.
+     */
+    private final byte[] hands;
+
+    /**
+     * The number of buckets minus one.
+     */
+    private final int bucketMask;
+
+    /**
+     * The number of streams held.
+     */
+    private int nbStreams = 0;
+
+    /**
+     * The number of streams replaced.
+     */
+    private long nbEvictions = 0;
+
+    /**
+     * The number of slots of a bucket.
+     */
+    private static final int NB_WAYS = 8;
+
+    /**
+     * The number of longs of a slot.
+     */
+    private static final int SLOT_SIZE = 3;
+
+    /**
+     * The maximum number of buckets, so that the slots fit in a direct buffer.
+     */
+    private static final long MAX_BUCKETS = 1 << 23;
+
+    /**
+     * The reference bit of a slot, in the long holding the object number.
+     */
+    private static final long REFERENCED = 1L << 32;
+}
@@ -0,0 +1,276 @@
+package be.speos.pdf.merge;
+
+// J2SE IO Packages
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// J2SE Utilities packages
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Itext PDF packages
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+
+/**
+ * Compute the 128-bit digests identifying the resource streams to be
+ * deduplicated.
+ * <p>
+ * Like PdfSmartCopy, a stream is identified by an MD5 digest of its dictionary,
+ * of the objects it refers to and of its content. Hashing every stream is the
+ * most CPU intensive part of deduplicating resources, so the prefetch workers
+ * hash the streams of a PDF once it is opened, ahead of the merged PDF writer :
+ * the writer then only looks the digests up, and the hashing scales with the
+ * number of prefetch threads. The streams of a PDF which was not hashed ahead
+ * are hashed by the writer when they are copied.
+ * </p>
+ * <p>
+ * The digests of a PDF hashed ahead are kept as two longs per object, until the
+ * writer frees the reader. A hasher is shared by the writers and the prefetch
+ * workers of a merge.
+ * </p>
+ */
+class StreamHasher {
+
+    /**
+     * Hash every stream of a PDF ahead of the merged PDF writer.
+     * <p>
+     * The reader must not be used by another thread meanwhile.
+     * </p>
+     *
+     * @param reader The reader of an input PDF.
+     * @throws IOException A stream can not be read.
+     */
+    void prehash(final PdfReader reader) throws IOException {
+        long[] digests = new long[reader.getXrefSize() * 2];
+        for (int index = 1; index < reader.getXrefSize(); index++) {
+            PdfObject object = reader.getPdfObjectRelease(index);
+            if (object == null || !object.isStream()) continue;
+            hash((PRStream) object, digests, index * 2);
+        }
+        prehashedStreams.put(reader, digests);
+    }
+
+    /**
+     * Drop the digests of a PDF hashed ahead.
+     *
+     * @param reader The reader of an input PDF.
+     */
+    void release(final PdfReader reader) {
+        prehashedStreams.remove(reader);
+    }
+
+    /**
+     * Get the digest of a stream, hashed ahead or hashed now.
+     *
+     * @param stream       The stream of an input PDF.
+     * @param objectNumber The object number of the stream in its PDF.
+     * @param digest       The array receiving both halves of the digest.
+     * @throws IOException The stream can not be read.
+     */
+    void getDigest(final PRStream stream, final int objectNumber, final long[] digest) throws IOException {
+        long[] digests = stream.getReader() == null ? null : prehashedStreams.get(stream.getReader());
+        if (digests != null && objectNumber * 2 + 1 < digests.length && (digests[objectNumber * 2] != 0 || digests[objectNumber * 2 + 1] != 0)) {
+            digest[0] = digests[objectNumber * 2];
+            digest[1] = digests[objectNumber * 2 + 1];
+            return;
+        }
+        hash(stream, digest, 0);
+    }
+
+    /**
+     * Write a digest in hexadecimal.
+     *
+     * @param digest The two halves of the digest.
+     * @return The digest, in hexadecimal.
+     */
+    static String toHex(final long[] digest) {
+        return String.format("%016x%016x", digest[0], digest[1]);
+    }
+
+    /**
+     * Read a digest written in hexadecimal.
+     *
+     * @param hexDigest The digest, in hexadecimal.
+     * @param digest    The array receiving both halves of the digest.
+     * @return false if the digest is not a 128-bit digest.
+     */
+    static boolean fromHex(final String hexDigest, final long[] digest) {
+        if (hexDigest.length() != 32) return false;
+        try {
+            digest[0] = Long.parseUnsignedLong(hexDigest.substring(0, 16), 16);
+            digest[1] = Long.parseUnsignedLong(hexDigest.substring(16), 16);
+            return true;
+        } catch (NumberFormatException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Hash a stream on the current thread.
+     *
+     * @param stream The stream.
+     * @param digest The array receiving both halves of the digest.
+     * @param offset The index of the first half in the array.
+     * @throws IOException The stream can not be read.
+     */
+    private void hash(final PRStream stream, final long[] digest, final int offset) throws IOException {
+        byte[] hash = DIGESTERS.get().digest(stream);
+        long high = 0;
+        long low = 0;
+        for (int index = 0; index < 8; index++) {
+            high = (high << 8) | (hash[index] & 0xff);
+            low = (low << 8) | (hash[index + 8] & 0xff);
+        }
+        digest[offset] = high;
+        digest[offset + 1] = low;
+    }
+
+    /**
+     * Serialize a stream into a digest, the way PdfSmartCopy does.
+     */
+    private static class Digester {
+
+        Digester() {
+            try {
+                this.digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+                this.contentDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException exception) {
+                throw new IllegalStateException("The " + DIGEST_ALGORITHM + " digest is not available.", exception);
+            }
+        }
+
+        /**
+         * Compute the digest of a stream.
+         * <p>
+         * The stream dictionary and the objects it refers to are serialized,
+         * the content of every stream met being replaced by its own digest.
+         * </p>
+         *
+         * @param stream The stream.
+         * @return The digest of the stream.
+         * @throws IOException The stream can not be read.
+         */
+        byte[] digest(final PRStream stream) throws IOException {
+            digest.reset();
+            serObject(stream, SERIALIZATION_DEPTH);
+            return digest.digest();
+        }
+
+        /**
+         * Add an object to the digest.
+         *
+         * @param obj   The object.
+         * @param level The remaining depth of the serialization.
+         * @throws IOException A stream can not be read.
+         */
+        private void serObject(PdfObject obj, final int level) throws IOException {
+            if (level <= 0) return;
+            if (obj == null) {
+                update("$Lnull");
+                return;
+            }
+            obj = PdfReader.getPdfObject(obj);
+            if (obj.isStream()) {
+                update("$B");
+                serDic((PdfDictionary) obj, level - 1);
+                contentDigest.reset();
+                digest.update(contentDigest.digest(PdfReader.getStreamBytesRaw((PRStream) obj)));
+            } else if (obj.isDictionary()) {
+                serDic((PdfDictionary) obj, level - 1);
+            } else if (obj.isArray()) {
+                serArray((PdfArray) obj, level - 1);
+            } else if (obj.isString()) {
+                update("$S" + obj.toString());
+            } else if (obj.isName()) {
+                update("$N" + obj.toString());
+            } else {
+                update("$L" + obj.toString());
+            }
+        }
+
+        /**
+         * Add a dictionary to the digest, its keys being sorted.
+         *
+         * @param dic   The dictionary.
+         * @param level The remaining depth of the serialization.
+         * @throws IOException A stream can not be read.
+         */
+        private void serDic(final PdfDictionary dic, final int level) throws IOException {
+            update("$D");
+            if (level <= 0) return;
+            PdfName[] keys = dic.getKeys().toArray(new PdfName[dic.size()]);
+            Arrays.sort(keys);
+            for (PdfName key : keys) {
+                serObject(key, level);
+                serObject(dic.get(key), level);
+            }
+        }
+
+        /**
+         * Add an array to the digest.
+         *
+         * @param array The array.
+         * @param level The remaining depth of the serialization.
+         * @throws IOException A stream can not be read.
+         */
+        private void serArray(final PdfArray array, final int level) throws IOException {
+            update("$A");
+            if (level <= 0) return;
+            for (int index = 0; index < array.size(); index++) {
+                serObject(array.getPdfObject(index), level);
+            }
+        }
+
+        /**
+         * Add a token to the digest.
+         *
+         * @param token The token.
+         */
+        private void update(final String token) {
+            digest.update(token.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * The digest of the serialized streams.
+         */
+        private final MessageDigest digest;
+
+        /**
+         * The digest of the stream contents.
+         */
+        private final MessageDigest contentDigest;
+    }
+
+    /**
+     * The digests of the PDFs hashed ahead, two longs per object, by reader.
+     */
+    private final Map<PdfReader, long[]> prehashedStreams = new ConcurrentHashMap<PdfReader, long[]>();
+
+    /**
+     * The digester of every thread.
+     */
+    private static final ThreadLocal<Digester> DIGESTERS = new ThreadLocal<Digester>() {
+        @Override
+        protected Digester initialValue() {
+            return new Digester();
+        }
+    };
+
+    /**
+     * The algorithm of the digests, the one used by PdfSmartCopy.
+     */
+    private static final String DIGEST_ALGORITHM = "MD5";
+
+    /**
+     * The depth of the serialization of a stream, the one used by PdfSmartCopy.
+     */
+    private static final int SERIALIZATION_DEPTH = 100;
+}